@@ -0,0 +1,89 @@
+package com.kongole.stirlingproxy.benchmark;
+
+import com.kongole.stirlingproxy.pdf.ChapterRange;
+import com.kongole.stirlingproxy.pdf.ChapterSplitter;
+import com.kongole.stirlingproxy.pdf.OutlineReader;
+import com.kongole.stirlingproxy.pdf.PdfDocumentLoader;
+import com.kongole.stirlingproxy.pdf.PdfWorkerPool;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Chapter serialization of split-pdf-by-chapters: every chapter saved into a ZIP written to a discarding stream,
+ * one after another from a loaded document and on the PDF worker pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChapterSplitBenchmark {
+
+    private static final int PAGES_PER_CHAPTER = 5;
+
+    @Param({"10", "200"})
+    public int chapters;
+
+    private PDDocument document;
+    private Path file;
+    private List<ChapterRange> ranges;
+    private PdfWorkerPool workerPool;
+    private ChapterSplitter splitter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        document = SyntheticPdfs.withChapters(chapters, PAGES_PER_CHAPTER);
+        file = SyntheticPdfs.save(document, "split-benchmark-");
+        ranges = ChapterSplitter.planChapters(OutlineReader.readBookmarks(document), 1, document.getNumberOfPages());
+
+        workerPool = new PdfWorkerPool(0);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PdfDocumentLoader loader = new PdfDocumentLoader(DataSize.ofMegabytes(256), DataSize.ofMegabytes(8),
+                DataSize.ofMegabytes(64), true, meterRegistry);
+        splitter = new ChapterSplitter(workerPool, loader, 1, meterRegistry);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workerPool.shutdown();
+        document.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void sequential() throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(OutputStream.nullOutputStream())) {
+            splitter.writeSequential(document, ranges, zos);
+        }
+    }
+
+    @Benchmark
+    public void parallel() throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(OutputStream.nullOutputStream())) {
+            splitter.writeParallel(file, ranges, workerPool.getPoolSize(), zos);
+        }
+    }
+}
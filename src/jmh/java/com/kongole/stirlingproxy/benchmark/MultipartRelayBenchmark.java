@@ -0,0 +1,130 @@
+package com.kongole.stirlingproxy.benchmark;
+
+import com.kongole.stirlingproxy.config.UpstreamHttpClientConfig;
+import com.kongole.stirlingproxy.upstream.ConcurrencyLimiter;
+import com.kongole.stirlingproxy.upstream.MultipartBody;
+import com.kongole.stirlingproxy.upstream.StirlingUpstreamClient;
+import com.kongole.stirlingproxy.upstream.UpstreamBackends;
+import com.kongole.stirlingproxy.upstream.UpstreamRelay;
+import com.kongole.stirlingproxy.util.SpooledUpload;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multipart forwarding: assembling the body from a spooled upload, and the full round trip through the pooled
+ * upstream client to an in-process stub Stirling server and back through {@link UpstreamRelay}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultipartRelayBenchmark {
+
+    private static final int RESPONSE_SIZE = 256 * 1024;
+
+    @Param({"65536", "4194304"})
+    public int uploadSize;
+
+    private HttpServer stub;
+    private ExecutorService stubExecutor;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private StirlingUpstreamClient upstreamClient;
+    private SpooledUpload upload;
+    private MultiValueMap<String, Object> form;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] response = new byte[RESPONSE_SIZE];
+        new Random(42).nextBytes(response);
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        stub.createContext("/api/v1/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_PDF_VALUE);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        stubExecutor = Executors.newFixedThreadPool(4);
+        stub.setExecutor(stubExecutor);
+        stub.start();
+
+        UpstreamHttpClientConfig config = new UpstreamHttpClientConfig();
+        connectionManager = config.upstreamConnectionManager(20, 20, Duration.ofSeconds(5), Duration.ofMinutes(1),
+                Duration.ofSeconds(2), Duration.ofMinutes(15));
+        httpClient = config.upstreamHttpClient(connectionManager, Duration.ofSeconds(30), Duration.ofMinutes(1),
+                Duration.ofSeconds(60), Duration.ofSeconds(30));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UpstreamBackends backends = new UpstreamBackends("http://127.0.0.1:" + stub.getAddress().getPort(), false, 1.25,
+                5, Duration.ofSeconds(30), Duration.ofMinutes(5), 50, meterRegistry);
+        upstreamClient = new StirlingUpstreamClient(backends, config.upstreamRequestFactory(httpClient, null,
+                DataSize.ofKilobytes(64)), meterRegistry,
+                new ConcurrencyLimiter(false, 20, 4, 50, 1.5, 50, Duration.ofSeconds(2)));
+
+        byte[] content = new byte[uploadSize];
+        new Random(7).nextBytes(content);
+        upload = SpooledUpload.spool(new ByteArrayInputStream(content), "input.pdf");
+        form = new LinkedMultiValueMap<>();
+        form.add("fileInput", upload.asResource());
+        form.add("pageNumbers", "1,3-5");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        httpClient.close();
+        connectionManager.close();
+        stub.stop(0);
+        stubExecutor.shutdownNow();
+        upload.close();
+    }
+
+    @Benchmark
+    public long assemble() throws IOException {
+        MultipartBody body = MultipartBody.of(form);
+        body.writeTo(OutputStream.nullOutputStream());
+        return body.getContentLength();
+    }
+
+    @Benchmark
+    public void relay() throws IOException {
+        ClientHttpResponse upstream = upstreamClient.postMultipart("general/split-pages", form, List.of(MediaType.ALL));
+        UpstreamRelay.relay(upstream).getBody().writeTo(OutputStream.nullOutputStream());
+    }
+}
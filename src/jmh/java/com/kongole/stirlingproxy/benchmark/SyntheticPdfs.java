@@ -0,0 +1,91 @@
+package com.kongole.stirlingproxy.benchmark;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Builds the in-memory documents the benchmarks run against, so results don't depend on sample files.
+ */
+final class SyntheticPdfs {
+
+    private SyntheticPdfs() {
+    }
+
+    /**
+     * A document of {@code pages} text pages whose outline is a full tree {@code depth} levels deep with {@code width}
+     * children per node. Bookmarks point at pages in pre-order, wrapping around when there are more bookmarks than pages.
+     */
+    static PDDocument withOutline(int depth, int width, int pages) throws IOException {
+        PDDocument document = withPages(pages);
+        PDDocumentOutline outline = new PDDocumentOutline();
+        document.getDocumentCatalog().setDocumentOutline(outline);
+        addChildren(document, outline, depth, width, "", new int[1]);
+        return document;
+    }
+
+    /**
+     * A document of {@code chapters} top-level bookmarks, each starting a run of {@code pagesPerChapter} pages.
+     */
+    static PDDocument withChapters(int chapters, int pagesPerChapter) throws IOException {
+        PDDocument document = withPages(chapters * pagesPerChapter);
+        PDDocumentOutline outline = new PDDocumentOutline();
+        document.getDocumentCatalog().setDocumentOutline(outline);
+        for (int chapter = 0; chapter < chapters; chapter++) {
+            outline.addLast(item(document, "Chapter " + (chapter + 1), chapter * pagesPerChapter));
+        }
+        return document;
+    }
+
+    static Path save(PDDocument document, String prefix) throws IOException {
+        Path file = Files.createTempFile(prefix, ".pdf");
+        document.save(file.toFile());
+        return file;
+    }
+
+    private static PDDocument withPages(int pages) throws IOException {
+        PDDocument document = new PDDocument();
+        for (int i = 0; i < pages; i++) {
+            PDPage page = new PDPage();
+            document.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                content.beginText();
+                content.setFont(PDType1Font.HELVETICA, 12);
+                content.newLineAtOffset(72, 720);
+                content.showText("Page " + (i + 1));
+                content.endText();
+            }
+        }
+        return document;
+    }
+
+    private static void addChildren(PDDocument document, PDOutlineNode parent, int depth, int width, String prefix, int[] counter) {
+        if (depth == 0) {
+            return;
+        }
+        for (int i = 1; i <= width; i++) {
+            String title = prefix + i;
+            PDOutlineItem item = item(document, "Section " + title, counter[0]++ % document.getNumberOfPages());
+            parent.addLast(item);
+            addChildren(document, item, depth - 1, width, title + ".", counter);
+        }
+    }
+
+    private static PDOutlineItem item(PDDocument document, String title, int pageIndex) {
+        PDPageFitDestination destination = new PDPageFitDestination();
+        destination.setPage(document.getPage(pageIndex));
+        PDOutlineItem item = new PDOutlineItem();
+        item.setTitle(title);
+        item.setDestination(destination);
+        return item;
+    }
+}
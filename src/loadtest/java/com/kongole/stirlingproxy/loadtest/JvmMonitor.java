@@ -0,0 +1,129 @@
+package com.kongole.stirlingproxy.loadtest;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.Closeable;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Samples heap and direct buffer usage and collects GC pauses and the peak thread count of this JVM while a
+ * measurement runs.
+ * <p>
+ * Memory is sampled every {@value #SAMPLE_INTERVAL_MS} ms, so the high-water marks can miss a short spike between
+ * samples. Direct memory is what the JDK accounts for {@code ByteBuffer.allocateDirect}, which includes Netty's
+ * pooled buffers unless Netty is allowed to allocate without a cleaner ({@code io.netty.tryReflectionSetAccessible}). Pauses come from GC notifications; collectors reporting concurrent cycles rather than pauses
+ * ("... Cycles", "... Concurrent GC") are ignored.
+ */
+final class JvmMonitor implements Closeable {
+
+    private static final long SAMPLE_INTERVAL_MS = 20;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final BufferPoolMXBean directPool = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+            .filter(pool -> "direct".equals(pool.getName()))
+            .findFirst()
+            .orElse(null);
+    private final List<Long> pausesMs = new ArrayList<>();
+    private final AtomicLong heapHighWater = new AtomicLong();
+    private final AtomicLong committedHighWater = new AtomicLong();
+    private final AtomicLong directHighWater = new AtomicLong();
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener listener = (notification, handback) -> {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        String name = info.getGcName();
+        if (name.contains("Cycles") || name.contains("Concurrent")) {
+            return;
+        }
+        synchronized (pausesMs) {
+            pausesMs.add(info.getGcInfo().getDuration());
+        }
+    };
+    private final Thread sampler;
+    private volatile boolean running = true;
+
+    JvmMonitor() {
+        threads.resetPeakThreadCount();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(listener, null, null);
+                emitters.add(emitter);
+            }
+        }
+        sampler = new Thread(() -> {
+            while (running) {
+                sample();
+                try {
+                    Thread.sleep(SAMPLE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "jvm-monitor");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    long heapHighWater() {
+        return heapHighWater.get();
+    }
+
+    long committedHighWater() {
+        return committedHighWater.get();
+    }
+
+    long directHighWater() {
+        return directHighWater.get();
+    }
+
+    int peakThreads() {
+        return threads.getPeakThreadCount();
+    }
+
+    long maxHeap() {
+        return memory.getHeapMemoryUsage().getMax();
+    }
+
+    List<Long> pausesMs() {
+        synchronized (pausesMs) {
+            return List.copyOf(pausesMs);
+        }
+    }
+
+    private void sample() {
+        var usage = memory.getHeapMemoryUsage();
+        heapHighWater.accumulateAndGet(usage.getUsed(), Math::max);
+        committedHighWater.accumulateAndGet(usage.getCommitted(), Math::max);
+        if (directPool != null) {
+            directHighWater.accumulateAndGet(directPool.getMemoryUsed(), Math::max);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        sampler.interrupt();
+        sample();
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException e) {
+                // Already removed
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.kongole.stirlingproxy.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends multipart requests to the proxy from {@code concurrency} closed-loop workers, cycling through the routes,
+ * and records the latency of each complete exchange (request sent, response body fully read) per route.
+ */
+final class LoadDriver {
+
+    private final URI baseUri;
+    private final List<ProxyRoute> routes;
+    private final int concurrency;
+    private final HttpClient client;
+
+    LoadDriver(URI baseUri, List<ProxyRoute> routes, int concurrency) {
+        this.baseUri = baseUri;
+        this.routes = routes;
+        this.concurrency = concurrency;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    /**
+     * Runs the workers for {@code duration} and returns the merged per-route results.
+     */
+    List<RouteStats> run(Duration duration) throws InterruptedException {
+        long deadline = System.nanoTime() + duration.toNanos();
+        AtomicLong sequence = new AtomicLong();
+        List<RouteStats[]> perWorker = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < concurrency; w++) {
+            RouteStats[] stats = new RouteStats[routes.size()];
+            for (int r = 0; r < routes.size(); r++) {
+                stats[r] = new RouteStats(routes.get(r));
+            }
+            perWorker.add(stats);
+            Thread worker = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    int route = (int) (sequence.getAndIncrement() % routes.size());
+                    send(routes.get(route), stats[route]);
+                }
+            }, "load-driver-" + w);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        List<RouteStats> merged = new ArrayList<>();
+        for (int r = 0; r < routes.size(); r++) {
+            RouteStats total = new RouteStats(routes.get(r));
+            for (RouteStats[] stats : perWorker) {
+                total.merge(stats[r]);
+            }
+            merged.add(total);
+        }
+        return merged;
+    }
+
+    private void send(ProxyRoute route, RouteStats stats) {
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve(route.path()))
+                .timeout(Duration.ofMinutes(2))
+                .header("Content-Type", route.form().contentType())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(route.form().bytes()))
+                .build();
+        long started = System.nanoTime();
+        try {
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            long bytes;
+            try (InputStream body = response.body()) {
+                bytes = body.transferTo(OutputStream.nullOutputStream());
+            }
+            stats.record(response.statusCode(), bytes, System.nanoTime() - started);
+        } catch (IOException e) {
+            stats.failed(System.nanoTime() - started);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Results of one route. Not thread-safe: each worker records into its own instance, merged at the end.
+     */
+    static final class RouteStats {
+        private final ProxyRoute route;
+        private long successes;
+        private long errorResponses;
+        private long failures;
+        private long responseBytes;
+        private long[] latencies = new long[1024];
+        private int count;
+
+        RouteStats(ProxyRoute route) {
+            this.route = route;
+        }
+
+        void record(int status, long bytes, long latencyNanos) {
+            if (status >= 200 && status < 300) {
+                successes++;
+            } else {
+                errorResponses++;
+            }
+            responseBytes += bytes;
+            addLatency(latencyNanos);
+        }
+
+        void failed(long latencyNanos) {
+            failures++;
+            addLatency(latencyNanos);
+        }
+
+        void merge(RouteStats other) {
+            successes += other.successes;
+            errorResponses += other.errorResponses;
+            failures += other.failures;
+            responseBytes += other.responseBytes;
+            for (int i = 0; i < other.count; i++) {
+                addLatency(other.latencies[i]);
+            }
+        }
+
+        ProxyRoute route() {
+            return route;
+        }
+
+        long requests() {
+            return count;
+        }
+
+        long successes() {
+            return successes;
+        }
+
+        /**
+         * Non-2xx responses, including upstream errors relayed by the proxy.
+         */
+        long errorResponses() {
+            return errorResponses;
+        }
+
+        /**
+         * Requests that got no HTTP response at all (connection reset, timeout).
+         */
+        long failures() {
+            return failures;
+        }
+
+        long responseBytes() {
+            return responseBytes;
+        }
+
+        /**
+         * @param quantile Between 0 and 1.
+         * @return The latency at {@code quantile} in nanoseconds (nearest rank), or 0 without samples.
+         */
+        long latencyAt(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(quantile * count);
+            return sorted[Math.max(0, Math.min(count - 1, rank - 1))];
+        }
+
+        private void addLatency(long latencyNanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.kongole.stirlingproxy.loadtest;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of a measured run: per-route throughput and latency percentiles, JVM memory, thread and GC figures, and
+ * how many errors the stub injected, so that relayed upstream errors can be told apart from failures of the proxy
+ * itself.
+ */
+final class LoadReport {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_LABELS = {"p50", "p90", "p99", "p99.9"};
+
+    private final Map<String, Object> config;
+    private final List<LoadDriver.RouteStats> routes;
+    private final double seconds;
+    private final JvmMonitor monitor;
+    private final long stubRequests;
+    private final long injectedErrors;
+
+    LoadReport(Map<String, Object> config, List<LoadDriver.RouteStats> routes, Duration duration, JvmMonitor monitor,
+               long stubRequests, long injectedErrors) {
+        this.config = config;
+        this.routes = routes;
+        this.seconds = duration.toNanos() / 1e9;
+        this.monitor = monitor;
+        this.stubRequests = stubRequests;
+        this.injectedErrors = injectedErrors;
+    }
+
+    /**
+     * Non-2xx responses and failed requests beyond the errors the stub injected. Each injected error reaches the
+     * driver as exactly one relayed 500, so anything above that count went wrong in the proxy.
+     */
+    long unexpectedErrors() {
+        long errors = 0;
+        for (LoadDriver.RouteStats route : routes) {
+            errors += route.errorResponses() + route.failures();
+        }
+        return Math.max(0, errors - injectedErrors);
+    }
+
+    void print(PrintStream out) {
+        out.println();
+        out.printf("%-20s %9s %9s %7s %7s %9s %9s %9s %9s %9s%n",
+                "route", "requests", "req/s", "errors", "failed", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        long requests = 0;
+        for (LoadDriver.RouteStats route : routes) {
+            requests += route.requests();
+            out.printf("%-20s %9d %9.1f %7d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    route.route().name(), route.requests(), route.requests() / seconds, route.errorResponses(), route.failures(),
+                    millis(route.latencyAt(0.5)), millis(route.latencyAt(0.9)), millis(route.latencyAt(0.99)),
+                    millis(route.latencyAt(0.999)), millis(route.latencyAt(1.0)));
+        }
+        out.printf("%-20s %9d %9.1f%n", "total", requests, requests / seconds);
+
+        List<Long> pauses = monitor.pausesMs();
+        out.println();
+        out.printf("Heap high-water: %.1f MB used, %.1f MB committed (max %.1f MB)%n",
+                megabytes(monitor.heapHighWater()), megabytes(monitor.committedHighWater()), megabytes(monitor.maxHeap()));
+        out.printf("Direct memory high-water: %.1f MB; peak threads: %d%n",
+                megabytes(monitor.directHighWater()), monitor.peakThreads());
+        out.printf("GC pauses: %d, total %d ms, max %d ms, p99 %d ms%n",
+                pauses.size(), pauses.stream().mapToLong(Long::longValue).sum(), percentile(pauses, 1.0), percentile(pauses, 0.99));
+        out.printf("Stub: %d upstream calls, %d injected errors; unexpected errors: %d%n",
+                stubRequests, injectedErrors, unexpectedErrors());
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("config", config);
+
+        List<Map<String, Object>> routeMaps = new ArrayList<>();
+        for (LoadDriver.RouteStats route : routes) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("route", route.route().name());
+            entry.put("path", route.route().path());
+            entry.put("requests", route.requests());
+            entry.put("throughput", route.requests() / seconds);
+            entry.put("successes", route.successes());
+            entry.put("errorResponses", route.errorResponses());
+            entry.put("failures", route.failures());
+            entry.put("responseBytes", route.responseBytes());
+            Map<String, Object> latency = new LinkedHashMap<>();
+            for (int i = 0; i < QUANTILES.length; i++) {
+                latency.put(QUANTILE_LABELS[i], millis(route.latencyAt(QUANTILES[i])));
+            }
+            latency.put("max", millis(route.latencyAt(1.0)));
+            entry.put("latencyMs", latency);
+            routeMaps.add(entry);
+        }
+        map.put("routes", routeMaps);
+
+        List<Long> pauses = monitor.pausesMs();
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("heapHighWaterBytes", monitor.heapHighWater());
+        jvm.put("heapCommittedHighWaterBytes", monitor.committedHighWater());
+        jvm.put("heapMaxBytes", monitor.maxHeap());
+        jvm.put("directHighWaterBytes", monitor.directHighWater());
+        jvm.put("peakThreads", monitor.peakThreads());
+        jvm.put("gcPauses", pauses.size());
+        jvm.put("gcPauseTotalMs", pauses.stream().mapToLong(Long::longValue).sum());
+        jvm.put("gcPauseMaxMs", percentile(pauses, 1.0));
+        jvm.put("gcPauseP99Ms", percentile(pauses, 0.99));
+        map.put("jvm", jvm);
+
+        Map<String, Object> stub = new LinkedHashMap<>();
+        stub.put("upstreamCalls", stubRequests);
+        stub.put("injectedErrors", injectedErrors);
+        map.put("stub", stub);
+        map.put("unexpectedErrors", unexpectedErrors());
+        return map;
+    }
+
+    private static long percentile(List<Long> values, double quantile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(values);
+        sorted.sort(null);
+        int rank = (int) Math.ceil(quantile * sorted.size());
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1)));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static double megabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
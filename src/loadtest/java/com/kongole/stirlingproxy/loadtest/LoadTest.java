@@ -0,0 +1,178 @@
+package com.kongole.stirlingproxy.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.kongole.stirlingproxy.ProxyApp;
+import com.kongole.stirlingproxy.reactive.ReactiveProxyServer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.unit.DataSize;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Offline load test of the proxy: a {@link StubStirlingServer} stands in for Stirling, the proxy runs in this JVM
+ * against it, and a {@link LoadDriver} posts to every route. Prints throughput and latency percentiles per route,
+ * plus heap and direct memory high-water, peak threads and GC pauses of the JVM (proxy, stub and driver together)
+ * during the measured run.
+ * <p>
+ * {@code --stack reactive} drives the same routes through the reactive stack ({@code proxy.reactive.enabled}) instead
+ * of the servlet controllers, for comparing the two. It only serves the relayed {@code /proxy-api} routes, so the
+ * local ones are left out, and it never runs operations in-process: pass {@code --property proxy.local.routes=} to the
+ * servlet run as well for a like-for-like comparison.
+ * <p>
+ * Options, all optional:
+ * <pre>
+ *   --duration 30s           measured run
+ *   --warmup 10s             unmeasured run before it
+ *   --concurrency 16         closed-loop driver workers
+ *   --latency 20ms           stub response delay
+ *   --jitter 0ms             random extra stub delay, up to this much
+ *   --response-size 64KB     stub response body size
+ *   --error-rate 0           fraction of stub responses that are 500s
+ *   --pages 20               pages of the generated input PDF
+ *   --routes a,b             only these routes (see ProxyRoute#all)
+ *   --stack servlet          servlet or reactive
+ *   --report file.json       also write the report as JSON
+ *   --property key=value     extra proxy property, repeatable (e.g. proxy.cache.enabled=true)
+ * </pre>
+ * Exits with status 1 if any request failed for a reason other than an error injected by the stub.
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, List<String>> options = parse(args);
+        Duration duration = duration(options, "duration", "30s");
+        Duration warmup = duration(options, "warmup", "10s");
+        int concurrency = Integer.parseInt(option(options, "concurrency", "16"));
+        Duration latency = duration(options, "latency", "20ms");
+        Duration jitter = duration(options, "jitter", "0ms");
+        int responseSize = (int) DataSize.parse(option(options, "response-size", "64KB")).toBytes();
+        double errorRate = Double.parseDouble(option(options, "error-rate", "0"));
+        int pages = Integer.parseInt(option(options, "pages", "20"));
+        String stack = option(options, "stack", "servlet");
+        boolean reactive = switch (stack) {
+            case "servlet" -> false;
+            case "reactive" -> true;
+            default -> throw new IllegalArgumentException("--stack must be servlet or reactive, got: " + stack);
+        };
+
+        List<ProxyRoute> routes = ProxyRoute.all(pages);
+        if (options.containsKey("routes")) {
+            Set<String> selected = Set.of(option(options, "routes", "").split(","));
+            routes = routes.stream().filter(route -> selected.contains(route.name())).collect(Collectors.toList());
+            if (routes.isEmpty()) {
+                throw new IllegalArgumentException("No known routes in --routes " + selected);
+            }
+        }
+        if (reactive) {
+            routes = routes.stream().filter(route -> route.path().startsWith("/proxy-api/")).collect(Collectors.toList());
+            if (routes.isEmpty()) {
+                throw new IllegalArgumentException("The reactive stack serves none of the selected routes");
+            }
+        }
+
+        try (StubStirlingServer stub = new StubStirlingServer(latency, jitter, responseSize, errorRate)) {
+            int stubPort = stub.start();
+            List<String> properties = new ArrayList<>(List.of(
+                    "server.port=0",
+                    "stirling.base.url=http://127.0.0.1:" + stubPort,
+                    "proxy.upstream.health.enabled=false", // Probes would count as stub calls
+                    "logging.level.com.kongole=WARN",
+                    "logging.level.org.springframework.web=WARN",
+                    "logging.level.org.apache.catalina.loader=ERROR", // Pool threads still winding down at shutdown
+                    "spring.main.banner-mode=off"));
+            if (reactive) {
+                properties.addAll(List.of("proxy.reactive.enabled=true", "proxy.reactive.port=0"));
+            }
+            properties.addAll(options.getOrDefault("property", List.of()));
+
+            // As command-line arguments, these take precedence over application.properties
+            String[] proxyArgs = properties.stream().map(property -> "--" + property).toArray(String[]::new);
+            try (ConfigurableApplicationContext proxy = new SpringApplicationBuilder(ProxyApp.class).run(proxyArgs)) {
+                int proxyPort = reactive ? proxy.getBean(ReactiveProxyServer.class).getPort()
+                        : ((WebServerApplicationContext) proxy).getWebServer().getPort();
+                LoadDriver driver = new LoadDriver(URI.create("http://127.0.0.1:" + proxyPort), routes, concurrency);
+
+                System.out.printf("Warming up the %s stack for %s with %d workers against %d routes...%n",
+                        stack, warmup, concurrency, routes.size());
+                driver.run(warmup);
+                long stubRequestsBefore = stub.requests();
+                long injectedBefore = stub.injectedErrors();
+
+                System.out.printf("Measuring for %s...%n", duration);
+                List<LoadDriver.RouteStats> results;
+                JvmMonitor monitor = new JvmMonitor();
+                try {
+                    results = driver.run(duration);
+                } finally {
+                    monitor.close();
+                }
+
+                Map<String, Object> config = new LinkedHashMap<>();
+                config.put("stack", stack);
+                config.put("duration", duration.toString());
+                config.put("concurrency", concurrency);
+                config.put("stubLatency", latency.toString());
+                config.put("stubJitter", jitter.toString());
+                config.put("stubResponseSize", responseSize);
+                config.put("stubErrorRate", errorRate);
+                config.put("inputPages", pages);
+                config.put("properties", options.getOrDefault("property", List.of()));
+
+                LoadReport report = new LoadReport(config, results, duration, monitor,
+                        stub.requests() - stubRequestsBefore, stub.injectedErrors() - injectedBefore);
+                report.print(System.out);
+                if (options.containsKey("report")) {
+                    Path file = Path.of(option(options, "report", ""));
+                    if (file.getParent() != null) {
+                        Files.createDirectories(file.getParent());
+                    }
+                    new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), report.toMap());
+                    System.out.println("Report written to " + file.toAbsolutePath());
+                }
+                if (report.unexpectedErrors() > 0) {
+                    System.out.printf("FAILED: %d requests failed for reasons other than injected upstream errors.%n",
+                            report.unexpectedErrors());
+                    System.exit(1);
+                }
+            }
+        }
+        System.exit(0); // The proxy's non-daemon pools may still be winding down
+    }
+
+    private static Map<String, List<String>> parse(String[] args) {
+        Map<String, List<String>> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + Arrays.toString(args));
+            }
+            options.computeIfAbsent(args[i].substring(2), key -> new ArrayList<>()).add(args[++i]);
+        }
+        return options;
+    }
+
+    private static String option(Map<String, List<String>> options, String name, String defaultValue) {
+        List<String> values = options.get(name);
+        return values == null ? defaultValue : values.get(values.size() - 1);
+    }
+
+    private static Duration duration(Map<String, List<String>> options, String name, String defaultValue) {
+        return DurationStyle.detectAndParse(option(options, name, defaultValue));
+    }
+}
@@ -0,0 +1,48 @@
+package com.kongole.stirlingproxy.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * A {@code multipart/form-data} body assembled once and sent many times by the driver.
+ */
+final class MultipartForm {
+
+    private final String boundary = "loadtest-" + UUID.randomUUID();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private byte[] bytes;
+
+    MultipartForm field(String name, String value) {
+        part("Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n",
+                value.getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    MultipartForm file(String name, String filename, String contentType, byte[] content) {
+        part("Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: " + contentType + "\r\n\r\n", content);
+        return this;
+    }
+
+    String contentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    byte[] bytes() {
+        if (bytes == null) {
+            body.writeBytes(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+            bytes = body.toByteArray();
+        }
+        return bytes;
+    }
+
+    private void part(String headers, byte[] content) {
+        if (bytes != null) {
+            throw new IllegalStateException("Form already built");
+        }
+        body.writeBytes(("--" + boundary + "\r\n" + headers).getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(content);
+        body.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,104 @@
+package com.kongole.stirlingproxy.loadtest;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * One proxy endpoint exercised by the driver, with the form it posts.
+ *
+ * @param relayed Whether the route calls Stirling; local routes (bookmarks, local split) never see injected errors.
+ */
+record ProxyRoute(String name, String path, MultipartForm form, boolean relayed) {
+
+    private static final int PAGES_PER_CHAPTER = 4;
+
+    /**
+     * Every route the proxy serves, posting a generated PDF of {@code pages} pages (one bookmark per chapter)
+     * and a small PNG where images are expected.
+     */
+    static List<ProxyRoute> all(int pages) throws IOException {
+        byte[] pdf = samplePdf(pages);
+        byte[] png = samplePng();
+        return List.of(
+                new ProxyRoute("single-file", "/proxy-api/general/compress-pdf",
+                        new MultipartForm().file("fileInput", "input.pdf", "application/pdf", pdf), true),
+                new ProxyRoute("with-params", "/proxy-api/api/stirling/general/rotate-pdf/with-params",
+                        new MultipartForm().file("fileInput", "input.pdf", "application/pdf", pdf).field("angle", "90"), true),
+                new ProxyRoute("url-to-pdf", "/proxy-api/api/stirling/convert/url/pdf",
+                        new MultipartForm().field("url", "https://example.com/").field("landscape", "true"), true),
+                new ProxyRoute("extract-images", "/proxy-api/api/stirling/misc/extract-images",
+                        new MultipartForm().file("fileInput", "input.pdf", "application/pdf", pdf).field("imageFormat", "png"), true),
+                new ProxyRoute("extract-image-scans", "/proxy-api/api/stirling/misc/extract-image-scans",
+                        new MultipartForm().file("fileInput", "scan.png", "image/png", png).field("angleThreshold", "10"), true),
+                new ProxyRoute("img-to-pdf", "/proxy-api/api/stirling/convert/img/pdf",
+                        new MultipartForm().file("files", "a.png", "image/png", png).file("files", "b.png", "image/png", png)
+                                .field("stretch", "false"), true),
+                new ProxyRoute("merge", "/proxy-api/api/stirling/general/merge-pdfs",
+                        new MultipartForm().file("files", "a.pdf", "application/pdf", pdf).file("files", "b.pdf", "application/pdf", pdf), true),
+                new ProxyRoute("overlay", "/proxy-api/api/stirling/general/overlay-pdfs",
+                        new MultipartForm().file("files", "a.pdf", "application/pdf", pdf).file("files", "b.pdf", "application/pdf", pdf)
+                                .field("mode", "SequentialOverlay"), true),
+                new ProxyRoute("split-relayed", "/proxy-api/api/stirling/general/split-pdf-by-chapters",
+                        new MultipartForm().file("fileInput", "input.pdf", "application/pdf", pdf).field("includeMetadata", "false")
+                                .field("allowDuplicates", "false").field("bookmarkLevel", "1"), true),
+                new ProxyRoute("extract-bookmarks", "/get/pdf-info/extract-bookmarks",
+                        new MultipartForm().file("pdfFile", "input.pdf", "application/pdf", pdf), false),
+                new ProxyRoute("split-local", "/get/api/stirling/general/split-pdf-by-chapters",
+                        new MultipartForm().file("fileInput", "input.pdf", "application/pdf", pdf).field("bookmarkLevel", "1"), false));
+    }
+
+    private static byte[] samplePdf(int pages) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            PDDocumentOutline outline = new PDDocumentOutline();
+            document.getDocumentCatalog().setDocumentOutline(outline);
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(72, 720);
+                    content.showText("Load test page " + (i + 1));
+                    content.endText();
+                }
+                if (i % PAGES_PER_CHAPTER == 0) {
+                    PDPageFitDestination destination = new PDPageFitDestination();
+                    destination.setPage(page);
+                    PDOutlineItem item = new PDOutlineItem();
+                    item.setTitle("Chapter " + (i / PAGES_PER_CHAPTER + 1));
+                    item.setDestination(destination);
+                    outline.addLast(item);
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] samplePng() throws IOException {
+        BufferedImage image = new BufferedImage(200, 300, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 200, 300);
+        graphics.setColor(Color.BLACK);
+        graphics.drawString("load test", 20, 40);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,114 @@
+package com.kongole.stirlingproxy.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the Stirling PDF API on a local port. Every {@code POST /api/v1/**} drains the request body, waits
+ * {@code latency} (plus up to {@code jitter}), and answers with {@code responseSize} bytes of "PDF", or with a 500
+ * for a {@code errorRate} fraction of requests.
+ */
+final class StubStirlingServer implements Closeable {
+
+    private static final byte[] ERROR_BODY = "{\"error\":\"Injected by the load-test stub\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final Duration latency;
+    private final Duration jitter;
+    private final double errorRate;
+    private final byte[] response;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    StubStirlingServer(Duration latency, Duration jitter, int responseSize, double errorRate) throws IOException {
+        this.latency = latency;
+        this.jitter = jitter;
+        this.errorRate = errorRate;
+        this.response = Arrays.copyOf("%PDF-1.4\n".getBytes(StandardCharsets.US_ASCII), Math.max(responseSize, 9));
+        Arrays.fill(response, 9, response.length, (byte) 'x');
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub-stirling-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/api/v1/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    int start() {
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    long injectedErrors() {
+        return injectedErrors.get();
+    }
+
+    long bytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            try (InputStream in = exchange.getRequestBody()) {
+                bytesReceived.addAndGet(in.transferTo(OutputStream.nullOutputStream()));
+            }
+
+            long delayNanos = latency.toNanos();
+            if (!jitter.isZero()) {
+                delayNanos += ThreadLocalRandom.current().nextLong(jitter.toNanos() + 1);
+            }
+            if (delayNanos > 0) {
+                try {
+                    Thread.sleep(delayNanos / 1_000_000, (int) (delayNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                injectedErrors.incrementAndGet();
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(500, ERROR_BODY.length);
+                exchange.getResponseBody().write(ERROR_BODY);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/pdf");
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"result.pdf\"");
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,365 @@
+package com.kongole.stirlingproxy.batch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kongole.stirlingproxy.upstream.StirlingUpstreamClient;
+import com.kongole.stirlingproxy.upstream.UpstreamOverloadedException;
+import com.kongole.stirlingproxy.upstream.UpstreamRelay;
+import com.kongole.stirlingproxy.util.NonClosingOutputStream;
+import com.kongole.stirlingproxy.util.SpooledUpload;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Runs one Stirling operation over many uploads at once and writes the results as entries of a ZIP stream.
+ * <p>
+ * A batch with parallelism {@code n} starts {@code n} workers on a pool of {@code proxy.batch.workers} threads
+ * shared by all batches. Each worker takes the next upload, sends it to Stirling and saves the response to a temp
+ * file; the caller appends results to the ZIP in the order they finish, so the client receives the first one while
+ * the rest are still being processed. Workers wait when {@link #LOOKAHEAD_PER_WORKER} results each are waiting for
+ * the ZIP writer, which bounds the temp files on disk.
+ * <p>
+ * A file that fails doesn't fail the batch: Stirling's error response, or the reason there was none, goes into an
+ * {@code errors/} entry instead, and a closing {@code manifest.json} lists the outcome of every file. Calls shed by
+ * the upstream concurrency limit are retried after their Retry-After, up to {@code proxy.batch.overload-retries} times.
+ */
+@Component
+public class BatchProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchProcessor.class);
+
+    private static final List<MediaType> ACCEPT_ALL = Collections.singletonList(MediaType.ALL);
+    private static final int LOOKAHEAD_PER_WORKER = 2;
+    static final String MANIFEST_ENTRY = "manifest.json";
+
+    private final StirlingUpstreamClient upstreamClient;
+    private final ObjectMapper objectMapper;
+    private final ThreadPoolExecutor workers;
+    private final int defaultParallelism;
+    private final int overloadRetries;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger activeBatches = new AtomicInteger();
+
+    public BatchProcessor(StirlingUpstreamClient upstreamClient, ObjectMapper objectMapper,
+                          @Value("${proxy.batch.workers:16}") int workers,
+                          @Value("${proxy.batch.parallelism:4}") int defaultParallelism,
+                          @Value("${proxy.batch.overload-retries:3}") int overloadRetries) {
+        this.upstreamClient = upstreamClient;
+        this.objectMapper = objectMapper;
+        this.defaultParallelism = defaultParallelism;
+        this.overloadRetries = overloadRetries;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "stirling-batch-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Resolves how many files of a batch go to Stirling at once: the requested level (or the configured default when
+     * absent), capped by the worker pool size and the number of files.
+     */
+    public int effectiveParallelism(Integer requested, int fileCount) {
+        int parallelism = requested != null && requested > 0 ? requested : defaultParallelism;
+        return Math.max(1, Math.min(Math.min(parallelism, workers.getMaximumPoolSize()), fileCount));
+    }
+
+    /**
+     * Posts each of {@code uploads} as {@code fileInput} to {@code /api/v1/{operation}}, together with {@code params},
+     * and writes the responses into {@code zos} as they finish, followed by the manifest. The uploads stay owned by
+     * the caller.
+     */
+    public void write(String operation, List<SpooledUpload> uploads, MultiValueMap<String, String> params,
+                      int parallelism, ZipOutputStream zos) throws IOException {
+        Batch batch = new Batch(operation, uploads, params, parallelism);
+        batches.incrementAndGet();
+        activeBatches.incrementAndGet();
+        for (int worker = 0; worker < parallelism; worker++) {
+            workers.execute(batch::runWorker);
+        }
+
+        List<Map<String, Object>> manifest = new ArrayList<>(Collections.nCopies(uploads.size(), null));
+        int succeededFiles = 0;
+        try {
+            for (int written = 0; written < uploads.size(); written++) {
+                Outcome outcome = batch.take();
+                try {
+                    manifest.set(outcome.index, writeEntry(outcome, zos));
+                } finally {
+                    outcome.deleteResult();
+                }
+                batch.consumed();
+                if (outcome.isSuccess()) {
+                    succeededFiles++;
+                    succeeded.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                }
+            }
+
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("operation", operation);
+            summary.put("succeeded", succeededFiles);
+            summary.put("failed", uploads.size() - succeededFiles);
+            summary.put("files", manifest);
+            zos.putNextEntry(new ZipEntry(MANIFEST_ENTRY));
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new NonClosingOutputStream(zos), summary);
+            zos.closeEntry();
+            logger.info("Batch {} finished: {} of {} file(s) succeeded, {} at a time.", operation, succeededFiles,
+                    uploads.size(), parallelism);
+        } finally {
+            activeBatches.decrementAndGet();
+            batch.cancel(); // Stops workers early if the ZIP writer failed, and removes results nobody will consume
+        }
+    }
+
+    public int getPoolSize() {
+        return workers.getMaximumPoolSize();
+    }
+
+    public int getActiveBatches() {
+        return activeBatches.get();
+    }
+
+    public int getActiveCount() {
+        return workers.getActiveCount();
+    }
+
+    public long batches() {
+        return batches.get();
+    }
+
+    public long succeeded() {
+        return succeeded.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    private Map<String, Object> writeEntry(Outcome outcome, ZipOutputStream zos) throws IOException {
+        String entryName = outcome.isSuccess()
+                ? String.format("%03d-%s", outcome.index + 1, outcome.resultFilename())
+                : String.format("errors/%03d-%s.txt", outcome.index + 1, outcome.uploadName);
+        zos.putNextEntry(new ZipEntry(entryName));
+        if (outcome.resultFile != null) {
+            Files.copy(outcome.resultFile, zos);
+        } else {
+            zos.write(outcome.error.getBytes(StandardCharsets.UTF_8));
+        }
+        zos.closeEntry();
+        zos.flush(); // Push the finished entry to the client before waiting for the next one
+
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("index", outcome.index + 1);
+        entry.put("file", outcome.originalFilename);
+        entry.put("status", outcome.isSuccess() ? "SUCCEEDED" : "FAILED");
+        entry.put("upstreamStatus", outcome.status);
+        entry.put("attempts", outcome.attempts);
+        entry.put("entry", entryName);
+        if (!outcome.isSuccess()) {
+            entry.put("error", outcome.error);
+        }
+        return entry;
+    }
+
+    private static String safeName(String name) {
+        String safe = name == null ? "" : name.replaceAll("[^a-zA-Z0-9.\\-_ ]", "_").trim();
+        return safe.isEmpty() ? "file" : safe;
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Could not delete batch result {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Coordination state of one batch. Workers claim files through {@code next}, so a slow file holds up only its
+     * own worker, and hand results to the ZIP writer through {@code completed}.
+     */
+    private final class Batch {
+        private final String operation;
+        private final List<SpooledUpload> uploads;
+        private final MultiValueMap<String, String> params;
+        private final AtomicInteger next = new AtomicInteger();
+        private final BlockingQueue<Outcome> completed = new LinkedBlockingQueue<>();
+        private final Semaphore window;
+        private volatile boolean cancelled;
+
+        private Batch(String operation, List<SpooledUpload> uploads, MultiValueMap<String, String> params, int parallelism) {
+            this.operation = operation;
+            this.uploads = uploads;
+            this.params = params;
+            this.window = new Semaphore(parallelism * LOOKAHEAD_PER_WORKER);
+        }
+
+        void runWorker() {
+            int index;
+            while (!cancelled && (index = next.getAndIncrement()) < uploads.size()) {
+                window.acquireUninterruptibly();
+                // Once interrupted (the pool is shutting down) every claimed file still gets an outcome,
+                // so the ZIP writer finishes instead of waiting forever
+                Outcome outcome = cancelled || Thread.currentThread().isInterrupted()
+                        ? Outcome.failed(index, uploads.get(index), 0, 0, "Interrupted")
+                        : process(index);
+                completed.add(outcome);
+                if (cancelled) {
+                    discardCompleted();
+                }
+            }
+        }
+
+        private Outcome process(int index) {
+            SpooledUpload upload = uploads.get(index);
+            MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+            form.add("fileInput", upload.asResource());
+            params.forEach((name, values) -> values.forEach(value -> form.add(name, value)));
+
+            for (int attempt = 1; ; attempt++) {
+                Path resultFile = null;
+                try (ClientHttpResponse upstream = upstreamClient.postMultipart(operation, form, ACCEPT_ALL, upload.getSha256())) {
+                    int status = upstream.getStatusCode().value();
+                    HttpHeaders headers = UpstreamRelay.copyHeaders(upstream.getHeaders());
+                    resultFile = Files.createTempFile("stirling-proxy-batch-", ".bin");
+                    try (InputStream in = upstream.getBody()) {
+                        Files.copy(in, resultFile, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    if (status < 200 || status >= 300) {
+                        logger.warn("Stirling PDF API returned {} for {} in batch {}.", status, upload.getOriginalFilename(), operation);
+                        return new Outcome(index, upload, status, headers, resultFile, attempt, "Stirling PDF API returned " + status);
+                    }
+                    return new Outcome(index, upload, status, headers, resultFile, attempt, null);
+                } catch (UpstreamOverloadedException e) {
+                    if (attempt > overloadRetries || cancelled) {
+                        return Outcome.failed(index, upload, 0, attempt, "Stirling PDF is overloaded: " + e.getMessage());
+                    }
+                    logger.debug("Batch {} file {} shed by the upstream limit, retrying in {}.", operation, index + 1, e.getRetryAfter());
+                    try {
+                        Thread.sleep(e.getRetryAfter().toMillis());
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return Outcome.failed(index, upload, 0, attempt, "Interrupted");
+                    }
+                } catch (IOException | RuntimeException e) {
+                    deleteQuietly(resultFile);
+                    logger.warn("Batch {} file {} failed: {}", operation, index + 1, e.getMessage());
+                    return Outcome.failed(index, upload, 0, attempt, "Network issue calling Stirling PDF: " + e.getMessage());
+                }
+            }
+        }
+
+        Outcome take() throws IOException {
+            try {
+                return completed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for batch results", e);
+            }
+        }
+
+        void consumed() {
+            window.release();
+        }
+
+        void cancel() {
+            cancelled = true;
+            window.release(uploads.size()); // Wakes workers waiting for room; they see the flag and stop
+            discardCompleted();
+        }
+
+        private void discardCompleted() {
+            Outcome leftover;
+            while ((leftover = completed.poll()) != null) {
+                leftover.deleteResult();
+            }
+        }
+    }
+
+    /**
+     * What one file of a batch came back with. Failed files keep Stirling's error response as the result when there
+     * was one.
+     */
+    private static final class Outcome {
+        private final int index;
+        private final String originalFilename;
+        private final String uploadName;
+        private final int status;
+        private final HttpHeaders headers;
+        private final Path resultFile;
+        private final int attempts;
+        private final String error;
+
+        private Outcome(int index, SpooledUpload upload, int status, HttpHeaders headers, Path resultFile, int attempts, String error) {
+            this.index = index;
+            this.originalFilename = upload.getOriginalFilename();
+            this.uploadName = safeName(upload.getOriginalFilename());
+            this.status = status;
+            this.headers = headers;
+            this.resultFile = resultFile;
+            this.attempts = attempts;
+            this.error = error;
+        }
+
+        static Outcome failed(int index, SpooledUpload upload, int status, int attempts, String error) {
+            return new Outcome(index, upload, status, null, null, attempts, error);
+        }
+
+        boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * The name Stirling gave the result, or else the upload's.
+         */
+        String resultFilename() {
+            String filename = headers.getContentDisposition().getFilename();
+            return filename != null ? safeName(filename) : uploadName;
+        }
+
+        void deleteResult() {
+            deleteQuietly(resultFile);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.kongole.stirlingproxy.cache;
+
+import com.kongole.stirlingproxy.util.SpooledUpload;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds content-addressed keys for proxied operations: the same bytes sent through the same
+ * route with the same parameters always produce the same key, whatever order the parameters arrived in.
+ */
+public final class CacheKey {
+
+    private CacheKey() {
+    }
+
+    /**
+     * @param contentSha256 Hex SHA-256 of the uploaded file.
+     * @param route         The Stirling route, e.g. {@code general/compress-pdf}.
+     * @param params        Form parameters forwarded with the file (the file field itself excluded).
+     * @return A hex SHA-256 over the canonical form of the inputs.
+     */
+    public static String of(String contentSha256, String route, Map<String, String> params) {
+        StringBuilder canonical = new StringBuilder()
+                .append(contentSha256).append('\n')
+                .append(route).append('\n');
+        new TreeMap<>(params).forEach((name, value) ->
+                canonical.append(name.length()).append(':').append(name).append('=')
+                        .append(value.length()).append(':').append(value).append('\n'));
+
+        MessageDigest digest = SpooledUpload.sha256Digest();
+        return HexFormat.of().formatHex(digest.digest(canonical.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,58 @@
+package com.kongole.stirlingproxy.cache;
+
+import org.springframework.http.HttpHeaders;
+
+import java.nio.file.Path;
+
+/**
+ * An upstream response stored on disk by {@link ResultCache}.
+ */
+public class CachedResult {
+    private final String key;
+    private final Path bodyFile;
+    private final long size;
+    private final int status;
+    private final HttpHeaders headers;
+    private final long createdAt; // epoch millis
+
+    public CachedResult(String key, Path bodyFile, long size, int status, HttpHeaders headers, long createdAt) {
+        this.key = key;
+        this.bodyFile = bodyFile;
+        this.size = size;
+        this.status = status;
+        this.headers = headers;
+        this.createdAt = createdAt;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Path getBodyFile() {
+        return bodyFile;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Identifies this stored body: the key alone isn't enough, since an expired entry may be stored again with a
+     * body that differs (Stirling stamps creation dates into some outputs).
+     */
+    public String getEtag() {
+        return key + "-" + Long.toHexString(createdAt);
+    }
+}
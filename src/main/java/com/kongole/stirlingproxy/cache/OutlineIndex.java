@@ -0,0 +1,265 @@
+package com.kongole.stirlingproxy.cache;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kongole.stirlingproxy.dto.BookmarkInfo;
+import com.kongole.stirlingproxy.pdf.ChapterRange;
+import com.kongole.stirlingproxy.pdf.OutlineSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk index of document outlines, keyed by the SHA-256 of the PDF bytes, so that extracting bookmarks and
+ * then splitting the same file parses and resolves its outline only once.
+ * <p>
+ * Each document is one {@code <sha256>.json} file holding its {@link OutlineSummary}. An access-ordered index
+ * evicts the least recently used documents beyond a byte budget and an entry-count cap. Reads bump the file's
+ * modification time, so the LRU order survives restarts when the index is rebuilt from the directory.
+ */
+@Component
+public class OutlineIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutlineIndex.class);
+
+    private static final String SUFFIX = ".json";
+    private static final String TEMP_PREFIX = "pending-";
+    // Bumped whenever outline resolution changes, so entries resolved the old way are discarded instead of reused
+    private static final int FORMAT_VERSION = 2;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxBytes;
+    private final int maxEntries;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Access-ordered key -> file size, so iteration starts at the least recently used document
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public OutlineIndex(
+            @Value("${proxy.outline-index.enabled:true}") boolean enabled,
+            @Value("${proxy.outline-index.dir:${java.io.tmpdir}/stirling-proxy-outlines}") Path directory,
+            @Value("${proxy.outline-index.max-size:64MB}") DataSize maxSize,
+            @Value("${proxy.outline-index.max-entries:5000}") int maxEntries) throws IOException {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.maxBytes = maxSize.toBytes();
+        this.maxEntries = maxEntries;
+
+        if (enabled) {
+            Files.createDirectories(directory);
+            loadIndex();
+            logger.info("Outline index enabled at '{}' ({} documents, {} bytes, max {} bytes).",
+                    directory, index.size(), totalBytes, maxBytes);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The indexed outline of the document with this content hash, or null if it isn't indexed.
+     */
+    public OutlineSummary get(String sha256) {
+        Path file = directory.resolve(sha256 + SUFFIX);
+        synchronized (this) {
+            if (index.get(sha256) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        try {
+            OutlineSummary summary = fromMap(objectMapper.readValue(file.toFile(), new TypeReference<Map<String, Object>>() { }));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return summary;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Discarding unreadable outline index entry {}: {}", sha256, e.getMessage());
+            synchronized (this) {
+                removeEntry(sha256);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores (or replaces) the outline of the document with this content hash. Failures are logged, not thrown:
+     * the index is only an optimisation.
+     */
+    public void put(String sha256, OutlineSummary summary) {
+        try {
+            Path tempFile = Files.createTempFile(directory, TEMP_PREFIX, SUFFIX);
+            try {
+                objectMapper.writeValue(tempFile.toFile(), toMap(summary));
+                long size = Files.size(tempFile);
+                synchronized (this) {
+                    Files.move(tempFile, directory.resolve(sha256 + SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    Long previous = index.put(sha256, size);
+                    if (previous != null) {
+                        totalBytes -= previous;
+                    }
+                    totalBytes += size;
+                    evict();
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not store outline index entry {}: {}", sha256, e.getMessage());
+        }
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> lru = index.entrySet().iterator();
+        while ((totalBytes > maxBytes || index.size() > maxEntries) && lru.hasNext()) {
+            Map.Entry<String, Long> eldest = lru.next();
+            lru.remove();
+            deleteFile(eldest.getKey());
+            totalBytes -= eldest.getValue();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void removeEntry(String key) {
+        Long removed = index.remove(key);
+        if (removed != null) {
+            totalBytes -= removed;
+            deleteFile(key);
+        }
+    }
+
+    private void deleteFile(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key + SUFFIX));
+        } catch (IOException e) {
+            logger.warn("Could not delete outline index file for key {}: {}", key, e.getMessage());
+        }
+    }
+
+    private synchronized void loadIndex() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Map<Path, Long> modified = new HashMap<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path file : entries) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(TEMP_PREFIX)) {
+                    Files.deleteIfExists(file); // Left over from an interrupted write
+                } else if (name.endsWith(SUFFIX)) {
+                    files.add(file);
+                    modified.put(file, Files.getLastModifiedTime(file).toMillis());
+                }
+            }
+        }
+
+        files.sort(Comparator.comparingLong(modified::get));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long size = Files.size(file);
+            index.put(name.substring(0, name.length() - SUFFIX.length()), size);
+            totalBytes += size;
+        }
+        evict();
+    }
+
+    private static Map<String, Object> toMap(OutlineSummary summary) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("version", FORMAT_VERSION);
+        map.put("pageCount", summary.getPageCount());
+        map.put("hasOutline", summary.hasOutline());
+
+        List<Map<String, Object>> bookmarks = new ArrayList<>();
+        for (BookmarkInfo bookmark : summary.getBookmarks()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("title", bookmark.getTitle());
+            entry.put("pageNumber", bookmark.getPageNumber());
+            entry.put("level", bookmark.getLevel());
+            bookmarks.add(entry);
+        }
+        map.put("bookmarks", bookmarks);
+
+        Map<String, Object> chapters = new LinkedHashMap<>();
+        summary.getChaptersByLevel().forEach((level, ranges) -> {
+            List<Map<String, Object>> entries = new ArrayList<>();
+            for (ChapterRange range : ranges) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("index", range.getIndex());
+                entry.put("title", range.getTitle());
+                entry.put("startPage", range.getStartPage());
+                entry.put("endPage", range.getEndPage());
+                entries.add(entry);
+            }
+            chapters.put(String.valueOf(level), entries);
+        });
+        map.put("chapters", chapters);
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static OutlineSummary fromMap(Map<String, Object> map) {
+        if (!(map.get("version") instanceof Number version) || version.intValue() != FORMAT_VERSION) {
+            throw new IllegalStateException("Entry has format version " + map.get("version") + ", expected " + FORMAT_VERSION);
+        }
+        List<BookmarkInfo> bookmarks = new ArrayList<>();
+        for (Map<String, Object> entry : (List<Map<String, Object>>) map.get("bookmarks")) {
+            bookmarks.add(new BookmarkInfo((String) entry.get("title"),
+                    ((Number) entry.get("pageNumber")).intValue(), ((Number) entry.get("level")).intValue()));
+        }
+
+        Map<Integer, List<ChapterRange>> chaptersByLevel = new HashMap<>();
+        ((Map<String, List<Map<String, Object>>>) map.get("chapters")).forEach((level, entries) -> {
+            List<ChapterRange> ranges = new ArrayList<>();
+            for (Map<String, Object> entry : entries) {
+                ranges.add(new ChapterRange(((Number) entry.get("index")).intValue(), (String) entry.get("title"),
+                        ((Number) entry.get("startPage")).intValue(), ((Number) entry.get("endPage")).intValue()));
+            }
+            chaptersByLevel.put(Integer.parseInt(level), ranges);
+        });
+
+        return new OutlineSummary(((Number) map.get("pageCount")).intValue(), (Boolean) map.get("hasOutline"),
+                bookmarks, chaptersByLevel);
+    }
+}
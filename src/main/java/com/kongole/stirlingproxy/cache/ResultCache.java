@@ -0,0 +1,298 @@
+package com.kongole.stirlingproxy.cache;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kongole.stirlingproxy.upstream.RelaySink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opt-in, content-addressed store of successful upstream responses.
+ * <p>
+ * Bodies live on disk ({@code <key>.bin} plus a {@code <key>.json} metadata sidecar); an in-memory
+ * access-ordered index tracks them for LRU eviction against a byte budget and an entry-count cap.
+ * Entries older than the TTL are dropped on access and whenever a new entry is stored.
+ * The index is rebuilt from the sidecars on startup.
+ */
+@Component
+public class ResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultCache.class);
+
+    private static final String BODY_SUFFIX = ".bin";
+    private static final String META_SUFFIX = ".json";
+    private static final String TEMP_PREFIX = "pending-";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxBytes;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, CachedResult> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ResultCache(
+            @Value("${proxy.cache.enabled:false}") boolean enabled,
+            @Value("${proxy.cache.dir:${java.io.tmpdir}/stirling-proxy-cache}") Path directory,
+            @Value("${proxy.cache.max-size:2GB}") DataSize maxSize,
+            @Value("${proxy.cache.max-entries:10000}") int maxEntries,
+            @Value("${proxy.cache.ttl:1h}") Duration ttl) throws IOException {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.maxBytes = maxSize.toBytes();
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+
+        if (enabled) {
+            Files.createDirectories(directory);
+            loadIndex();
+            logger.info("Result cache enabled at '{}' ({} entries, {} bytes, max {} bytes, TTL {}).",
+                    directory, index.size(), totalBytes, maxBytes, ttl);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The live entry for {@code key}, or null if there is none or it has expired.
+     */
+    public CachedResult get(String key) {
+        CachedResult result;
+        synchronized (this) {
+            result = index.get(key);
+            if (result != null && isExpired(result, System.currentTimeMillis())) {
+                removeEntry(key);
+                result = null;
+            }
+        }
+        if (result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Starts writing a new entry. The entry only becomes visible once the returned sink is completed.
+     */
+    public RelaySink begin(String key) throws IOException {
+        return new PendingEntry(key, Files.createTempFile(directory, TEMP_PREFIX, BODY_SUFFIX));
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    private void commit(String key, Path tempFile, int status, HttpHeaders headers) throws IOException {
+        long size = Files.size(tempFile);
+        if (size > maxBytes) {
+            Files.deleteIfExists(tempFile);
+            return;
+        }
+
+        HttpHeaders storedHeaders = new HttpHeaders();
+        headers.forEach((name, values) -> {
+            if (!HttpHeaders.DATE.equalsIgnoreCase(name) && !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                storedHeaders.put(name, values);
+            }
+        });
+        long createdAt = System.currentTimeMillis();
+
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("status", status);
+        metadata.put("size", size);
+        metadata.put("createdAt", createdAt);
+        metadata.put("headers", storedHeaders);
+
+        synchronized (this) {
+            Path bodyFile = directory.resolve(key + BODY_SUFFIX);
+            Files.move(tempFile, bodyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            objectMapper.writeValue(directory.resolve(key + META_SUFFIX).toFile(), metadata);
+
+            CachedResult previous = index.put(key, new CachedResult(key, bodyFile, size, status, storedHeaders, createdAt));
+            if (previous != null) {
+                totalBytes -= previous.getSize();
+            }
+            totalBytes += size;
+            evict(createdAt);
+        }
+        logger.debug("Cached {} bytes under key {}.", size, key);
+    }
+
+    private void evict(long now) {
+        index.entrySet().removeIf(entry -> {
+            if (isExpired(entry.getValue(), now)) {
+                deleteFiles(entry.getKey());
+                totalBytes -= entry.getValue().getSize();
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        });
+
+        Iterator<Map.Entry<String, CachedResult>> lru = index.entrySet().iterator();
+        while ((totalBytes > maxBytes || index.size() > maxEntries) && lru.hasNext()) {
+            Map.Entry<String, CachedResult> eldest = lru.next();
+            lru.remove();
+            deleteFiles(eldest.getKey());
+            totalBytes -= eldest.getValue().getSize();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void removeEntry(String key) {
+        CachedResult removed = index.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.getSize();
+            deleteFiles(key);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private boolean isExpired(CachedResult result, long now) {
+        return now - result.getCreatedAt() > ttlMillis;
+    }
+
+    // Readers that already opened the body keep their handle; on POSIX systems the bytes stay readable until closed.
+    private void deleteFiles(String key) {
+        try {
+            Files.deleteIfExists(directory.resolve(key + BODY_SUFFIX));
+            Files.deleteIfExists(directory.resolve(key + META_SUFFIX));
+        } catch (IOException e) {
+            logger.warn("Could not delete cache files for key {}: {}", key, e.getMessage());
+        }
+    }
+
+    private synchronized void loadIndex() throws IOException {
+        List<CachedResult> entries = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(TEMP_PREFIX)) {
+                    Files.deleteIfExists(file); // Left over from an interrupted write
+                } else if (name.endsWith(META_SUFFIX)) {
+                    String key = name.substring(0, name.length() - META_SUFFIX.length());
+                    CachedResult entry = readEntry(key, file);
+                    if (entry == null) {
+                        deleteFiles(key);
+                    } else {
+                        entries.add(entry);
+                    }
+                }
+            }
+        }
+
+        entries.sort(Comparator.comparingLong(CachedResult::getCreatedAt));
+        for (CachedResult entry : entries) {
+            index.put(entry.getKey(), entry);
+            totalBytes += entry.getSize();
+        }
+        evict(System.currentTimeMillis());
+    }
+
+    private CachedResult readEntry(String key, Path metaFile) {
+        try {
+            Map<String, Object> metadata = objectMapper.readValue(metaFile.toFile(), new TypeReference<Map<String, Object>>() { });
+            Path bodyFile = directory.resolve(key + BODY_SUFFIX);
+            long size = ((Number) metadata.get("size")).longValue();
+            if (!Files.exists(bodyFile) || Files.size(bodyFile) != size) {
+                return null;
+            }
+
+            HttpHeaders headers = new HttpHeaders();
+            @SuppressWarnings("unchecked")
+            Map<String, List<String>> storedHeaders = (Map<String, List<String>>) metadata.get("headers");
+            storedHeaders.forEach(headers::put);
+
+            return new CachedResult(key, bodyFile, size, ((Number) metadata.get("status")).intValue(), headers,
+                    ((Number) metadata.get("createdAt")).longValue());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Discarding unreadable cache entry {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private final class PendingEntry implements RelaySink {
+        private final String key;
+        private final Path tempFile;
+        private final OutputStream out;
+        private boolean finished;
+
+        private PendingEntry(String key, Path tempFile) throws IOException {
+            this.key = key;
+            this.tempFile = tempFile;
+            this.out = Files.newOutputStream(tempFile);
+        }
+
+        @Override
+        public OutputStream stream() {
+            return out;
+        }
+
+        @Override
+        public void complete(int status, HttpHeaders headers) throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            out.close();
+            commit(key, tempFile, status, headers);
+        }
+
+        @Override
+        public void abort() {
+            finished = true;
+            try {
+                out.close();
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                logger.warn("Could not discard partial cache entry {}: {}", tempFile, e.getMessage());
+            }
+        }
+    }
+}
@@ -7,6 +7,17 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
 public class CorsConfig {
+
+    /**
+     * Response headers browsers may read.
+     */
+    public static final String[] EXPOSED_HEADERS = {
+            // Resumable upload clients in the browser need to read these,
+            "Location", "Tus-Resumable", "Tus-Version", "Tus-Extension", "Tus-Max-Size",
+            "Tus-Checksum-Algorithm", "Upload-Offset", "Upload-Length", "Upload-Expires",
+            // and these to resume result downloads
+            "ETag", "Accept-Ranges", "Content-Range", "Content-Location"};
+
     @Bean
     public WebMvcConfigurer corsConfigurer() {
         return new WebMvcConfigurer() {
@@ -14,7 +25,8 @@ public class CorsConfig {
             public void addCorsMappings(CorsRegistry registry) {
                 registry.addMapping("/**")
                         .allowedMethods("*")
-                        .allowedOrigins("*");
+                        .allowedOrigins("*")
+                        .exposedHeaders(EXPOSED_HEADERS);
             }
         };
     }
@@ -0,0 +1,153 @@
+package com.kongole.stirlingproxy.config;
+
+import com.kongole.stirlingproxy.batch.BatchProcessor;
+import com.kongole.stirlingproxy.cache.OutlineIndex;
+import com.kongole.stirlingproxy.cache.ResultCache;
+import com.kongole.stirlingproxy.job.JobManager;
+import com.kongole.stirlingproxy.pdf.LocalOperations;
+import com.kongole.stirlingproxy.pdf.PdfDocumentLoader;
+import com.kongole.stirlingproxy.pdf.PdfWorkerPool;
+import com.kongole.stirlingproxy.pipeline.PipelineRunner;
+import com.kongole.stirlingproxy.upload.ResumableUploadManager;
+import com.kongole.stirlingproxy.upstream.ConcurrencyLimiter;
+import com.kongole.stirlingproxy.upstream.RequestCoalescer;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import io.micrometer.core.instrument.config.MeterFilter;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Micrometer wiring beyond the meters recorded inline: the figures behind {@code /proxy-api/stats} as gauges and
+ * counters, the upstream connection pool, and a cap on distinct upstream routes.
+ * <p>
+ * Routes are taken from the request path of {@code /proxy-api/{category}/{action}}, so clients could otherwise
+ * create an unbounded number of time series.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterFilter upstreamRouteLimit(@Value("${proxy.metrics.max-upstream-routes:100}") int maxRoutes) {
+        return MeterFilter.maximumAllowableTags("proxy.upstream", "route", maxRoutes, MeterFilter.deny());
+    }
+
+    @Bean
+    public MeterBinder upstreamPoolMetrics(PoolingHttpClientConnectionManager upstreamConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(upstreamConnectionManager, "stirling");
+    }
+
+    @Bean
+    public MeterBinder upstreamLimiterMetrics(ConcurrencyLimiter limiter) {
+        return registry -> {
+            Gauge.builder("proxy.upstream.limiter.limit", limiter, ConcurrencyLimiter::getLimit).register(registry);
+            Gauge.builder("proxy.upstream.limiter.in.flight", limiter, ConcurrencyLimiter::getInFlight).register(registry);
+            Gauge.builder("proxy.upstream.limiter.queued", limiter, ConcurrencyLimiter::getQueued).register(registry);
+            FunctionCounter.builder("proxy.upstream.limiter.shed", limiter, ConcurrencyLimiter::shedQueueFull)
+                    .tag("reason", "queue-full").register(registry);
+            FunctionCounter.builder("proxy.upstream.limiter.shed", limiter, ConcurrencyLimiter::shedTimeout)
+                    .tag("reason", "timeout").register(registry);
+            FunctionCounter.builder("proxy.upstream.limiter.dropped", limiter, ConcurrencyLimiter::dropped).register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder pdfProcessingMetrics(PdfDocumentLoader documentLoader, PdfWorkerPool workerPool, LocalOperations localOperations) {
+        return registry -> {
+            FunctionCounter.builder("proxy.local.operation.fallbacks", localOperations, LocalOperations::fallbacks).register(registry);
+            Gauge.builder("proxy.pdf.memory.budget", documentLoader, PdfDocumentLoader::getHeapBudget)
+                    .baseUnit("bytes").register(registry);
+            Gauge.builder("proxy.pdf.memory.reserved", documentLoader, PdfDocumentLoader::getReserved)
+                    .baseUnit("bytes").register(registry);
+            for (PdfDocumentLoader.Mode mode : PdfDocumentLoader.Mode.values()) {
+                FunctionCounter.builder("proxy.pdf.loads", documentLoader, loader -> loader.getLoads(mode))
+                        .tag("mode", mode.name()).register(registry);
+            }
+            FunctionCounter.builder("proxy.pdf.lazy.outline.reads", documentLoader, PdfDocumentLoader::getLazyOutlineReads)
+                    .register(registry);
+            FunctionCounter.builder("proxy.pdf.lazy.outline.fallbacks", documentLoader, PdfDocumentLoader::getLazyOutlineFallbacks)
+                    .register(registry);
+            Gauge.builder("proxy.pdf.workers.active", workerPool, PdfWorkerPool::getActiveCount).register(registry);
+            Gauge.builder("proxy.pdf.workers.queued", workerPool, PdfWorkerPool::getQueuedCount).register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder cacheMetrics(ResultCache resultCache, OutlineIndex outlineIndex, RequestCoalescer requestCoalescer) {
+        return registry -> {
+            Gauge.builder("proxy.cache.entries", resultCache, ResultCache::size).tag("cache", "result").register(registry);
+            Gauge.builder("proxy.cache.size", resultCache, ResultCache::totalBytes).tag("cache", "result")
+                    .baseUnit("bytes").register(registry);
+            FunctionCounter.builder("proxy.cache.hits", resultCache, ResultCache::hits).tag("cache", "result").register(registry);
+            FunctionCounter.builder("proxy.cache.misses", resultCache, ResultCache::misses).tag("cache", "result").register(registry);
+            FunctionCounter.builder("proxy.cache.evictions", resultCache, ResultCache::evictions).tag("cache", "result").register(registry);
+
+            Gauge.builder("proxy.cache.entries", outlineIndex, OutlineIndex::size).tag("cache", "outline").register(registry);
+            Gauge.builder("proxy.cache.size", outlineIndex, OutlineIndex::totalBytes).tag("cache", "outline")
+                    .baseUnit("bytes").register(registry);
+            FunctionCounter.builder("proxy.cache.hits", outlineIndex, OutlineIndex::hits).tag("cache", "outline").register(registry);
+            FunctionCounter.builder("proxy.cache.misses", outlineIndex, OutlineIndex::misses).tag("cache", "outline").register(registry);
+            FunctionCounter.builder("proxy.cache.evictions", outlineIndex, OutlineIndex::evictions).tag("cache", "outline").register(registry);
+
+            FunctionCounter.builder("proxy.coalescing.leaders", requestCoalescer, RequestCoalescer::leaders).register(registry);
+            FunctionCounter.builder("proxy.coalescing.coalesced", requestCoalescer, RequestCoalescer::coalesced).register(registry);
+            FunctionCounter.builder("proxy.coalescing.fallbacks", requestCoalescer, RequestCoalescer::fallbacks).register(registry);
+            Gauge.builder("proxy.coalescing.in.flight", requestCoalescer, RequestCoalescer::inFlight).register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder jobMetrics(JobManager jobManager) {
+        return registry -> {
+            Gauge.builder("proxy.jobs.kept", jobManager, manager -> manager.getJobs().size()).register(registry);
+            Gauge.builder("proxy.jobs.queued", jobManager, JobManager::getQueuedCount).register(registry);
+            Gauge.builder("proxy.jobs.running", jobManager, JobManager::getRunningCount).register(registry);
+            FunctionCounter.builder("proxy.jobs.submitted", jobManager, JobManager::submitted).register(registry);
+            FunctionCounter.builder("proxy.jobs.rejected", jobManager, JobManager::rejected).register(registry);
+            FunctionCounter.builder("proxy.jobs.finished", jobManager, JobManager::succeeded).tag("state", "SUCCEEDED").register(registry);
+            FunctionCounter.builder("proxy.jobs.finished", jobManager, JobManager::failed).tag("state", "FAILED").register(registry);
+            FunctionCounter.builder("proxy.jobs.finished", jobManager, JobManager::cancelled).tag("state", "CANCELLED").register(registry);
+            FunctionCounter.builder("proxy.jobs.expired", jobManager, JobManager::expired).register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder batchMetrics(BatchProcessor batchProcessor) {
+        return registry -> {
+            Gauge.builder("proxy.batch.active", batchProcessor, BatchProcessor::getActiveBatches).register(registry);
+            Gauge.builder("proxy.batch.workers.active", batchProcessor, BatchProcessor::getActiveCount).register(registry);
+            FunctionCounter.builder("proxy.batch.batches", batchProcessor, BatchProcessor::batches).register(registry);
+            FunctionCounter.builder("proxy.batch.files", batchProcessor, BatchProcessor::succeeded).tag("outcome", "succeeded").register(registry);
+            FunctionCounter.builder("proxy.batch.files", batchProcessor, BatchProcessor::failed).tag("outcome", "failed").register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder pipelineMetrics(PipelineRunner pipelineRunner) {
+        return registry -> {
+            FunctionCounter.builder("proxy.pipeline.runs", pipelineRunner, PipelineRunner::pipelines).register(registry);
+            FunctionCounter.builder("proxy.pipeline.steps", pipelineRunner, PipelineRunner::upstreamSteps).tag("where", "upstream").register(registry);
+            FunctionCounter.builder("proxy.pipeline.steps", pipelineRunner, PipelineRunner::localSteps).tag("where", "local").register(registry);
+            FunctionCounter.builder("proxy.pipeline.failed.steps", pipelineRunner, PipelineRunner::failedSteps).register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder uploadMetrics(ResumableUploadManager uploadManager) {
+        return registry -> {
+            Gauge.builder("proxy.uploads.kept", uploadManager, manager -> manager.getUploads().size()).register(registry);
+            FunctionCounter.builder("proxy.uploads.created", uploadManager, ResumableUploadManager::created).register(registry);
+            FunctionCounter.builder("proxy.uploads.rejected", uploadManager, ResumableUploadManager::rejected).register(registry);
+            FunctionCounter.builder("proxy.uploads.completed", uploadManager, ResumableUploadManager::completed).register(registry);
+            FunctionCounter.builder("proxy.uploads.checksum.mismatches", uploadManager, ResumableUploadManager::checksumMismatches)
+                    .register(registry);
+            FunctionCounter.builder("proxy.uploads.expired", uploadManager, ResumableUploadManager::expired).register(registry);
+            FunctionCounter.builder("proxy.uploads.received", uploadManager, ResumableUploadManager::bytesReceived)
+                    .baseUnit("bytes").register(registry);
+        };
+    }
+}
@@ -0,0 +1,177 @@
+package com.kongole.stirlingproxy.config;
+
+import com.kongole.stirlingproxy.upstream.AsyncUpstreamRequestFactory;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * Builds the pooled, keep-alive HttpClient5 transport used for every call to Stirling.
+ * Connections (and their TLS sessions) are reused across proxied requests instead of being opened per call.
+ * <p>
+ * {@code proxy.upstream.transport} picks how operations are sent: {@code classic} (the default) uses the blocking
+ * pool below, {@code async} uses the non-blocking client over HTTP/1.1, or HTTP/2 when TLS negotiates it, and
+ * {@code h2} sends everything as HTTP/2 streams multiplexed over one connection per backend. Health checks always
+ * use the classic client.
+ */
+@Configuration
+public class UpstreamHttpClientConfig {
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager upstreamConnectionManager(
+            @Value("${proxy.upstream.pool.max-total:200}") int maxTotal,
+            @Value("${proxy.upstream.pool.max-per-route:50}") int maxPerRoute,
+            @Value("${proxy.upstream.connect-timeout:5s}") Duration connectTimeout,
+            @Value("${proxy.upstream.socket-timeout:5m}") Duration socketTimeout,
+            @Value("${proxy.upstream.pool.validate-after-inactivity:2s}") Duration validateAfterInactivity,
+            @Value("${proxy.upstream.pool.time-to-live:15m}") Duration timeToLive) {
+
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                .setDefaultSocketConfig(SocketConfig.custom()
+                        .setSoKeepAlive(true) // TCP keep-alive so idle pooled sockets aren't silently dropped by NATs
+                        .setTcpNoDelay(true)
+                        .setSoTimeout(Timeout.of(socketTimeout))
+                        .build())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(socketTimeout))
+                        .setValidateAfterInactivity(TimeValue.of(validateAfterInactivity))
+                        .setTimeToLive(TimeValue.of(timeToLive))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient upstreamHttpClient(
+            PoolingHttpClientConnectionManager upstreamConnectionManager,
+            @Value("${proxy.upstream.pool.acquire-timeout:30s}") Duration acquireTimeout,
+            @Value("${proxy.upstream.response-timeout:5m}") Duration responseTimeout,
+            @Value("${proxy.upstream.keep-alive:60s}") Duration keepAlive,
+            @Value("${proxy.upstream.pool.idle-eviction:30s}") Duration idleEviction) {
+
+        return HttpClients.custom()
+                .setConnectionManager(upstreamConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(acquireTimeout))
+                        .setResponseTimeout(Timeout.of(responseTimeout))
+                        // Used when Stirling doesn't send a Keep-Alive header of its own
+                        .setConnectionKeepAlive(TimeValue.of(keepAlive))
+                        .build())
+                .evictIdleConnections(TimeValue.of(idleEviction))
+                .evictExpiredConnections()
+                // Uploads are streamed and can't be replayed, so never retry them transparently
+                .disableAutomaticRetries()
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnExpression("'${proxy.upstream.transport:classic}' != 'classic'")
+    @SuppressWarnings("deprecation") // The HTTP/2 builder takes its connect timeout from the request config only
+    public CloseableHttpAsyncClient upstreamAsyncClient(
+            @Value("${proxy.upstream.transport:classic}") String transport,
+            @Value("${proxy.upstream.pool.max-total:200}") int maxTotal,
+            @Value("${proxy.upstream.pool.max-per-route:50}") int maxPerRoute,
+            @Value("${proxy.upstream.connect-timeout:5s}") Duration connectTimeout,
+            @Value("${proxy.upstream.socket-timeout:5m}") Duration socketTimeout,
+            @Value("${proxy.upstream.pool.validate-after-inactivity:2s}") Duration validateAfterInactivity,
+            @Value("${proxy.upstream.pool.time-to-live:15m}") Duration timeToLive,
+            @Value("${proxy.upstream.pool.acquire-timeout:30s}") Duration acquireTimeout,
+            @Value("${proxy.upstream.response-timeout:5m}") Duration responseTimeout,
+            @Value("${proxy.upstream.pool.idle-eviction:30s}") Duration idleEviction,
+            @Value("${proxy.upstream.async.io-threads:0}") int ioThreads,
+            @Value("${proxy.upstream.async.h2.initial-window-size:1MB}") DataSize initialWindowSize) {
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors())
+                .setSoKeepAlive(true)
+                .setTcpNoDelay(true)
+                .setSoTimeout(Timeout.of(socketTimeout))
+                .build();
+        CloseableHttpAsyncClient client = switch (transport) {
+            case "h2" -> HttpAsyncClients.customHttp2()
+                    .setIOReactorConfig(ioReactorConfig)
+                    .setH2Config(H2Config.custom()
+                            .setPushEnabled(false)
+                            .setInitialWindowSize((int) Math.min(initialWindowSize.toBytes(), Integer.MAX_VALUE))
+                            .build())
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectTimeout(Timeout.of(connectTimeout))
+                            .setResponseTimeout(Timeout.of(responseTimeout))
+                            .build())
+                    .disableAutomaticRetries()
+                    .build();
+            case "async" -> HttpAsyncClients.custom()
+                    .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                            .setMaxConnTotal(maxTotal)
+                            .setMaxConnPerRoute(maxPerRoute)
+                            .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                            .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                    .setConnectTimeout(Timeout.of(connectTimeout))
+                                    .setSocketTimeout(Timeout.of(socketTimeout))
+                                    .setValidateAfterInactivity(TimeValue.of(validateAfterInactivity))
+                                    .setTimeToLive(TimeValue.of(timeToLive))
+                                    .build())
+                            // HTTP/2 where the backend offers it over TLS (ALPN), HTTP/1.1 otherwise
+                            .setDefaultTlsConfig(TlsConfig.custom()
+                                    .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                                    .build())
+                            .build())
+                    .setIOReactorConfig(ioReactorConfig)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectionRequestTimeout(Timeout.of(acquireTimeout))
+                            .setResponseTimeout(Timeout.of(responseTimeout))
+                            .build())
+                    .evictIdleConnections(TimeValue.of(idleEviction))
+                    .evictExpiredConnections()
+                    .disableAutomaticRetries()
+                    .build();
+            default -> throw new IllegalArgumentException(
+                    "proxy.upstream.transport must be classic, async or h2, not " + transport);
+        };
+        client.start();
+        return client;
+    }
+
+    /**
+     * The blocking pool is the fallback: it is used unless an async client was configured.
+     */
+    @Bean
+    public ClientHttpRequestFactory upstreamRequestFactory(
+            CloseableHttpClient upstreamHttpClient,
+            @Nullable CloseableHttpAsyncClient upstreamAsyncClient,
+            @Value("${proxy.upstream.async.buffer-size:64KB}") DataSize asyncBufferSize) {
+        if (upstreamAsyncClient != null) {
+            return new AsyncUpstreamRequestFactory(upstreamAsyncClient, (int) asyncBufferSize.toBytes());
+        }
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(upstreamHttpClient);
+        factory.setBufferRequestBody(false); // Stream the multipart body instead of collecting it in memory first
+        return factory;
+    }
+}
@@ -0,0 +1,121 @@
+package com.kongole.stirlingproxy.controller;
+
+import com.kongole.stirlingproxy.batch.BatchProcessor;
+import com.kongole.stirlingproxy.upstream.StirlingUpstreamClient;
+import com.kongole.stirlingproxy.upstream.UpstreamRelay;
+import com.kongole.stirlingproxy.util.SpooledUpload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Applies one Stirling operation to many files in a single request, instead of one round trip per file.
+ */
+@RestController
+@RequestMapping("/proxy-api/batch")
+public class BatchController {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchController.class);
+
+    private final BatchProcessor batchProcessor;
+    private final StirlingUpstreamClient upstreamClient;
+    private final int maxFiles;
+
+    public BatchController(BatchProcessor batchProcessor, StirlingUpstreamClient upstreamClient,
+                           @Value("${proxy.batch.max-files:500}") int maxFiles) {
+        this.batchProcessor = batchProcessor;
+        this.upstreamClient = upstreamClient;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Sends each of {@code files} to Stirling's {@code /api/v1/{category}/{action}} as {@code fileInput}, with every
+     * other form field passed along unchanged, and streams a ZIP of the results as they finish. Failed files are
+     * reported in {@code errors/} entries and in the closing {@code manifest.json} without failing the batch.
+     *
+     * @param parallelism How many files go to Stirling at once; defaults to {@code proxy.batch.parallelism}.
+     */
+    @PostMapping(value = "/{category}/{action}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> batch(
+            @PathVariable String category,
+            @PathVariable String action,
+            @RequestParam("files") MultipartFile[] files,
+            @RequestParam(value = "parallelism", required = false) Integer parallelism,
+            @RequestParam MultiValueMap<String, String> allRequestParams) {
+
+        String operation = category + "/" + action;
+        if (files.length == 0 || files.length > maxFiles) {
+            logger.warn("Rejecting batch {} with {} file(s); between 1 and {} are accepted.", operation, files.length, maxFiles);
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+                    .body(UpstreamRelay.bytes(("A batch takes between 1 and " + maxFiles + " files").getBytes()));
+        }
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<>(allRequestParams);
+        params.remove("files");
+        params.remove("parallelism");
+
+        List<SpooledUpload> uploads = new ArrayList<>();
+        boolean handedOff = false; // Once the streaming body owns the uploads, it is responsible for deleting them
+        try {
+            for (MultipartFile file : files) {
+                // Hashing is only worth it when the hash picks the backend
+                uploads.add(upstreamClient.isContentRouted() ? SpooledUpload.spool(file) : SpooledUpload.spoolUnhashed(file));
+            }
+
+            int workers = batchProcessor.effectiveParallelism(parallelism, uploads.size());
+            StreamingResponseBody body = outputStream -> {
+                try (ZipOutputStream zos = new ZipOutputStream(outputStream)) {
+                    batchProcessor.write(operation, uploads, params, workers, zos);
+                    zos.finish();
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Error while streaming batch {}: {}", operation, e.getMessage(), e);
+                    throw e;
+                } finally {
+                    deleteQuietly(uploads);
+                }
+            };
+            handedOff = true;
+
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"batch_" + action + ".zip\"")
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .body(body);
+
+        } catch (IOException e) {
+            logger.error("Error reading file(s) for batch {}: {}", operation, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(UpstreamRelay.bytes(("Error reading file(s): " + e.getMessage()).getBytes()));
+        } finally {
+            if (!handedOff) {
+                deleteQuietly(uploads);
+            }
+        }
+    }
+
+    private static void deleteQuietly(List<SpooledUpload> uploads) {
+        for (SpooledUpload upload : uploads) {
+            try {
+                upload.close();
+            } catch (IOException e) {
+                logger.warn("Could not delete spooled upload {}: {}", upload.getPath(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.kongole.stirlingproxy.controller;
+
+import com.kongole.stirlingproxy.job.Job;
+import com.kongole.stirlingproxy.job.JobManager;
+import com.kongole.stirlingproxy.upstream.UpstreamRelay;
+import com.kongole.stirlingproxy.util.UploadSpool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous counterpart of the proxy routes: a job runs a Stirling call in the background and keeps its result
+ * for download, so long operations such as OCR or image scans neither hold a request thread nor depend on the
+ * client staying connected.
+ * <p>
+ * {@code POST /proxy-api/jobs/{category}/{action}} takes the same multipart form Stirling's
+ * {@code /api/v1/{category}/{action}} does, file parts under any names, and answers 202 with the job's status
+ * and its URL in Location. That URL reports the status; {@code /events} streams it as server-sent events until the
+ * job finishes, {@code /result} downloads the stored response, and DELETE cancels the job and drops its result.
+ */
+@RestController
+@RequestMapping("/proxy-api/jobs")
+public class JobController {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobController.class);
+
+    private final JobManager jobManager;
+    private final TaskExecutor eventExecutor;
+
+    public JobController(JobManager jobManager, TaskExecutor applicationTaskExecutor) {
+        this.jobManager = jobManager;
+        this.eventExecutor = applicationTaskExecutor;
+    }
+
+    @PostMapping(value = "/{category}/{action}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Map<String, Object>> submit(
+            @PathVariable String category,
+            @PathVariable String action,
+            MultipartHttpServletRequest request) {
+
+        String operation = category + "/" + action;
+        UploadSpool spool = new UploadSpool();
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        try {
+            for (Map.Entry<String, List<MultipartFile>> part : request.getMultiFileMap().entrySet()) {
+                for (MultipartFile file : part.getValue()) {
+                    form.add(part.getKey(), spool.add(file));
+                }
+            }
+            request.getParameterMap().forEach((name, values) -> {
+                for (String value : values) {
+                    form.add(name, value);
+                }
+            });
+        } catch (IOException e) {
+            spool.close();
+            logger.error("Error spooling uploads for job {}: {}", operation, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Error reading file(s): " + e.getMessage()));
+        }
+
+        Job job;
+        try {
+            job = jobManager.submit(operation, form, spool);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Rejecting job for {}: {}", operation, e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, jobManager.getCleanupInterval().toSeconds())))
+                    .body(Map.of("error", e.getMessage()));
+        }
+        return ResponseEntity.accepted()
+                .header(HttpHeaders.LOCATION, jobUrl(job))
+                .body(toMap(job));
+    }
+
+    @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> status(@PathVariable String id) {
+        Job job = jobManager.get(id);
+        if (job == null) {
+            return notFound(id);
+        }
+        return ResponseEntity.ok(toMap(job));
+    }
+
+    /**
+     * Streams the job's status as {@code status} events: on every state change and, while the result arrives,
+     * at most twice a second. The stream ends once the job has finished.
+     */
+    @GetMapping(value = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> events(@PathVariable String id) {
+        Job job = jobManager.get(id);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        SseEmitter emitter = new SseEmitter();
+        new EventStream(job, emitter).start();
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * The stored upstream response, with Stirling's status and headers. A job that failed on Stirling's side keeps
+     * its error response here as well; one that never got a response answers 410 with the reason.
+     * A successful result carries a strong ETag and supports conditional and byte-range requests, so a client that
+     * lost the connection halfway through resumes the download instead of starting over.
+     */
+    @GetMapping("/{id}/result")
+    public ResponseEntity<StreamingResponseBody> result(@PathVariable String id, @RequestHeader HttpHeaders requestHeaders) {
+        Job job = jobManager.get(id);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType(MediaType.TEXT_PLAIN)
+                    .body(UpstreamRelay.bytes(("No job " + id + "; it may have expired").getBytes()));
+        }
+        Job.State state = job.getState();
+        if (!state.isFinished()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).contentType(MediaType.TEXT_PLAIN)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body(UpstreamRelay.bytes(("Job " + id + " is still " + state).getBytes()));
+        }
+        Path resultFile = job.getResultFile();
+        if (resultFile == null) {
+            return ResponseEntity.status(HttpStatus.GONE).contentType(MediaType.TEXT_PLAIN)
+                    .body(UpstreamRelay.bytes(("Job " + id + " has no result: " + job.getError()).getBytes()));
+        }
+        try {
+            // A job's result never changes once it has finished, so the job id identifies it
+            return UpstreamRelay.replay(job.getUpstreamStatus(), job.getResultHeaders(), resultFile, "job-" + id, requestHeaders);
+        } catch (IOException e) {
+            // Deleted or expired between the lookup and opening the file
+            logger.warn("Could not open result of job {}: {}", id, e.getMessage());
+            return ResponseEntity.status(HttpStatus.GONE).contentType(MediaType.TEXT_PLAIN)
+                    .body(UpstreamRelay.bytes(("Result of job " + id + " is no longer available").getBytes()));
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> delete(@PathVariable String id) {
+        return jobManager.delete(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    private Map<String, Object> toMap(Job job) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        Job.State state = job.getState();
+        map.put("id", job.getId());
+        map.put("operation", job.getOperation());
+        map.put("state", state);
+        map.put("phase", job.getPhase());
+        map.put("submittedAt", job.getSubmittedAt());
+        map.put("startedAt", job.getStartedAt());
+        map.put("finishedAt", job.getFinishedAt());
+        map.put("attempts", job.getAttempts());
+        map.put("upstreamStatus", job.getUpstreamStatus());
+        map.put("receivedBytes", job.getResultBytes());
+        map.put("expectedBytes", job.getExpectedBytes());
+        map.put("error", job.getError());
+        if (state.isFinished()) {
+            map.put("expiresAt", job.getFinishedAt().plus(jobManager.getResultTtl()));
+            if (job.getResultFile() != null) {
+                map.put("resultUrl", jobUrl(job) + "/result");
+            }
+        }
+        return map;
+    }
+
+    private static String jobUrl(Job job) {
+        return "/proxy-api/jobs/" + job.getId();
+    }
+
+    private static ResponseEntity<Map<String, Object>> notFound(String id) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "No job " + id + "; it may have expired"));
+    }
+
+    /**
+     * Relays a job's changes to one SSE client. Job listeners run on the job's worker, so sending is handed to the
+     * task executor; changes that arrive while a send is pending are folded into it, since every event carries
+     * the whole status.
+     */
+    private final class EventStream implements Consumer<Job> {
+
+        private final Job job;
+        private final SseEmitter emitter;
+        private final AtomicBoolean pending = new AtomicBoolean();
+        private volatile boolean closed;
+
+        EventStream(Job job, SseEmitter emitter) {
+            this.job = job;
+            this.emitter = emitter;
+        }
+
+        void start() {
+            emitter.onCompletion(this::close);
+            emitter.onTimeout(this::close);
+            emitter.onError(e -> close());
+            job.addListener(this);
+            accept(job); // The current status, and catches a job that finished before the listener was added
+        }
+
+        @Override
+        public void accept(Job changed) {
+            if (!closed && pending.compareAndSet(false, true)) {
+                try {
+                    eventExecutor.execute(this::send);
+                } catch (RejectedExecutionException e) {
+                    pending.set(false);
+                }
+            }
+        }
+
+        private void send() {
+            pending.set(false);
+            if (closed) {
+                return;
+            }
+            boolean finished = job.getState().isFinished();
+            try {
+                emitter.send(SseEmitter.event().name("status").data(toMap(job), MediaType.APPLICATION_JSON));
+                if (finished) {
+                    close();
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Client went away; the job carries on regardless
+                close();
+            }
+        }
+
+        private void close() {
+            closed = true;
+            job.removeListener(this);
+        }
+    }
+}
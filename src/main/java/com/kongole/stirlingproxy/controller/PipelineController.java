@@ -0,0 +1,112 @@
+package com.kongole.stirlingproxy.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kongole.stirlingproxy.dto.PipelineStep;
+import com.kongole.stirlingproxy.pipeline.PipelineRunner;
+import com.kongole.stirlingproxy.upstream.UpstreamOverloadedException;
+import com.kongole.stirlingproxy.upstream.UpstreamRelay;
+import com.kongole.stirlingproxy.util.SpooledUpload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chains several operations on the proxy side, e.g. rotate, compress and watermark, in one request.
+ */
+@RestController
+@RequestMapping("/proxy-api/pipeline")
+public class PipelineController {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineController.class);
+
+    private final PipelineRunner pipelineRunner;
+    private final ObjectMapper objectMapper;
+
+    public PipelineController(PipelineRunner pipelineRunner, ObjectMapper objectMapper) {
+        this.pipelineRunner = pipelineRunner;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Runs {@code steps} on the uploaded files and returns the last step's result.
+     *
+     * @param fileInput The input file(s). All of them go to the first step, e.g. a merge; later steps get the
+     *                  previous step's result.
+     * @param steps     JSON array of steps in order, each {@code {"operation": "category/action", "params": {...}}},
+     *                  with {@code "fileField"} when the route doesn't take its file as {@code fileInput}.
+     */
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<StreamingResponseBody> runPipeline(
+            @RequestParam("fileInput") MultipartFile[] fileInput,
+            @RequestParam("steps") String steps) {
+
+        List<PipelineStep> pipeline;
+        try {
+            pipeline = objectMapper.readValue(steps, new TypeReference<List<PipelineStep>>() { });
+        } catch (JsonProcessingException e) {
+            return badRequest("steps is not a valid JSON array of steps: " + e.getOriginalMessage());
+        }
+        String invalid = pipelineRunner.validate(pipeline, fileInput.length);
+        if (invalid != null) {
+            return badRequest(invalid);
+        }
+
+        List<SpooledUpload> uploads = new ArrayList<>();
+        try {
+            for (MultipartFile file : fileInput) {
+                uploads.add(SpooledUpload.spool(file));
+            }
+        } catch (IOException e) {
+            for (SpooledUpload upload : uploads) {
+                try {
+                    upload.close();
+                } catch (IOException closeFailure) {
+                    logger.warn("Could not delete spooled upload {}: {}", upload.getPath(), closeFailure.getMessage());
+                }
+            }
+            logger.error("Error reading file(s) for pipeline: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(UpstreamRelay.bytes(("Error reading file(s): " + e.getMessage()).getBytes()));
+        }
+
+        try {
+            return pipelineRunner.run(pipeline, uploads);
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        } catch (UpstreamOverloadedException e) {
+            logger.warn("Shedding pipeline: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()))
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(UpstreamRelay.bytes(("Stirling PDF is overloaded, retry later: " + e.getMessage()).getBytes()));
+        } catch (IOException e) {
+            logger.error("Error reading file(s) or network issue during pipeline: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(UpstreamRelay.bytes(("Error reading file(s) or network issue: " + e.getMessage()).getBytes()));
+        } catch (Exception e) {
+            logger.error("Unexpected internal server error in pipeline: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(UpstreamRelay.bytes(("Internal server error in proxy: " + e.getMessage()).getBytes()));
+        }
+    }
+
+    private static ResponseEntity<StreamingResponseBody> badRequest(String message) {
+        logger.warn("Rejecting pipeline: {}", message);
+        return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(UpstreamRelay.bytes(message.getBytes()));
+    }
+}
@@ -0,0 +1,271 @@
+package com.kongole.stirlingproxy.controller;
+
+import com.kongole.stirlingproxy.batch.BatchProcessor;
+import com.kongole.stirlingproxy.cache.OutlineIndex;
+import com.kongole.stirlingproxy.job.JobManager;
+import com.kongole.stirlingproxy.pdf.LocalOperations;
+import com.kongole.stirlingproxy.pdf.PdfDocumentLoader;
+import com.kongole.stirlingproxy.pipeline.PipelineRunner;
+import com.kongole.stirlingproxy.upload.ResumableUpload;
+import com.kongole.stirlingproxy.upload.ResumableUploadManager;
+import com.kongole.stirlingproxy.upstream.ConcurrencyLimiter;
+import com.kongole.stirlingproxy.upstream.RequestCoalescer;
+import com.kongole.stirlingproxy.upstream.UpstreamBackend;
+import com.kongole.stirlingproxy.upstream.UpstreamBackends;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only runtime statistics for the proxy's upstream and PDF processing machinery.
+ */
+@RestController
+@RequestMapping("/proxy-api/stats")
+public class ProxyStatsController {
+
+    private final PoolingHttpClientConnectionManager upstreamConnectionManager;
+    private final RequestCoalescer requestCoalescer;
+    private final PdfDocumentLoader documentLoader;
+    private final OutlineIndex outlineIndex;
+    private final ConcurrencyLimiter limiter;
+    private final UpstreamBackends backends;
+    private final JobManager jobManager;
+    private final BatchProcessor batchProcessor;
+    private final PipelineRunner pipelineRunner;
+    private final LocalOperations localOperations;
+    private final String transport;
+    private final ResumableUploadManager uploadManager;
+
+    public ProxyStatsController(PoolingHttpClientConnectionManager upstreamConnectionManager, RequestCoalescer requestCoalescer,
+                                PdfDocumentLoader documentLoader, OutlineIndex outlineIndex, ConcurrencyLimiter limiter,
+                                UpstreamBackends backends, JobManager jobManager, BatchProcessor batchProcessor,
+                                PipelineRunner pipelineRunner, LocalOperations localOperations,
+                                @Value("${proxy.upstream.transport:classic}") String transport,
+                                ResumableUploadManager uploadManager) {
+        this.upstreamConnectionManager = upstreamConnectionManager;
+        this.requestCoalescer = requestCoalescer;
+        this.documentLoader = documentLoader;
+        this.outlineIndex = outlineIndex;
+        this.limiter = limiter;
+        this.backends = backends;
+        this.jobManager = jobManager;
+        this.batchProcessor = batchProcessor;
+        this.pipelineRunner = pipelineRunner;
+        this.localOperations = localOperations;
+        this.transport = transport;
+        this.uploadManager = uploadManager;
+    }
+
+    /**
+     * Connection pool usage, in total and per upstream route. With the async or h2 transport, operations don't use
+     * this pool and only health checks show up here.
+     */
+    @GetMapping(value = "/upstream-pool", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> upstreamPool() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("transport", transport);
+        stats.put("total", toMap(upstreamConnectionManager.getTotalStats()));
+
+        Map<String, Object> routes = new LinkedHashMap<>();
+        for (HttpRoute route : upstreamConnectionManager.getRoutes()) {
+            routes.put(route.getTargetHost().toURI(), toMap(upstreamConnectionManager.getStats(route)));
+        }
+        stats.put("routes", routes);
+        return stats;
+    }
+
+    /**
+     * Per-backend balancing state: outstanding exchanges, requests and errors, average latency until the response
+     * headers arrived, and health-check and ejection status. Latency percentiles are in the
+     * {@code proxy.upstream.backend.requests} timers.
+     */
+    @GetMapping(value = "/upstream-backends", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> upstreamBackends() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("consistentHashing", backends.isConsistentHashing());
+        stats.put("panicSelections", backends.getPanicSelections());
+
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (UpstreamBackend backend : backends.getBackends()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("baseUrl", backend.getBaseUrl());
+            entry.put("healthy", backend.isHealthy());
+            entry.put("lastHealthCheck", backend.getLastHealthCheck());
+            entry.put("ejected", backend.isEjected());
+            entry.put("ejectionRemainingMs", backend.getEjectionRemaining().toMillis());
+            entry.put("ejections", backend.getEjections());
+            entry.put("outstanding", backend.getOutstanding());
+            entry.put("requests", backend.getRequests());
+            entry.put("errors", backend.getErrors());
+            entry.put("gatewayFailures", backend.getGatewayFailures());
+            entry.put("consecutiveFailures", backend.getConsecutiveFailures());
+            entry.put("latencyMs", backend.getLatency().toMillis());
+            entries.add(entry);
+        }
+        stats.put("backends", entries);
+        return stats;
+    }
+
+    /**
+     * Adaptive upstream concurrency limit: the current limit, calls in flight and queued, the latency baseline the
+     * limit is derived from, and requests shed because the queue was full or the wait timed out.
+     */
+    @GetMapping(value = "/upstream-limiter", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> upstreamLimiter() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", limiter.isEnabled());
+        stats.put("limit", limiter.getLimit());
+        stats.put("inFlight", limiter.getInFlight());
+        stats.put("queued", limiter.getQueued());
+        stats.put("baselineLatencyMs", limiter.getBaselineLatency().toMillis());
+        stats.put("shedQueueFull", limiter.shedQueueFull());
+        stats.put("shedTimeout", limiter.shedTimeout());
+        stats.put("dropped", limiter.dropped());
+        return stats;
+    }
+
+    /**
+     * Single-flight coalescing counters: upstream calls made as leader, requests served from a leader's
+     * response instead of calling Stirling, and followers that had to fall back to their own call.
+     */
+    @GetMapping(value = "/coalescing", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> coalescing() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", requestCoalescer.isEnabled());
+        stats.put("leaders", requestCoalescer.leaders());
+        stats.put("coalesced", requestCoalescer.coalesced());
+        stats.put("fallbacks", requestCoalescer.fallbacks());
+        stats.put("inFlight", requestCoalescer.inFlight());
+        return stats;
+    }
+
+    /**
+     * Heap budget of in-process PDF loading: bytes reserved now and at peak, how many documents were
+     * loaded in each memory mode, and how many outlines were read lazily rather than by a full load.
+     */
+    @GetMapping(value = "/pdf-memory", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> pdfMemory() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("heapBudget", documentLoader.getHeapBudget());
+        stats.put("reserved", documentLoader.getReserved());
+        stats.put("peakReserved", documentLoader.getPeakReserved());
+        stats.put("mainMemoryLoads", documentLoader.getLoads(PdfDocumentLoader.Mode.MAIN_MEMORY));
+        stats.put("mixedLoads", documentLoader.getLoads(PdfDocumentLoader.Mode.MIXED));
+        stats.put("tempFileLoads", documentLoader.getLoads(PdfDocumentLoader.Mode.TEMP_FILE));
+        stats.put("allocatedDuringLoads", documentLoader.getAllocatedDuringLoads());
+        stats.put("lazyOutlineReads", documentLoader.getLazyOutlineReads());
+        stats.put("lazyOutlineFallbacks", documentLoader.getLazyOutlineFallbacks());
+        return stats;
+    }
+
+    /**
+     * Persistent outline index usage: indexed documents, bytes on disk, and lookups that skipped outline resolution.
+     */
+    @GetMapping(value = "/outline-index", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> outlineIndex() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", outlineIndex.isEnabled());
+        stats.put("documents", outlineIndex.size());
+        stats.put("bytes", outlineIndex.totalBytes());
+        stats.put("hits", outlineIndex.hits());
+        stats.put("misses", outlineIndex.misses());
+        stats.put("evictions", outlineIndex.evictions());
+        return stats;
+    }
+
+    /**
+     * Asynchronous jobs: how many are kept, queued and running now, and how many ended in each way since startup.
+     */
+    @GetMapping(value = "/jobs", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> jobs() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("kept", jobManager.getJobs().size());
+        stats.put("queued", jobManager.getQueuedCount());
+        stats.put("running", jobManager.getRunningCount());
+        stats.put("submitted", jobManager.submitted());
+        stats.put("rejected", jobManager.rejected());
+        stats.put("succeeded", jobManager.succeeded());
+        stats.put("failed", jobManager.failed());
+        stats.put("cancelled", jobManager.cancelled());
+        stats.put("expired", jobManager.expired());
+        return stats;
+    }
+
+    /**
+     * Resumable uploads: how many are kept and how many of those are complete, and counters since startup.
+     */
+    @GetMapping(value = "/uploads", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> uploads() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long complete = uploadManager.getUploads().stream().filter(ResumableUpload::isComplete).count();
+        stats.put("kept", uploadManager.getUploads().size());
+        stats.put("complete", complete);
+        stats.put("created", uploadManager.created());
+        stats.put("rejected", uploadManager.rejected());
+        stats.put("completed", uploadManager.completed());
+        stats.put("checksumMismatches", uploadManager.checksumMismatches());
+        stats.put("expired", uploadManager.expired());
+        stats.put("bytesReceived", uploadManager.bytesReceived());
+        return stats;
+    }
+
+    /**
+     * Batch fan-out: batches streaming now, busy batch workers out of the pool, and files processed since startup.
+     */
+    @GetMapping(value = "/batches", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> batches() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active", batchProcessor.getActiveBatches());
+        stats.put("busyWorkers", batchProcessor.getActiveCount());
+        stats.put("workers", batchProcessor.getPoolSize());
+        stats.put("batches", batchProcessor.batches());
+        stats.put("filesSucceeded", batchProcessor.succeeded());
+        stats.put("filesFailed", batchProcessor.failed());
+        return stats;
+    }
+
+    /**
+     * Operation pipelines run, steps sent to Stirling and run in-process, and steps Stirling failed.
+     */
+    @GetMapping(value = "/pipelines", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> pipelines() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pipelines", pipelineRunner.pipelines());
+        stats.put("upstreamSteps", pipelineRunner.upstreamSteps());
+        stats.put("localSteps", pipelineRunner.localSteps());
+        stats.put("failedSteps", pipelineRunner.failedSteps());
+        return stats;
+    }
+
+    /**
+     * In-process page operations: the routes run locally, calls served without Stirling, and calls forwarded
+     * after PDFBox could not process the upload.
+     */
+    @GetMapping(value = "/local-operations", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> localOperations() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("routes", localOperations.getRoutes());
+        stats.put("executed", localOperations.executed());
+        stats.put("fallbacks", localOperations.fallbacks());
+        return stats;
+    }
+
+    private static Map<String, Object> toMap(PoolStats poolStats) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("leased", poolStats.getLeased());
+        map.put("available", poolStats.getAvailable());
+        map.put("pending", poolStats.getPending());
+        map.put("max", poolStats.getMax());
+        return map;
+    }
+}
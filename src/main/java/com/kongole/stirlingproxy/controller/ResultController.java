@@ -0,0 +1,62 @@
+package com.kongole.stirlingproxy.controller;
+
+import com.kongole.stirlingproxy.cache.CachedResult;
+import com.kongole.stirlingproxy.cache.ResultCache;
+import com.kongole.stirlingproxy.upstream.UpstreamRelay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+
+/**
+ * Downloads of results held in the {@link ResultCache}. Cached operations name this URL in Content-Location, so a
+ * client whose download broke off fetches the rest with a Range request instead of running the operation again.
+ * Results carry a strong ETag and answer If-None-Match, Range and If-Range; see
+ * {@link UpstreamRelay#replay(int, HttpHeaders, java.nio.file.Path, String, HttpHeaders)}.
+ */
+@RestController
+@RequestMapping("/proxy-api/results")
+public class ResultController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultController.class);
+
+    private final ResultCache resultCache;
+
+    public ResultController(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    static String resultUrl(String key) {
+        return "/proxy-api/results/" + key;
+    }
+
+    @GetMapping("/{key}")
+    public ResponseEntity<StreamingResponseBody> result(@PathVariable String key, @RequestHeader HttpHeaders requestHeaders) {
+        CachedResult cached = resultCache.isEnabled() ? resultCache.get(key) : null;
+        if (cached == null) {
+            return notFound(key);
+        }
+        try {
+            return UpstreamRelay.replay(cached.getStatus(), cached.getHeaders(), cached.getBodyFile(), cached.getEtag(), requestHeaders);
+        } catch (IOException e) {
+            // Evicted between the lookup and opening the file
+            logger.debug("Could not open cached result {}: {}", key, e.getMessage());
+            return notFound(key);
+        }
+    }
+
+    private static ResponseEntity<StreamingResponseBody> notFound(String key) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType(MediaType.TEXT_PLAIN)
+                .body(UpstreamRelay.bytes(("No stored result " + key + "; it may have expired or been evicted").getBytes()));
+    }
+}
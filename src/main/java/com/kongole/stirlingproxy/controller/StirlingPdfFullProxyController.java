@@ -1,40 +1,61 @@
 package com.kongole.stirlingproxy.controller;
 
-import com.kongole.stirlingproxy.util.MultipartInputStreamFileResource;
-import com.kongole.stirlingproxy.dto.BookmarkInfo; // Import your new DTO
-
+import com.kongole.stirlingproxy.cache.CacheKey;
+import com.kongole.stirlingproxy.cache.CachedResult;
+import com.kongole.stirlingproxy.cache.ResultCache;
+import com.kongole.stirlingproxy.pdf.LocalOperations;
+import com.kongole.stirlingproxy.upstream.RelaySink;
+import com.kongole.stirlingproxy.upstream.RequestCoalescer;
+import com.kongole.stirlingproxy.upstream.StirlingUpstreamClient;
+import com.kongole.stirlingproxy.upstream.UpstreamOverloadedException;
+import com.kongole.stirlingproxy.upstream.UpstreamRelay;
+import com.kongole.stirlingproxy.util.SpooledUpload;
+import com.kongole.stirlingproxy.util.UploadSpool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.HttpServerErrorException;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-// PDFBox Imports (these can now be removed if no other method uses them in this class)
-// import org.apache.pdfbox.pdmodel.PDDocument;
-// import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
-// import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
-// import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
-// import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
-
 
 @RestController
 @RequestMapping("/proxy-api") // This is your proxy's base URL
 public class StirlingPdfFullProxyController {
 
-    private static final String STIRLING_PDF_URL = System.getenv("STIRLING_BASE_URL") != null
-            ? System.getenv("STIRLING_BASE_URL")
-            : "https://stirling-pdf-railway-poetic-courtesy.up.railway.app";
+    private static final Logger logger = LoggerFactory.getLogger(StirlingPdfFullProxyController.class);
+
+    private static final List<MediaType> ACCEPT_ALL = Collections.singletonList(MediaType.ALL);
+    private static final List<MediaType> ACCEPT_PDF = Collections.singletonList(MediaType.APPLICATION_PDF);
+    private static final List<MediaType> ACCEPT_OCTET_STREAM = Collections.singletonList(MediaType.APPLICATION_OCTET_STREAM);
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private static final String CACHE_HEADER = "X-Proxy-Cache";
+    private static final String COALESCED_HEADER = "X-Proxy-Coalesced";
+    private static final String LOCAL_HEADER = "X-Proxy-Local";
+
+    private final StirlingUpstreamClient upstreamClient;
+    private final ResultCache resultCache;
+    private final RequestCoalescer requestCoalescer;
+    private final LocalOperations localOperations;
+
+    public StirlingPdfFullProxyController(StirlingUpstreamClient upstreamClient, ResultCache resultCache, RequestCoalescer requestCoalescer,
+                                          LocalOperations localOperations) {
+        this.upstreamClient = upstreamClient;
+        this.resultCache = resultCache;
+        this.requestCoalescer = requestCoalescer;
+        this.localOperations = localOperations;
+    }
 
     @GetMapping("/")
     public String status() {
@@ -42,93 +63,30 @@ public class StirlingPdfFullProxyController {
     }
 
     @PostMapping(value = "/{category}/{action}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> proxySingleFileUpload(
+    public ResponseEntity<StreamingResponseBody> proxySingleFileUpload(
             @PathVariable String category,
             @PathVariable String action,
             @RequestParam("fileInput") MultipartFile file) {
 
-        String targetUrl = STIRLING_PDF_URL + "/api/v1/" + category + "/" + action;
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-        headers.setAccept(Collections.singletonList(MediaType.ALL));
-
-        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-        try {
-            body.add("fileInput", new MultipartInputStreamFileResource(file.getInputStream(), file.getOriginalFilename()));
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-            ResponseEntity<byte[]> response = restTemplate.postForEntity(targetUrl, requestEntity, byte[].class);
-
-            return ResponseEntity.status(response.getStatusCode())
-                    .contentType(response.getHeaders().getContentType() != null ? response.getHeaders().getContentType() : MediaType.APPLICATION_OCTET_STREAM)
-                    .body(response.getBody());
-
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            System.err.println("Error calling Stirling PDF API: " + e.getResponseBodyAsString());
-            return ResponseEntity.status(e.getStatusCode())
-                    .body(e.getResponseBodyAsByteArray());
-        } catch (IOException e) {
-            System.err.println("Error reading file in proxySingleFileUpload: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Error reading file: " + e.getMessage()).getBytes());
-        } catch (Exception e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Internal server error in proxySingleFileUpload: " + e.getMessage()).getBytes());
-        }
+        return forwardCacheable("proxySingleFileUpload", category + "/" + action, file, Collections.emptyMap());
     }
 
 
     @PostMapping(value = "/api/stirling/{stirlingCategory}/{stirlingAction}/with-params", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> proxyFileUploadWithParams(
+    public ResponseEntity<StreamingResponseBody> proxyFileUploadWithParams(
             @PathVariable String stirlingCategory,
             @PathVariable String stirlingAction,
             @RequestParam("fileInput") MultipartFile file,
             @RequestParam Map<String, String> allRequestParams) {
 
-        try {
-            String targetUrl = STIRLING_PDF_URL + "/api/v1/" + stirlingCategory + "/" + stirlingAction;
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-            headers.setAccept(Collections.singletonList(MediaType.ALL));
-
-            MultiValueMap<String, Object> body = new LinkedMultiValueMap<>(); // Corrected from LinkedMultiMultiValueMap
-            body.add("fileInput", new MultipartInputStreamFileResource(file.getInputStream(), file.getOriginalFilename()));
-
-            allRequestParams.forEach((key, value) -> {
-                if (!key.equals("fileInput")) {
-                    body.add(key, value);
-                }
-            });
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            ResponseEntity<byte[]> response = restTemplate.postForEntity(targetUrl, requestEntity, byte[].class);
-
-            return ResponseEntity.status(response.getStatusCode())
-                    .contentType(response.getHeaders().getContentType() != null ? response.getHeaders().getContentType() : MediaType.APPLICATION_OCTET_STREAM)
-                    .body(response.getBody());
-
-        } catch (IOException e) {
-            System.err.println("Error reading file or network issue during proxyFileUploadWithParams: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Error reading file or network issue: " + e.getMessage()).getBytes());
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            System.err.println("Error calling Stirling PDF API: " + e.getResponseBodyAsString());
-            return ResponseEntity.status(e.getStatusCode())
-                    .body(e.getResponseBodyAsByteArray());
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Unexpected internal server error in proxyFileUploadWithParams: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Internal server error in proxy: " + e.getMessage()).getBytes());
-        }
+        Map<String, String> params = new LinkedHashMap<>(allRequestParams);
+        params.remove("fileInput");
+        return forwardCacheable("proxyFileUploadWithParams", stirlingCategory + "/" + stirlingAction, file, params);
     }
 
 
     @PostMapping(value = "/api/stirling/convert/url/pdf", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> urlToPdfProxy(
+    public ResponseEntity<StreamingResponseBody> urlToPdfProxy(
             @RequestParam("url") String url,
             @RequestParam(value = "footer", required = false) String footer,
             @RequestParam(value = "header", required = false) String header,
@@ -138,12 +96,7 @@ public class StirlingPdfFullProxyController {
             @RequestParam(value = "printMediaType", required = false) Boolean printMediaType,
             @RequestParam(value = "nativePageRanges", required = false) String nativePageRanges) {
 
-        try {
-            String targetUrl = STIRLING_PDF_URL + "/api/v1/convert/url/pdf";
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_PDF));
-
+        return forward("urlToPdfProxy", "convert/url/pdf", ACCEPT_PDF, spool -> {
             MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
             body.add("url", url);
             if (footer != null) body.add("footer", footer);
@@ -153,264 +106,325 @@ public class StirlingPdfFullProxyController {
             if (scale != null) body.add("scale", scale.toString());
             if (printMediaType != null) body.add("printMediaType", printMediaType.toString());
             if (nativePageRanges != null) body.add("nativePageRanges", nativePageRanges);
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            ResponseEntity<byte[]> response = restTemplate.postForEntity(targetUrl, requestEntity, byte[].class);
-            return ResponseEntity.status(response.getStatusCode())
-                    .contentType(response.getHeaders().getContentType() != null ? response.getHeaders().getContentType() : MediaType.APPLICATION_OCTET_STREAM)
-                    .body(response.getBody());
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            System.err.println("Error calling Stirling PDF API (urlToPdfProxy): " + e.getResponseBodyAsString());
-            return ResponseEntity.status(e.getStatusCode())
-                    .body(e.getResponseBodyAsByteArray());
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Unexpected internal server error in urlToPdfProxy: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Internal server error in proxy: " + e.getMessage()).getBytes());
-        }
+            return body;
+        });
     }
 
 
     @PostMapping(value = "/api/stirling/misc/extract-images", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> extractImagesProxy(
+    public ResponseEntity<StreamingResponseBody> extractImagesProxy(
             @RequestParam("fileInput") MultipartFile file,
             @RequestParam(value = "imageFormat", required = false) String imageFormat) {
-        try {
-            String targetUrl = STIRLING_PDF_URL + "/api/v1/misc/extract-images";
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_OCTET_STREAM));
 
+        return forward("extractImagesProxy", "misc/extract-images", ACCEPT_OCTET_STREAM, spool -> {
             MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("fileInput", new MultipartInputStreamFileResource(file.getInputStream(), file.getOriginalFilename()));
+            body.add("fileInput", spool.add(file));
             if (imageFormat != null) {
                 body.add("imageFormat", imageFormat);
             }
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            ResponseEntity<byte[]> response = restTemplate.postForEntity(targetUrl, requestEntity, byte[].class);
-            return ResponseEntity.status(response.getStatusCode())
-                    .contentType(response.getHeaders().getContentType() != null ? response.getHeaders().getContentType() : MediaType.APPLICATION_OCTET_STREAM)
-                    .body(response.getBody());
-        } catch (IOException e) {
-            System.err.println("Error reading file or network issue during extractImagesProxy: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Error reading file or network issue: " + e.getMessage()).getBytes());
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            System.err.println("Error calling Stirling PDF API (extractImagesProxy): " + e.getResponseBodyAsString());
-            return ResponseEntity.status(e.getStatusCode())
-                    .body(e.getResponseBodyAsByteArray());
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Unexpected internal server error in extractImagesProxy: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Internal server error in proxy: " + e.getMessage()).getBytes());
-        }
+            return body;
+        });
     }
 
 
     @PostMapping(value = "/api/stirling/misc/extract-image-scans", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> extractImageScansProxy(
+    public ResponseEntity<StreamingResponseBody> extractImageScansProxy(
             @RequestParam("fileInput") MultipartFile file,
             @RequestParam(value = "angleThreshold", required = false) Double angleThreshold,
             @RequestParam(value = "tolerance", required = false) Double tolerance,
             @RequestParam(value = "minArea", required = false) Double minArea,
             @RequestParam(value = "minContourArea", required = false) Double minContourArea,
             @RequestParam(value = "borderSize", required = false) Integer borderSize) {
-        try {
-            String targetUrl = STIRLING_PDF_URL + "/api/v1/misc/extract-image-scans";
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_OCTET_STREAM));
 
+        return forward("extractImageScansProxy", "misc/extract-image-scans", ACCEPT_OCTET_STREAM, spool -> {
             MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("fileInput", new MultipartInputStreamFileResource(file.getInputStream(), file.getOriginalFilename()));
+            body.add("fileInput", spool.add(file));
             if (angleThreshold != null) body.add("angleThreshold", angleThreshold.toString());
             if (tolerance != null) body.add("tolerance", tolerance.toString());
             if (minArea != null) body.add("minArea", minArea.toString());
             if (minContourArea != null) body.add("minContourArea", minContourArea.toString());
             if (borderSize != null) body.add("borderSize", borderSize.toString());
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            ResponseEntity<byte[]> response = restTemplate.postForEntity(targetUrl, requestEntity, byte[].class);
-            return ResponseEntity.status(response.getStatusCode())
-                    .contentType(response.getHeaders().getContentType() != null ? response.getHeaders().getContentType() : MediaType.APPLICATION_OCTET_STREAM)
-                    .body(response.getBody());
-        } catch (IOException e) {
-            System.err.println("Error reading file or network issue during extractImageScansProxy: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Error reading file or network issue: " + e.getMessage()).getBytes());
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            System.err.println("Error calling Stirling PDF API (extractImageScansProxy): " + e.getResponseBodyAsString());
-            return ResponseEntity.status(e.getStatusCode())
-                    .body(e.getResponseBodyAsByteArray());
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Unexpected internal server error in extractImageScansProxy: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Internal server error in proxy: " + e.getMessage()).getBytes());
-        }
+            return body;
+        });
     }
 
 
     @PostMapping(value = "/api/stirling/convert/img/pdf", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> convertImagesToPdfProxy(
+    public ResponseEntity<StreamingResponseBody> convertImagesToPdfProxy(
             @RequestParam("files") MultipartFile[] files,
             @RequestParam(value = "stretch", required = false) Boolean stretch,
             @RequestParam(value = "autoRotate", required = false) Boolean autoRotate) {
-        try {
-            String targetUrl = STIRLING_PDF_URL + "/api/v1/convert/img/pdf";
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_PDF));
 
+        Map<String, String> params = new LinkedHashMap<>();
+        if (stretch != null) params.put("stretch", stretch.toString());
+        if (autoRotate != null) params.put("autoRotate", autoRotate.toString());
+        if (localOperations.handles(LocalOperations.IMAGES_TO_PDF, files.length, totalSize(files), params)) {
+            return runLocally("convertImagesToPdfProxy", LocalOperations.IMAGES_TO_PDF, "files", files, params, ACCEPT_PDF);
+        }
+        return forward("convertImagesToPdfProxy", "convert/img/pdf", ACCEPT_PDF, spool -> {
             MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
             for (MultipartFile file : files) {
-                body.add("files", new MultipartInputStreamFileResource(file.getInputStream(), file.getOriginalFilename()));
+                body.add("files", spool.add(file));
             }
 
             if (stretch != null) body.add("stretch", stretch.toString());
             if (autoRotate != null) body.add("autoRotate", autoRotate.toString());
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            ResponseEntity<byte[]> response = restTemplate.postForEntity(targetUrl, requestEntity, byte[].class);
-            return ResponseEntity.status(response.getStatusCode())
-                    .contentType(response.getHeaders().getContentType() != null ? response.getHeaders().getContentType() : MediaType.APPLICATION_OCTET_STREAM)
-                    .body(response.getBody());
-        } catch (IOException e) {
-            System.err.println("Error reading file(s) or network issue during convertImagesToPdfProxy: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Error reading file(s) or network issue: " + e.getMessage()).getBytes());
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            System.err.println("Error calling Stirling PDF API (convertImagesToPdfProxy): " + e.getResponseBodyAsString());
-            return ResponseEntity.status(e.getStatusCode())
-                    .body(e.getResponseBodyAsByteArray());
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Unexpected internal server error in convertImagesToPdfProxy: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Internal server error in proxy: " + e.getMessage()).getBytes());
-        }
+            return body;
+        });
     }
 
 
     @PostMapping(value = "/api/stirling/general/merge-pdfs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> mergePdfsProxy(
+    public ResponseEntity<StreamingResponseBody> mergePdfsProxy(
             @RequestParam("files") MultipartFile[] files) {
-        try {
-            String targetUrl = STIRLING_PDF_URL + "/api/v1/general/merge-pdfs";
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_PDF));
 
+        if (localOperations.handles(LocalOperations.MERGE, files.length, totalSize(files), Collections.emptyMap())) {
+            return runLocally("mergePdfsProxy", LocalOperations.MERGE, "files", files, Collections.emptyMap(), ACCEPT_PDF);
+        }
+        return forward("mergePdfsProxy", "general/merge-pdfs", ACCEPT_PDF, spool -> {
             MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
             for (MultipartFile file : files) {
-                body.add("files", new MultipartInputStreamFileResource(file.getInputStream(), file.getOriginalFilename()));
+                body.add("files", spool.add(file));
             }
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            ResponseEntity<byte[]> response = restTemplate.postForEntity(targetUrl, requestEntity, byte[].class);
-            return ResponseEntity.status(response.getStatusCode())
-                    .contentType(response.getHeaders().getContentType() != null ? response.getHeaders().getContentType() : MediaType.APPLICATION_OCTET_STREAM)
-                    .body(response.getBody());
-        } catch (IOException e) {
-            System.err.println("Error reading file(s) or network issue during mergePdfsProxy: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Error reading file(s) or network issue: " + e.getMessage()).getBytes());
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            System.err.println("Error calling Stirling PDF API (mergePdfsProxy): " + e.getResponseBodyAsString());
-            return ResponseEntity.status(e.getStatusCode())
-                    .body(e.getResponseBodyAsByteArray());
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Unexpected internal server error in mergePdfsProxy: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Internal server error in proxy: " + e.getMessage()).getBytes());
-        }
+            return body;
+        });
     }
 
 
     @PostMapping(value = "/api/stirling/general/overlay-pdfs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> overlayPdfsProxy(
+    public ResponseEntity<StreamingResponseBody> overlayPdfsProxy(
             @RequestParam("files") MultipartFile[] files,
             @RequestParam("mode") String mode) {
-        try {
-            String targetUrl = STIRLING_PDF_URL + "/api/v1/general/overlay-pdfs";
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_PDF));
 
+        return forward("overlayPdfsProxy", "general/overlay-pdfs", ACCEPT_PDF, spool -> {
             MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
             for (MultipartFile file : files) {
-                body.add("files", new MultipartInputStreamFileResource(file.getInputStream(), file.getOriginalFilename()));
+                body.add("files", spool.add(file));
             }
             body.add("mode", mode);
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            ResponseEntity<byte[]> response = restTemplate.postForEntity(targetUrl, requestEntity, byte[].class);
-            return ResponseEntity.status(response.getStatusCode())
-                    .contentType(response.getHeaders().getContentType() != null ? response.getHeaders().getContentType() : MediaType.APPLICATION_OCTET_STREAM)
-                    .body(response.getBody());
-        } catch (IOException e) {
-            System.err.println("Error reading file(s) or network issue during overlayPdfsProxy: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Error reading file(s) or network issue: " + e.getMessage()).getBytes());
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            System.err.println("Error calling Stirling PDF API (overlayPdfsProxy): " + e.getResponseBodyAsString());
-            return ResponseEntity.status(e.getStatusCode())
-                    .body(e.getResponseBodyAsByteArray());
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Unexpected internal server error in overlayPdfsProxy: " + e.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Internal server error in proxy: " + e.getMessage()).getBytes());
-        }
+            return body;
+        });
     }
 
     @PostMapping(value = "/api/stirling/general/split-pdf-by-chapters", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<byte[]> splitPdfByChaptersProxy(
+    public ResponseEntity<StreamingResponseBody> splitPdfByChaptersProxy(
             @RequestParam("fileInput") MultipartFile file,
             @RequestParam("includeMetadata") Boolean includeMetadata,
             @RequestParam("allowDuplicates") Boolean allowDuplicates,
             @RequestParam("bookmarkLevel") Integer bookmarkLevel) {
-        try {
-            String targetUrl = STIRLING_PDF_URL + "/api/v1/general/split-pdf-by-chapters";
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_OCTET_STREAM));
 
+        return forward("splitPdfByChaptersProxy", "general/split-pdf-by-chapters", ACCEPT_OCTET_STREAM, spool -> {
             MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("fileInput", new MultipartInputStreamFileResource(file.getInputStream(), file.getOriginalFilename()));
+            body.add("fileInput", spool.add(file));
             body.add("includeMetadata", includeMetadata.toString());
             body.add("allowDuplicates", allowDuplicates.toString());
             body.add("bookmarkLevel", bookmarkLevel.toString());
+            return body;
+        });
+    }
+
+    /**
+     * Sends the multipart body to Stirling and relays the upstream status, headers and body back to the client.
+     * Uploaded files are spooled to disk so they can be sent with an exact Content-Length; the spool is deleted
+     * once the request body has gone out. The upstream body is streamed into the servlet response, so heap use
+     * per request stays bounded by the copy buffers.
+     * Upstream 4xx/5xx responses are relayed as-is, the same way successful ones are. When the upstream concurrency
+     * limit sheds the call, the client gets a 503 with Retry-After instead.
+     */
+    private ResponseEntity<StreamingResponseBody> forward(String operation, String path, List<MediaType> accept, MultipartBodySupplier bodySupplier) {
+        try (UploadSpool spool = new UploadSpool()) {
+            ClientHttpResponse upstream = upstreamClient.postMultipart(path, bodySupplier.get(spool), accept);
+            if (upstream.getStatusCode().isError()) {
+                logger.warn("Stirling PDF API returned {} for {} ({}).", upstream.getStatusCode().value(), path, operation);
+            }
+            return UpstreamRelay.relay(upstream);
+        } catch (UpstreamOverloadedException e) {
+            return overloaded(operation, e);
+        } catch (IOException e) {
+            logger.error("Error reading file(s) or network issue during {}: {}", operation, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(UpstreamRelay.bytes(("Error reading file(s) or network issue: " + e.getMessage()).getBytes()));
+        } catch (Exception e) {
+            logger.error("Unexpected internal server error in {}: {}", operation, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(UpstreamRelay.bytes(("Internal server error in proxy: " + e.getMessage()).getBytes()));
+        }
+    }
+
+    /**
+     * Forwards a single-file operation through the result cache and request coalescing, when either is enabled.
+     * The upload is spooled to disk once and hashed during that copy; the SHA-256 together with the route
+     * and the sorted params is the key for both. Cache hits are replayed from disk without contacting Stirling.
+     * Otherwise, if an identical call is already in flight, this request waits for it and replays its response;
+     * failing that, Stirling is called and the body relayed as usual, with copies teed to the cache (2xx only)
+     * and to any coalesced followers. Cached responses name their {@link ResultController} URL in Content-Location,
+     * where they can be downloaded again in byte ranges. Under consistent hashing the SHA-256 also picks the backend, so this path is
+     * taken even when caching and coalescing are off.
+     */
+    private ResponseEntity<StreamingResponseBody> forwardCacheable(String operation, String path, MultipartFile file, Map<String, String> params) {
+        if (localOperations.handles(path, 1, file.getSize(), params)) {
+            return runLocally(operation, path, "fileInput", new MultipartFile[]{file}, params, ACCEPT_ALL);
+        }
+        if (!resultCache.isEnabled() && !requestCoalescer.isEnabled() && !upstreamClient.isContentRouted()) {
+            return forward(operation, path, ACCEPT_ALL, spool -> {
+                MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+                body.add("fileInput", spool.add(file));
+                params.forEach(body::add);
+                return body;
+            });
+        }
+
+        try (SpooledUpload upload = SpooledUpload.spool(file)) {
+            String key = CacheKey.of(upload.getSha256(), path, params);
+            if (resultCache.isEnabled()) {
+                CachedResult cached = resultCache.get(key);
+                if (cached != null) {
+                    logger.debug("Cache hit for {} ({}), key {}.", path, operation, key);
+                    return withHeader(withHeader(UpstreamRelay.replay(cached.getStatus(), cached.getHeaders(), cached.getBodyFile()),
+                            CACHE_HEADER, "HIT"), HttpHeaders.CONTENT_LOCATION, ResultController.resultUrl(key));
+                }
+            }
 
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
+            List<RelaySink> sinks = new ArrayList<>();
+            if (requestCoalescer.isEnabled()) {
+                RequestCoalescer.Call call = requestCoalescer.join(key);
+                if (call.isLeader()) {
+                    try {
+                        sinks.add(call.sink());
+                    } catch (IOException e) {
+                        // The flight has been failed, so followers won't wait on it; this call goes ahead uncoalesced
+                        logger.warn("Could not share the response of {} ({}) with coalesced calls: {}", path, operation, e.getMessage());
+                    }
+                } else {
+                    try {
+                        RequestCoalescer.SharedResponse shared = call.await();
+                        logger.debug("Coalesced {} ({}) onto an in-flight call, key {}.", path, operation, key);
+                        return withHeader(UpstreamRelay.replay(shared.getStatus(), shared.getHeaders(), shared.getBodyFile()), COALESCED_HEADER, "true");
+                    } catch (IOException e) {
+                        logger.warn("Could not reuse in-flight call for {} ({}), calling Stirling directly: {}", path, operation, e.getMessage());
+                    } finally {
+                        call.release();
+                    }
+                }
+            }
+
+            ClientHttpResponse upstream;
+            try {
+                MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+                body.add("fileInput", upload.asResource());
+                params.forEach(body::add);
+                upstream = upstreamClient.postMultipart(path, body, ACCEPT_ALL, upload.getSha256());
+            } catch (IOException | RuntimeException e) {
+                sinks.forEach(RelaySink::abort);
+                throw e;
+            }
+
+            if (!upstream.getStatusCode().is2xxSuccessful()) {
+                logger.warn("Stirling PDF API returned {} for {} ({}).", upstream.getStatusCode().value(), path, operation);
+            } else if (resultCache.isEnabled()) {
+                sinks.add(resultCache.begin(key));
+            }
+            ResponseEntity<StreamingResponseBody> response = UpstreamRelay.relay(upstream, sinks);
+            if (!resultCache.isEnabled()) {
+                return response;
+            }
+            response = withHeader(response, CACHE_HEADER, "MISS");
+            // Where the result can be downloaded again, with Range support, once it has been stored
+            return upstream.getStatusCode().is2xxSuccessful()
+                    ? withHeader(response, HttpHeaders.CONTENT_LOCATION, ResultController.resultUrl(key)) : response;
+        } catch (UpstreamOverloadedException e) {
+            return overloaded(operation, e);
+        } catch (IOException e) {
+            logger.error("Error reading file(s) or network issue during {}: {}", operation, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(UpstreamRelay.bytes(("Error reading file(s) or network issue: " + e.getMessage()).getBytes()));
+        } catch (Exception e) {
+            logger.error("Unexpected internal server error in {}: {}", operation, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(UpstreamRelay.bytes(("Internal server error in proxy: " + e.getMessage()).getBytes()));
+        }
+    }
+
+    /**
+     * Runs a route configured in {@code proxy.local.routes} with PDFBox instead of calling Stirling, answering with
+     * {@value #LOCAL_HEADER}. The uploads are spooled first, so if PDFBox can't process them (damaged or encrypted
+     * files, say) they are forwarded to Stirling from the spool just as {@link #forward} would have.
+     */
+    private ResponseEntity<StreamingResponseBody> runLocally(String operation, String path, String fileField, MultipartFile[] files,
+                                                             Map<String, String> params, List<MediaType> accept) {
+        List<SpooledUpload> uploads = new ArrayList<>();
+        boolean handedOff = false; // Once the local result owns the uploads, it is responsible for deleting them
+        try {
+            for (MultipartFile file : files) {
+                uploads.add(SpooledUpload.spoolUnhashed(file));
+            }
+            try {
+                ResponseEntity<StreamingResponseBody> local = localOperations.execute(path, uploads, params);
+                handedOff = true;
+                return withHeader(local, LOCAL_HEADER, "true");
+            } catch (IOException | RuntimeException e) {
+                localOperations.fellBack();
+                logger.warn("Could not run {} ({}) in-process, forwarding to Stirling: {}", path, operation, e.getMessage());
+            }
 
-            ResponseEntity<byte[]> response = restTemplate.postForEntity(targetUrl, requestEntity, byte[].class);
-            return ResponseEntity.status(response.getStatusCode())
-                    .contentType(response.getHeaders().getContentType() != null ? response.getHeaders().getContentType() : MediaType.APPLICATION_OCTET_STREAM)
-                    .body(response.getBody());
+            MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+            for (SpooledUpload upload : uploads) {
+                body.add(fileField, upload.asResource());
+            }
+            params.forEach(body::add);
+            ClientHttpResponse upstream = upstreamClient.postMultipart(path, body, accept);
+            if (upstream.getStatusCode().isError()) {
+                logger.warn("Stirling PDF API returned {} for {} ({}).", upstream.getStatusCode().value(), path, operation);
+            }
+            return UpstreamRelay.relay(upstream);
+        } catch (UpstreamOverloadedException e) {
+            return overloaded(operation, e);
         } catch (IOException e) {
-            System.err.println("Error reading file or network issue during splitPdfByChaptersProxy: " + e.getMessage());
+            logger.error("Error reading file(s) or network issue during {}: {}", operation, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Error reading file or network issue: " + e.getMessage()).getBytes());
-        } catch (HttpClientErrorException | HttpServerErrorException e) {
-            System.err.println("Error calling Stirling PDF API (splitPdfByChaptersProxy): " + e.getResponseBodyAsString());
-            return ResponseEntity.status(e.getStatusCode())
-                    .body(e.getResponseBodyAsByteArray());
+                    .body(UpstreamRelay.bytes(("Error reading file(s) or network issue: " + e.getMessage()).getBytes()));
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Unexpected internal server error in splitPdfByChaptersProxy: " + e.getMessage());
+            logger.error("Unexpected internal server error in {}: {}", operation, e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Internal server error in proxy: " + e.getMessage()).getBytes());
+                    .body(UpstreamRelay.bytes(("Internal server error in proxy: " + e.getMessage()).getBytes()));
+        } finally {
+            if (!handedOff) {
+                for (SpooledUpload upload : uploads) {
+                    try {
+                        upload.close();
+                    } catch (IOException e) {
+                        logger.warn("Could not delete spooled upload {}: {}", upload.getPath(), e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private static long totalSize(MultipartFile[] files) {
+        long total = 0;
+        for (MultipartFile file : files) {
+            total += file.getSize();
         }
+        return total;
+    }
+
+    private static ResponseEntity<StreamingResponseBody> overloaded(String operation, UpstreamOverloadedException e) {
+        logger.warn("Shedding {}: {}", operation, e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()))
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(UpstreamRelay.bytes(("Stirling PDF is overloaded, retry later: " + e.getMessage()).getBytes()));
+    }
+
+    private static ResponseEntity<StreamingResponseBody> withHeader(ResponseEntity<StreamingResponseBody> response, String name, String value) {
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header(name, value)
+                .body(response.getBody());
+    }
+
+    @FunctionalInterface
+    private interface MultipartBodySupplier {
+        MultiValueMap<String, Object> get(UploadSpool spool) throws IOException;
     }
 }
@@ -0,0 +1,261 @@
+package com.kongole.stirlingproxy.controller;
+
+import com.kongole.stirlingproxy.upload.ChecksumMismatchException;
+import com.kongole.stirlingproxy.upload.ResumableUpload;
+import com.kongole.stirlingproxy.upload.ResumableUploadManager;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Resumable uploads following the tus 1.0 protocol (creation, checksum, termination and expiration extensions),
+ * so stock tus clients work against it. POST with {@code Upload-Length} creates an upload and answers with its URL
+ * in Location; PATCH appends a chunk at {@code Upload-Offset}; HEAD reports how much has arrived, which is where a
+ * client resumes after losing its connection; DELETE discards the upload.
+ * <p>
+ * A complete upload is used as input by sending {@code upload:<id>} as the value of the file field of any proxy
+ * route, e.g. {@code fileInput=upload:<id>}. It can be used any number of times until it expires.
+ */
+@RestController
+@RequestMapping("/proxy-api/uploads")
+public class UploadController {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadController.class);
+
+    private static final String TUS_VERSION = "1.0.0";
+    private static final String TUS_RESUMABLE = "Tus-Resumable";
+    private static final String UPLOAD_LENGTH = "Upload-Length";
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+    private static final String UPLOAD_METADATA = "Upload-Metadata";
+    private static final String UPLOAD_CHECKSUM = "Upload-Checksum";
+    private static final String UPLOAD_EXPIRES = "Upload-Expires";
+    private static final String OFFSET_OCTET_STREAM = "application/offset+octet-stream";
+    /** tus' status for a chunk that failed its checksum. */
+    private static final int CHECKSUM_MISMATCH = 460;
+
+    private final ResumableUploadManager uploadManager;
+
+    public UploadController(ResumableUploadManager uploadManager) {
+        this.uploadManager = uploadManager;
+    }
+
+    @RequestMapping(method = RequestMethod.OPTIONS)
+    public ResponseEntity<Void> options() {
+        return ResponseEntity.noContent()
+                .header(TUS_RESUMABLE, TUS_VERSION)
+                .header("Tus-Version", TUS_VERSION)
+                .header("Tus-Extension", "creation,checksum,termination,expiration")
+                .header("Tus-Max-Size", String.valueOf(uploadManager.getMaxSize()))
+                .header("Tus-Checksum-Algorithm", String.join(",", uploadManager.getChecksumAlgorithms()))
+                .build();
+    }
+
+    /**
+     * Creates an upload of {@code Upload-Length} bytes. {@code Upload-Metadata} may carry the file's
+     * {@code filename} and {@code filetype}, which operations then see as the part's filename and content type.
+     */
+    @PostMapping
+    public ResponseEntity<String> create(
+            @RequestHeader(value = TUS_RESUMABLE, required = false) String tusResumable,
+            @RequestHeader(value = UPLOAD_LENGTH, required = false) Long length,
+            @RequestHeader(value = UPLOAD_METADATA, required = false) String metadata) {
+
+        if (tusResumable != null && !TUS_VERSION.equals(tusResumable)) {
+            return unsupportedVersion();
+        }
+        if (length == null) {
+            return plain(HttpStatus.BAD_REQUEST, "Upload-Length is required");
+        }
+        Map<String, String> fields;
+        try {
+            fields = parseMetadata(metadata);
+        } catch (IllegalArgumentException e) {
+            return plain(HttpStatus.BAD_REQUEST, "Upload-Metadata is malformed: " + e.getMessage());
+        }
+
+        ResumableUpload upload;
+        try {
+            upload = uploadManager.create(length, fields.get("filename"), fields.get("filetype"));
+        } catch (IllegalArgumentException e) {
+            return plain(length > uploadManager.getMaxSize() ? HttpStatus.PAYLOAD_TOO_LARGE : HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            logger.warn("Rejecting upload: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(TUS_RESUMABLE, TUS_VERSION)
+                    .header(HttpHeaders.RETRY_AFTER, "60")
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(e.getMessage());
+        } catch (IOException e) {
+            logger.error("Could not create upload: {}", e.getMessage(), e);
+            return plain(HttpStatus.INTERNAL_SERVER_ERROR, "Could not create upload: " + e.getMessage());
+        }
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .header(HttpHeaders.LOCATION, uploadUrl(upload))
+                .header(TUS_RESUMABLE, TUS_VERSION)
+                .header(UPLOAD_EXPIRES, expires(upload))
+                .build();
+    }
+
+    @RequestMapping(value = "/{id}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> offset(@PathVariable String id) {
+        ResumableUpload upload = uploadManager.get(id);
+        if (upload == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).header(TUS_RESUMABLE, TUS_VERSION).build();
+        }
+        return ResponseEntity.ok()
+                .header(TUS_RESUMABLE, TUS_VERSION)
+                .header(UPLOAD_OFFSET, String.valueOf(upload.getOffset()))
+                .header(UPLOAD_LENGTH, String.valueOf(upload.getLength()))
+                .header(UPLOAD_EXPIRES, expires(upload))
+                .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                .build();
+    }
+
+    /**
+     * The upload's progress as JSON, with the {@code upload:<id>} reference to use once it is complete.
+     */
+    @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> status(@PathVariable String id) {
+        ResumableUpload upload = uploadManager.get(id);
+        if (upload == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "No upload " + id + "; it may have expired"));
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", upload.getId());
+        map.put("filename", upload.getFilename());
+        map.put("contentType", upload.getContentType());
+        map.put("length", upload.getLength());
+        map.put("offset", upload.getOffset());
+        map.put("complete", upload.isComplete());
+        map.put("sha256", upload.getSha256());
+        map.put("createdAt", upload.getCreatedAt());
+        map.put("expiresAt", upload.getTouchedAt().plus(uploadManager.getTtl()));
+        map.put("reference", "upload:" + upload.getId());
+        return ResponseEntity.ok().header(HttpHeaders.CACHE_CONTROL, "no-store").body(map);
+    }
+
+    /**
+     * Appends the request body at {@code Upload-Offset}, which must be where the upload currently ends. With
+     * {@code Upload-Checksum} the chunk is verified and dropped entirely if it doesn't match; without one, a chunk
+     * cut off by a dropped connection is kept up to the last byte received.
+     */
+    @PatchMapping(value = "/{id}", consumes = OFFSET_OCTET_STREAM)
+    public ResponseEntity<String> append(
+            @PathVariable String id,
+            @RequestHeader(value = TUS_RESUMABLE, required = false) String tusResumable,
+            @RequestHeader(UPLOAD_OFFSET) long offset,
+            @RequestHeader(value = UPLOAD_CHECKSUM, required = false) String checksum,
+            HttpServletRequest request) {
+
+        if (tusResumable != null && !TUS_VERSION.equals(tusResumable)) {
+            return unsupportedVersion();
+        }
+        ResumableUpload upload = uploadManager.get(id);
+        if (upload == null) {
+            return plain(HttpStatus.NOT_FOUND, "No upload " + id + "; it may have expired");
+        }
+        if (!upload.tryLock()) {
+            return plain(HttpStatus.CONFLICT, "Another chunk is being written to upload " + id);
+        }
+        try {
+            if (offset != upload.getOffset()) {
+                return ResponseEntity.status(HttpStatus.CONFLICT)
+                        .header(TUS_RESUMABLE, TUS_VERSION)
+                        .header(UPLOAD_OFFSET, String.valueOf(upload.getOffset()))
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .body("Upload-Offset " + offset + " doesn't match the " + upload.getOffset() + " bytes received");
+            }
+            long newOffset;
+            try (InputStream in = request.getInputStream()) {
+                newOffset = uploadManager.append(upload, in, checksum);
+            }
+            return ResponseEntity.noContent()
+                    .header(TUS_RESUMABLE, TUS_VERSION)
+                    .header(UPLOAD_OFFSET, String.valueOf(newOffset))
+                    .header(UPLOAD_EXPIRES, expires(upload))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return plain(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (ChecksumMismatchException e) {
+            logger.debug("Rejected chunk of upload {}: {}", id, e.getMessage());
+            return ResponseEntity.status(CHECKSUM_MISMATCH)
+                    .header(TUS_RESUMABLE, TUS_VERSION)
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(e.getMessage());
+        } catch (IOException e) {
+            // Usually the client going away mid-chunk; it resumes from the offset HEAD reports
+            logger.debug("Chunk of upload {} ended early at {}: {}", id, upload.getOffset(), e.getMessage());
+            return plain(HttpStatus.INTERNAL_SERVER_ERROR, "Error receiving chunk: " + e.getMessage());
+        } finally {
+            upload.unlock();
+        }
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> delete(@PathVariable String id) {
+        HttpStatus status = uploadManager.delete(id) ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND;
+        return ResponseEntity.status(status).header(TUS_RESUMABLE, TUS_VERSION).build();
+    }
+
+    /**
+     * Parses tus metadata, comma-separated {@code key base64value} pairs where the value may be omitted.
+     */
+    private static Map<String, String> parseMetadata(String metadata) {
+        Map<String, String> fields = new HashMap<>();
+        if (metadata == null || metadata.isBlank()) {
+            return fields;
+        }
+        for (String pair : metadata.split(",")) {
+            String[] parts = pair.trim().split(" ", 2);
+            String value = parts.length > 1 ? new String(Base64.getDecoder().decode(parts[1].trim()), StandardCharsets.UTF_8) : "";
+            fields.put(parts[0], value);
+        }
+        return fields;
+    }
+
+    private String expires(ResumableUpload upload) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(upload.getTouchedAt().plus(uploadManager.getTtl()).atOffset(ZoneOffset.UTC));
+    }
+
+    private static String uploadUrl(ResumableUpload upload) {
+        return "/proxy-api/uploads/" + upload.getId();
+    }
+
+    private static ResponseEntity<String> unsupportedVersion() {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                .header(TUS_RESUMABLE, TUS_VERSION)
+                .header("Tus-Version", TUS_VERSION)
+                .build();
+    }
+
+    private static ResponseEntity<String> plain(HttpStatus status, String message) {
+        return ResponseEntity.status(status)
+                .header(TUS_RESUMABLE, TUS_VERSION)
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(message);
+    }
+}
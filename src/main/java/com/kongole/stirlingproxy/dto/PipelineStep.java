@@ -0,0 +1,38 @@
+package com.kongole.stirlingproxy.dto;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One step of an operation pipeline: a Stirling route, its form params, and the form field the step's input
+ * file is sent under ({@code fileInput} unless the route expects something else, such as {@code files} for merges).
+ */
+public class PipelineStep {
+    private String operation;
+    private Map<String, Object> params = new LinkedHashMap<>();
+    private String fileField = "fileInput";
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public Map<String, Object> getParams() {
+        return params;
+    }
+
+    public void setParams(Map<String, Object> params) {
+        this.params = params != null ? params : new LinkedHashMap<>();
+    }
+
+    public String getFileField() {
+        return fileField;
+    }
+
+    public void setFileField(String fileField) {
+        this.fileField = fileField != null ? fileField : "fileInput";
+    }
+}
@@ -0,0 +1,260 @@
+package com.kongole.stirlingproxy.job;
+
+import org.springframework.http.HttpHeaders;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * One asynchronous Stirling call run by the {@link JobManager}, from submission until its result expires.
+ * <p>
+ * Listeners are told about every state change and, while the result downloads, about progress. They are called
+ * on the job's worker thread and must not block.
+ */
+public final class Job {
+
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this != QUEUED && this != RUNNING;
+        }
+    }
+
+    /**
+     * What a running job is waiting for: Stirling to answer, or the rest of the result body.
+     */
+    public enum Phase {
+        PROCESSING, RECEIVING
+    }
+
+    private final String id;
+    private final String operation;
+    private final Instant submittedAt = Instant.now();
+    private final List<Consumer<Job>> listeners = new CopyOnWriteArrayList<>();
+
+    // Guarded by this
+    private State state = State.QUEUED;
+    private Phase phase;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private int attempts;
+    private int upstreamStatus;
+    private HttpHeaders resultHeaders;
+    private Path resultFile;
+    private long resultBytes;
+    private long expectedBytes = -1;
+    private String error;
+    private Future<?> future;
+    private Runnable abortUpstream;
+
+    Job(String id, String operation) {
+        this.id = id;
+        this.operation = operation;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The Stirling route, {@code category/action} as in {@code /api/v1/category/action}.
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Null unless the job is running.
+     */
+    public synchronized Phase getPhase() {
+        return phase;
+    }
+
+    public synchronized Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public synchronized Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * The status Stirling answered with, or 0 if it hasn't (yet).
+     */
+    public synchronized int getUpstreamStatus() {
+        return upstreamStatus;
+    }
+
+    public synchronized HttpHeaders getResultHeaders() {
+        return resultHeaders;
+    }
+
+    /**
+     * The stored upstream response body, once the job has finished with a response.
+     */
+    public synchronized Path getResultFile() {
+        return state.isFinished() ? resultFile : null;
+    }
+
+    public synchronized long getResultBytes() {
+        return resultBytes;
+    }
+
+    /**
+     * Content-Length of the upstream response, or -1 if Stirling didn't send one.
+     */
+    public synchronized long getExpectedBytes() {
+        return expectedBytes;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    public void addListener(Consumer<Job> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Job> listener) {
+        listeners.remove(listener);
+    }
+
+    synchronized void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    /**
+     * @return False if the job was cancelled before it could start.
+     */
+    boolean start() {
+        synchronized (this) {
+            if (state != State.QUEUED) {
+                return false;
+            }
+            state = State.RUNNING;
+            phase = Phase.PROCESSING;
+            startedAt = Instant.now();
+        }
+        notifyListeners();
+        return true;
+    }
+
+    synchronized void attempt(Runnable abortUpstream) {
+        attempts++;
+        this.abortUpstream = abortUpstream;
+    }
+
+    void receiving(int status, HttpHeaders headers, Path file, long contentLength) {
+        synchronized (this) {
+            phase = Phase.RECEIVING;
+            upstreamStatus = status;
+            resultHeaders = headers;
+            resultFile = file;
+            expectedBytes = contentLength;
+        }
+        notifyListeners();
+    }
+
+    synchronized void received(long bytes) {
+        resultBytes += bytes;
+    }
+
+    /**
+     * Records the stored upstream response. 2xx responses succeed; others fail, with their body kept as the result.
+     */
+    boolean finish() {
+        synchronized (this) {
+            if (state != State.RUNNING) {
+                return false;
+            }
+            state = upstreamStatus >= 200 && upstreamStatus < 300 ? State.SUCCEEDED : State.FAILED;
+            if (state == State.FAILED) {
+                error = "Stirling PDF API returned " + upstreamStatus;
+            }
+            endRun();
+        }
+        notifyListeners();
+        return true;
+    }
+
+    boolean fail(String message) {
+        synchronized (this) {
+            if (state.isFinished()) {
+                return false;
+            }
+            state = State.FAILED;
+            error = message;
+            resultFile = null;
+            endRun();
+        }
+        notifyListeners();
+        return true;
+    }
+
+    /**
+     * Stops the job if it hasn't finished, aborting its upstream exchange if it is running. A queued job stays in
+     * the queue until a worker picks it up and, finding it cancelled, releases its uploads without calling Stirling.
+     *
+     * @return False if it had already finished.
+     */
+    boolean cancel() {
+        Runnable abort;
+        synchronized (this) {
+            if (state.isFinished()) {
+                return false;
+            }
+            // Cancelling the future of a queued job would skip its run, and with it the cleanup of its uploads
+            boolean running = state == State.RUNNING;
+            state = State.CANCELLED;
+            error = "Cancelled";
+            resultFile = null;
+            abort = abortUpstream;
+            endRun();
+            if (running && future != null) {
+                future.cancel(true);
+            }
+        }
+        if (abort != null) {
+            abort.run();
+        }
+        notifyListeners();
+        return true;
+    }
+
+    synchronized boolean isExpired(Instant now, Duration ttl) {
+        return state.isFinished() && finishedAt.plus(ttl).isBefore(now);
+    }
+
+    /**
+     * Tells listeners the job changed: its state, or how much of the result has arrived.
+     */
+    void notifyListeners() {
+        for (Consumer<Job> listener : listeners) {
+            listener.accept(this);
+        }
+    }
+
+    private void endRun() {
+        phase = null;
+        abortUpstream = null;
+        finishedAt = Instant.now();
+    }
+}
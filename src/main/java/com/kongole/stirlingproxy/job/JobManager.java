@@ -0,0 +1,301 @@
+package com.kongole.stirlingproxy.job;
+
+import com.kongole.stirlingproxy.upstream.StirlingUpstreamClient;
+import com.kongole.stirlingproxy.upstream.UpstreamOverloadedException;
+import com.kongole.stirlingproxy.upstream.UpstreamRelay;
+import com.kongole.stirlingproxy.util.UploadSpool;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.MultiValueMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs Stirling calls in the background for clients that don't want to hold a connection open while Stirling
+ * works, which for OCR or image scans can take minutes.
+ * <p>
+ * A submitted job owns the spooled uploads of its request. A fixed pool of {@code workers} sends them to Stirling
+ * and stores the upstream response under {@code dir}, where it is kept for {@code result-ttl} after the job
+ * finishes. At most {@code max-jobs} are kept at a time, queued, running and finished together, so that neither
+ * the queue nor the stored results can grow without bound. When the upstream concurrency limit sheds a job's
+ * call, the worker waits out the Retry-After and tries again, up to {@code overload-retries} times.
+ * <p>
+ * Jobs live in memory; the directory is cleared on startup.
+ */
+@Component
+public class JobManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobManager.class);
+
+    private static final List<MediaType> ACCEPT_ALL = Collections.singletonList(MediaType.ALL);
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final StirlingUpstreamClient upstreamClient;
+    private final Path directory;
+    private final int maxJobs;
+    private final Duration resultTtl;
+    private final Duration cleanupInterval;
+    private final int overloadRetries;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService cleaner;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    public JobManager(
+            StirlingUpstreamClient upstreamClient,
+            @Value("${proxy.jobs.dir:${java.io.tmpdir}/stirling-proxy-jobs}") Path directory,
+            @Value("${proxy.jobs.workers:4}") int workers,
+            @Value("${proxy.jobs.max-jobs:1000}") int maxJobs,
+            @Value("${proxy.jobs.result-ttl:1h}") Duration resultTtl,
+            @Value("${proxy.jobs.overload-retries:3}") int overloadRetries,
+            @Value("${proxy.jobs.cleanup-interval:1m}") Duration cleanupInterval) throws IOException {
+        this.upstreamClient = upstreamClient;
+        this.directory = directory;
+        this.maxJobs = maxJobs;
+        this.resultTtl = resultTtl;
+        this.cleanupInterval = cleanupInterval;
+        this.overloadRetries = overloadRetries;
+
+        FileSystemUtils.deleteRecursively(directory);
+        Files.createDirectories(directory);
+
+        this.workers = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                daemonThreads("stirling-job-"));
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(daemonThreads("stirling-job-cleaner-"));
+        long cleanupMillis = cleanupInterval.toMillis();
+        cleaner.scheduleWithFixedDelay(this::removeExpired, cleanupMillis, cleanupMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a call of {@code /api/v1/{operation}} with {@code form}. The job takes over {@code spool} and
+     * closes it once the uploads have been sent.
+     *
+     * @throws RejectedExecutionException If {@code max-jobs} jobs are already kept. The spool is closed.
+     */
+    public Job submit(String operation, MultiValueMap<String, Object> form, UploadSpool spool) {
+        Job job = new Job(UUID.randomUUID().toString(), operation);
+        synchronized (jobs) {
+            if (jobs.size() >= maxJobs) {
+                rejected.incrementAndGet();
+                spool.close();
+                throw new RejectedExecutionException("There are already " + jobs.size() + " jobs; try again once some have expired");
+            }
+            jobs.put(job.getId(), job);
+        }
+        submitted.incrementAndGet();
+        job.setFuture(workers.submit(() -> run(job, form, spool)));
+        logger.debug("Queued job {} for {}.", job.getId(), operation);
+        return job;
+    }
+
+    /**
+     * @return The job, or null if there is no such job or it has expired.
+     */
+    public Job get(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Cancels the job if it is still queued or running, and deletes it with its result.
+     *
+     * @return False if there is no such job.
+     */
+    public boolean delete(String id) {
+        Job job = jobs.remove(id);
+        if (job == null) {
+            return false;
+        }
+        if (job.cancel()) {
+            cancelled.incrementAndGet();
+        }
+        deleteResult(job);
+        return true;
+    }
+
+    public Duration getResultTtl() {
+        return resultTtl;
+    }
+
+    /**
+     * How often expired jobs are removed, which is when a full job table frees up again.
+     */
+    public Duration getCleanupInterval() {
+        return cleanupInterval;
+    }
+
+    public Collection<Job> getJobs() {
+        return Collections.unmodifiableCollection(jobs.values());
+    }
+
+    public int getQueuedCount() {
+        return workers.getQueue().size();
+    }
+
+    public int getRunningCount() {
+        return workers.getActiveCount();
+    }
+
+    public long submitted() {
+        return submitted.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    public long succeeded() {
+        return succeeded.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    public long cancelled() {
+        return cancelled.get();
+    }
+
+    public long expired() {
+        return expired.get();
+    }
+
+    private void run(Job job, MultiValueMap<String, Object> form, UploadSpool spool) {
+        try (spool) {
+            if (!job.start()) {
+                return;
+            }
+            Path resultFile = directory.resolve(job.getId() + ".bin");
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    call(job, form, resultFile);
+                    break;
+                } catch (UpstreamOverloadedException e) {
+                    if (attempt >= overloadRetries || job.getState() != Job.State.RUNNING) {
+                        throw e;
+                    }
+                    logger.debug("Job {} shed by the upstream limit, retrying in {}.", job.getId(), e.getRetryAfter());
+                    Thread.sleep(e.getRetryAfter().toMillis());
+                }
+            }
+            if (job.finish()) {
+                (job.getState() == Job.State.SUCCEEDED ? succeeded : failed).incrementAndGet();
+                logger.debug("Job {} for {} finished: {}, {} bytes.", job.getId(), job.getOperation(),
+                        job.getUpstreamStatus(), job.getResultBytes());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(job, "Interrupted");
+        } catch (UpstreamOverloadedException e) {
+            fail(job, "Stirling PDF is overloaded: " + e.getMessage());
+        } catch (IOException e) {
+            fail(job, "Network issue calling Stirling PDF: " + e.getMessage());
+        } catch (RuntimeException e) {
+            logger.error("Unexpected error in job {} for {}: {}", job.getId(), job.getOperation(), e.getMessage(), e);
+            fail(job, "Internal server error in proxy: " + e.getMessage());
+        } finally {
+            if (job.getState() == Job.State.CANCELLED || !jobs.containsKey(job.getId())) {
+                deleteResult(job); // Deleted or cancelled while it ran
+            }
+        }
+    }
+
+    private void call(Job job, MultiValueMap<String, Object> form, Path resultFile) throws IOException {
+        try (ClientHttpResponse upstream = upstreamClient.postMultipart(job.getOperation(), form, ACCEPT_ALL)) {
+            job.attempt(upstream::close);
+            HttpHeaders headers = UpstreamRelay.copyHeaders(upstream.getHeaders());
+            job.receiving(upstream.getStatusCode().value(), headers, resultFile, headers.getContentLength());
+
+            try (InputStream in = upstream.getBody(); OutputStream out = Files.newOutputStream(resultFile)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long lastProgress = System.nanoTime();
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    job.received(read);
+                    long now = System.nanoTime();
+                    if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                        lastProgress = now;
+                        job.notifyListeners();
+                    }
+                }
+            }
+        }
+    }
+
+    private void fail(Job job, String message) {
+        if (job.fail(message)) {
+            failed.incrementAndGet();
+            logger.warn("Job {} for {} failed: {}", job.getId(), job.getOperation(), message);
+        }
+        deleteResult(job);
+    }
+
+    private void removeExpired() {
+        Instant now = Instant.now();
+        for (Job job : jobs.values()) {
+            if (job.isExpired(now, resultTtl) && jobs.remove(job.getId(), job)) {
+                expired.incrementAndGet();
+                deleteResult(job);
+            }
+        }
+    }
+
+    private void deleteResult(Job job) {
+        Path resultFile = directory.resolve(job.getId() + ".bin");
+        try {
+            Files.deleteIfExists(resultFile);
+        } catch (IOException e) {
+            logger.warn("Could not delete job result {}: {}", resultFile, e.getMessage());
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cleaner.shutdownNow();
+        workers.shutdownNow();
+    }
+}
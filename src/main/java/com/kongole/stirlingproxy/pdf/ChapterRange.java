@@ -0,0 +1,45 @@
+package com.kongole.stirlingproxy.pdf;
+
+/**
+ * One chapter of a split: its title and inclusive, 0-indexed page range in the source document.
+ */
+public class ChapterRange {
+    private final int index;      // Position of the chapter in the ZIP, 0-indexed
+    private final String title;
+    private final int startPage;  // 0-indexed, inclusive
+    private final int endPage;    // 0-indexed, inclusive
+
+    public ChapterRange(int index, String title, int startPage, int endPage) {
+        this.index = index;
+        this.title = title;
+        this.startPage = startPage;
+        this.endPage = endPage;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getStartPage() {
+        return startPage;
+    }
+
+    public int getEndPage() {
+        return endPage;
+    }
+
+    /**
+     * The ZIP entry name, e.g. {@code 003-Chapter 3.pdf}, with characters unsafe in file names removed from the title.
+     */
+    public String getFileName() {
+        String chapterTitle = title.replaceAll("[^a-zA-Z0-9.\\-_ ]", "").trim();
+        if (chapterTitle.isEmpty()) {
+            chapterTitle = "Chapter_" + (index + 1);
+        }
+        return String.format("%03d-%s.pdf", index + 1, chapterTitle);
+    }
+}
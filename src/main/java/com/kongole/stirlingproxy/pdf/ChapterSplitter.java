@@ -0,0 +1,274 @@
+package com.kongole.stirlingproxy.pdf;
+
+import com.kongole.stirlingproxy.dto.BookmarkInfo;
+import com.kongole.stirlingproxy.util.NonClosingOutputStream;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Splits a PDF into chapter PDFs written as entries of a ZIP stream.
+ * <p>
+ * Chapter ranges are computed once from the resolved bookmarks. Chapters are then either built one after
+ * another from a single document, or concurrently on the shared PDF worker pool. In the parallel case each
+ * worker loads its own {@link PDDocument} from the source file (PDFBox documents are not thread-safe) through
+ * the {@link PdfDocumentLoader}, saves its chapters to temp files, and the caller appends them to the ZIP
+ * strictly in chapter order.
+ * <p>
+ * Building and saving each chapter is timed in {@code proxy.pdf.chapter.save}, tagged by mode.
+ */
+@Component
+public class ChapterSplitter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChapterSplitter.class);
+
+    // How many chapters each worker may run ahead of the ZIP writer; bounds the temp files waiting on disk
+    private static final int LOOKAHEAD_PER_WORKER = 2;
+
+    private final PdfWorkerPool workerPool;
+    private final PdfDocumentLoader documentLoader;
+    private final int defaultParallelism;
+    private final Timer sequentialSaves;
+    private final Timer parallelSaves;
+
+    public ChapterSplitter(PdfWorkerPool workerPool, PdfDocumentLoader documentLoader,
+                           @Value("${proxy.pdf.split.parallelism:1}") int defaultParallelism, MeterRegistry meterRegistry) {
+        this.workerPool = workerPool;
+        this.documentLoader = documentLoader;
+        this.defaultParallelism = defaultParallelism;
+        this.sequentialSaves = Timer.builder("proxy.pdf.chapter.save").tag("mode", "sequential").register(meterRegistry);
+        this.parallelSaves = Timer.builder("proxy.pdf.chapter.save").tag("mode", "parallel").register(meterRegistry);
+    }
+
+    /**
+     * Turns the bookmarks at {@code bookmarkLevel} (1-indexed) into chapter page ranges, each running up to the page
+     * before the next chapter, or to the end of the document for the last one. Invalid ranges are logged and skipped.
+     */
+    public static List<ChapterRange> planChapters(List<BookmarkInfo> bookmarks, int bookmarkLevel, int totalPages) {
+        List<BookmarkInfo> starts = new ArrayList<>();
+        // bookmarkLevel is 1-indexed for the user, but internal level in BookmarkInfo is 0-indexed
+        for (BookmarkInfo bm : bookmarks) {
+            if (bm.getLevel() == (bookmarkLevel - 1) && bm.getPageNumber() != -1) {
+                starts.add(bm);
+            }
+        }
+        starts.sort(Comparator.comparingInt(BookmarkInfo::getPageNumber));
+
+        List<ChapterRange> ranges = new ArrayList<>();
+        for (int i = 0; i < starts.size(); i++) {
+            BookmarkInfo current = starts.get(i);
+            int startPageIndex = current.getPageNumber() - 1; // Convert to 0-indexed page for internal processing
+            int endPageIndex;
+
+            // Determine the end page for the current chapter
+            if (i + 1 < starts.size()) {
+                // End page is the page *before* the start of the next chapter
+                endPageIndex = starts.get(i + 1).getPageNumber() - 2;
+            } else {
+                // If it's the last chapter, it goes to the end of the document
+                endPageIndex = totalPages - 1;
+            }
+
+            // Adjust endPageIndex to not exceed document bounds
+            endPageIndex = Math.min(endPageIndex, totalPages - 1);
+
+            if (startPageIndex > endPageIndex) {
+                logger.warn("Bookmark '{}' (level {}) points to a page ({}) that is after its calculated end page ({}). Skipping this chapter.",
+                        current.getTitle(), bookmarkLevel, startPageIndex + 1, endPageIndex + 1);
+                continue; // Skip invalid chapter range
+            }
+            if (startPageIndex >= totalPages || startPageIndex < 0) {
+                logger.warn("Bookmark '{}' (level {}) points to an invalid start page index {}. Skipping this chapter.",
+                        current.getTitle(), bookmarkLevel, startPageIndex);
+                continue;
+            }
+            ranges.add(new ChapterRange(i, current.getTitle(), startPageIndex, endPageIndex));
+        }
+        return ranges;
+    }
+
+    /**
+     * Resolves how many workers a split should use: the requested level (or the configured default when absent),
+     * capped by the worker pool size and the number of chapters.
+     */
+    public int effectiveParallelism(Integer requested, int chapterCount) {
+        int parallelism = requested != null && requested > 0 ? requested : defaultParallelism;
+        return Math.max(1, Math.min(Math.min(parallelism, workerPool.getPoolSize()), chapterCount));
+    }
+
+    /**
+     * Builds the chapters one after another from {@code document}, saving each straight into its ZIP entry.
+     */
+    public void writeSequential(PDDocument document, List<ChapterRange> ranges, ZipOutputStream zos) throws IOException {
+        for (ChapterRange range : ranges) {
+            zos.putNextEntry(new ZipEntry(range.getFileName()));
+            saveChapter(document, range, zos, sequentialSaves);
+            zos.closeEntry();
+            zos.flush(); // Push the finished entry to the client before starting the next chapter
+            logger.debug("Added chapter '{}' (pages {}-{}) to zip.", range.getTitle(), range.getStartPage() + 1, range.getEndPage() + 1);
+        }
+    }
+
+    /**
+     * Builds the chapters on {@code parallelism} workers, each with its own document loaded from {@code sourceFile},
+     * and appends them to the ZIP in chapter order as they become available.
+     */
+    public void writeParallel(Path sourceFile, List<ChapterRange> ranges, int parallelism, ZipOutputStream zos) throws IOException {
+        ParallelSplit split = new ParallelSplit(documentLoader, sourceFile, ranges, parallelism, parallelSaves);
+        for (int worker = 0; worker < parallelism; worker++) {
+            int workerIndex = worker;
+            workerPool.execute(() -> split.runWorker(workerIndex));
+        }
+
+        try {
+            for (ChapterRange range : ranges) {
+                Path chapterFile = split.await(range);
+                try {
+                    zos.putNextEntry(new ZipEntry(range.getFileName()));
+                    Files.copy(chapterFile, zos);
+                    zos.closeEntry();
+                    zos.flush();
+                } finally {
+                    Files.deleteIfExists(chapterFile);
+                }
+                split.consumed(range);
+                logger.debug("Added chapter '{}' (pages {}-{}) to zip.", range.getTitle(), range.getStartPage() + 1, range.getEndPage() + 1);
+            }
+        } finally {
+            split.cancel(); // Stops workers early if the ZIP writer failed, and removes chapters nobody will consume
+        }
+    }
+
+    private static void saveChapter(PDDocument source, ChapterRange range, OutputStream out, Timer timer) throws IOException {
+        long started = System.nanoTime();
+        try (PDDocument chapterDoc = new PDDocument()) {
+            for (int pageNum = range.getStartPage(); pageNum <= range.getEndPage(); pageNum++) {
+                chapterDoc.addPage(source.getPage(pageNum));
+            }
+            chapterDoc.save(new NonClosingOutputStream(out)); // save() closes its stream; the target must stay open
+        }
+        timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Coordination state of one parallel split. Worker {@code w} builds chapters {@code w, w + n, w + 2n, ...}
+     * in order, so the next chapter the ZIP writer needs is always the next one its worker builds; workers
+     * that get too far ahead of the writer wait, which can never block that worker.
+     */
+    private static final class ParallelSplit {
+        private final PdfDocumentLoader documentLoader;
+        private final Path sourceFile;
+        private final List<ChapterRange> ranges;
+        private final int parallelism;
+        private final Timer saves;
+        private final List<CompletableFuture<Path>> results = new ArrayList<>();
+        private final int window;
+        private int nextToConsume; // Position in ranges, guarded by this
+        private volatile boolean cancelled;
+
+        private ParallelSplit(PdfDocumentLoader documentLoader, Path sourceFile, List<ChapterRange> ranges, int parallelism, Timer saves) {
+            this.documentLoader = documentLoader;
+            this.sourceFile = sourceFile;
+            this.ranges = ranges;
+            this.parallelism = parallelism;
+            this.saves = saves;
+            this.window = parallelism * LOOKAHEAD_PER_WORKER;
+            for (int i = 0; i < ranges.size(); i++) {
+                results.add(new CompletableFuture<>());
+            }
+        }
+
+        void runWorker(int worker) {
+            try (PdfDocumentLoader.LoadedPdf loaded = documentLoader.load(sourceFile, "split worker " + worker)) {
+                PDDocument document = loaded.getDocument();
+                for (int position = worker; position < ranges.size() && !cancelled; position += parallelism) {
+                    if (!awaitWindow(position)) {
+                        return;
+                    }
+                    Path chapterFile = Files.createTempFile("stirling-proxy-chapter-", ".pdf");
+                    try (OutputStream out = Files.newOutputStream(chapterFile)) {
+                        saveChapter(document, ranges.get(position), out, saves);
+                    } catch (IOException | RuntimeException e) {
+                        Files.deleteIfExists(chapterFile);
+                        throw e;
+                    }
+                    results.get(position).complete(chapterFile);
+                    if (cancelled) {
+                        Files.deleteIfExists(chapterFile);
+                    }
+                }
+            } catch (Throwable e) {
+                // Fail this worker's remaining chapters so the ZIP writer stops instead of waiting forever
+                for (int position = worker; position < ranges.size(); position += parallelism) {
+                    results.get(position).completeExceptionally(e);
+                }
+            }
+        }
+
+        private synchronized boolean awaitWindow(int position) throws InterruptedException {
+            while (!cancelled && position - nextToConsume >= window) {
+                wait();
+            }
+            return !cancelled;
+        }
+
+        Path await(ChapterRange range) throws IOException {
+            int position = ranges.indexOf(range);
+            try {
+                return results.get(position).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for chapter '" + range.getTitle() + "'", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException ioException) {
+                    throw ioException;
+                }
+                if (cause instanceof UncheckedIOException uncheckedIOException) {
+                    throw uncheckedIOException.getCause();
+                }
+                throw new IOException("Failed to build chapter '" + range.getTitle() + "': " + cause.getMessage(), cause);
+            }
+        }
+
+        synchronized void consumed(ChapterRange range) {
+            nextToConsume = ranges.indexOf(range) + 1;
+            notifyAll();
+        }
+
+        void cancel() {
+            cancelled = true;
+            synchronized (this) {
+                notifyAll();
+            }
+            for (CompletableFuture<Path> result : results) {
+                Path leftover = result.getNow(null);
+                if (leftover != null) {
+                    try {
+                        Files.deleteIfExists(leftover);
+                    } catch (IOException e) {
+                        logger.warn("Could not delete chapter temp file {}: {}", leftover, e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+}
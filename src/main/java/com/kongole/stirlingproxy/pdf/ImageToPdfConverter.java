@@ -0,0 +1,337 @@
+package com.kongole.stirlingproxy.pdf;
+
+import com.kongole.stirlingproxy.util.NonClosingOutputStream;
+import com.kongole.stirlingproxy.util.SpooledUpload;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Converts uploaded images into a PDF with one A4 page per image, the way Stirling's {@code convert/img/pdf} does.
+ * <p>
+ * JPEGs are embedded as they are (DCT-encoded, only their header is read). Other formats are decoded and
+ * Flate-compressed on the shared PDF worker pool, up to {@code proxy.pdf.image.parallelism} images per request at a
+ * time, into temp files that the caller's thread adds to the document in upload order. Only that many decoded images
+ * are in memory at once, and the document keeps its image streams in a scratch file, so heap use doesn't grow with
+ * the number of photos.
+ * <p>
+ * Images are scaled to fit the page, keeping their aspect ratio and centred, or stretched over the whole page.
+ * With auto-rotate, landscape images get a landscape page. Encoding each image is timed in {@code proxy.pdf.image.encode}.
+ */
+@Component
+public class ImageToPdfConverter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageToPdfConverter.class);
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final PdfWorkerPool workerPool;
+    private final int defaultParallelism;
+    private final Timer encodes;
+
+    public ImageToPdfConverter(PdfWorkerPool workerPool, @Value("${proxy.pdf.image.parallelism:0}") int defaultParallelism,
+                               MeterRegistry meterRegistry) {
+        this.workerPool = workerPool;
+        this.defaultParallelism = defaultParallelism;
+        this.encodes = Timer.builder("proxy.pdf.image.encode").register(meterRegistry);
+    }
+
+    /**
+     * Reads the header of every upload and fails if any of them isn't an image the JVM can decode, so the call can
+     * still be forwarded before a response has been started. Only dimensions and metadata are read, no pixels; for a
+     * JPEG that is everything {@link JPEGFactory} reads when it embeds the file.
+     */
+    public void probe(List<SpooledUpload> inputs) throws IOException {
+        for (SpooledUpload input : inputs) {
+            boolean jpeg = isJpeg(input.getPath());
+            try (ImageInputStream stream = ImageIO.createImageInputStream(input.getPath().toFile())) {
+                Iterator<ImageReader> readers = stream != null ? ImageIO.getImageReaders(stream) : null;
+                if (readers == null || !readers.hasNext()) {
+                    throw new IOException("No image reader for '" + input.getOriginalFilename() + "'");
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(stream, true, !jpeg);
+                    reader.getWidth(0);
+                    reader.getHeight(0);
+                    if (jpeg) {
+                        reader.getImageMetadata(0);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    throw new IOException("Unreadable image '" + input.getOriginalFilename() + "': " + e.getMessage(), e);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the PDF from {@code inputs} in order and saves it to {@code out}, which is left open.
+     */
+    public void write(List<SpooledUpload> inputs, boolean stretch, boolean autoRotate, OutputStream out) throws IOException {
+        int parallelism = Math.max(1, Math.min(defaultParallelism > 0 ? defaultParallelism : workerPool.getPoolSize(),
+                workerPool.getPoolSize()));
+        List<CompletableFuture<EncodedImage>> pending = new ArrayList<>();
+        int submitted = 0;
+        try (PDDocument document = new PDDocument(MemoryUsageSetting.setupTempFileOnly())) {
+            for (int i = 0; i < inputs.size(); i++) {
+                // Keep at most `parallelism` images being decoded ahead of the one added next
+                while (submitted < inputs.size() && submitted < i + parallelism) {
+                    pending.add(encodeAsync(inputs.get(submitted++)));
+                }
+                EncodedImage encoded = await(pending.get(i), inputs.get(i));
+                try {
+                    addPage(document, encoded, stretch, autoRotate);
+                } finally {
+                    encoded.delete();
+                }
+            }
+            document.save(new NonClosingOutputStream(out));
+        } finally {
+            // Stops work nobody will consume if the document or the client failed, and removes its temp files
+            for (CompletableFuture<EncodedImage> future : pending) {
+                if (!future.cancel(false)) {
+                    EncodedImage leftover = future.getNow(null);
+                    if (leftover != null) {
+                        leftover.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<EncodedImage> encodeAsync(SpooledUpload input) {
+        if (isJpeg(input.getPath())) {
+            return CompletableFuture.completedFuture(EncodedImage.jpeg(input.getPath()));
+        }
+        CompletableFuture<EncodedImage> future = new CompletableFuture<>();
+        workerPool.execute(() -> {
+            if (future.isCancelled()) {
+                return;
+            }
+            try {
+                EncodedImage encoded = encode(input);
+                if (!future.complete(encoded)) {
+                    encoded.delete(); // Cancelled while encoding
+                }
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Decodes {@code input} and writes its pixels, and its alpha channel if it has one, Flate-compressed into temp files.
+     */
+    private EncodedImage encode(SpooledUpload input) throws IOException {
+        long started = System.nanoTime();
+        BufferedImage image = ImageIO.read(input.getPath().toFile());
+        if (image == null) {
+            throw new IOException("Could not decode image '" + input.getOriginalFilename() + "'");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean gray = image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        boolean alpha = image.getColorModel().hasAlpha();
+
+        Path pixels = Files.createTempFile("stirling-proxy-image-", ".bin");
+        Path mask = alpha ? Files.createTempFile("stirling-proxy-mask-", ".bin") : null;
+        try (OutputStream pixelOut = deflating(pixels); OutputStream maskOut = mask != null ? deflating(mask) : OutputStream.nullOutputStream()) {
+            int components = gray ? 1 : 3;
+            int[] row = new int[width];
+            byte[] pixelRow = new byte[width * components];
+            byte[] maskRow = new byte[width];
+            for (int y = 0; y < height; y++) {
+                if (gray) {
+                    // Raw samples: getRGB would convert the linear gray colour space to sRGB and brighten the image
+                    image.getRaster().getSamples(0, y, width, 1, 0, row);
+                } else {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                }
+                for (int x = 0; x < width; x++) {
+                    int argb = row[x];
+                    if (gray) {
+                        pixelRow[x] = (byte) argb;
+                    } else {
+                        pixelRow[3 * x] = (byte) (argb >> 16);
+                        pixelRow[3 * x + 1] = (byte) (argb >> 8);
+                        pixelRow[3 * x + 2] = (byte) argb;
+                    }
+                    maskRow[x] = (byte) (argb >>> 24);
+                }
+                pixelOut.write(pixelRow);
+                if (mask != null) {
+                    maskOut.write(maskRow);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(pixels);
+            if (mask != null) {
+                Files.deleteIfExists(mask);
+            }
+            throw e;
+        }
+        encodes.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        logger.debug("Encoded image '{}' ({}x{}{}).", input.getOriginalFilename(), width, height, alpha ? ", with alpha" : "");
+        return new EncodedImage(null, pixels, mask, width, height, gray);
+    }
+
+    private static void addPage(PDDocument document, EncodedImage encoded, boolean stretch, boolean autoRotate) throws IOException {
+        PDImageXObject image;
+        if (encoded.jpeg != null) {
+            try (InputStream in = Files.newInputStream(encoded.jpeg)) {
+                image = JPEGFactory.createFromStream(document, in);
+            }
+        } else {
+            try (InputStream in = Files.newInputStream(encoded.pixels)) {
+                image = new PDImageXObject(document, in, COSName.FLATE_DECODE, encoded.width, encoded.height, 8,
+                        encoded.gray ? PDDeviceGray.INSTANCE : PDDeviceRGB.INSTANCE);
+            }
+            if (encoded.mask != null) {
+                try (InputStream in = Files.newInputStream(encoded.mask)) {
+                    PDImageXObject softMask = new PDImageXObject(document, in, COSName.FLATE_DECODE, encoded.width, encoded.height, 8,
+                            PDDeviceGray.INSTANCE);
+                    image.getCOSObject().setItem(COSName.SMASK, softMask);
+                }
+            }
+        }
+
+        PDRectangle pageSize = PDRectangle.A4;
+        if (autoRotate && image.getWidth() > image.getHeight()) {
+            pageSize = new PDRectangle(pageSize.getHeight(), pageSize.getWidth());
+        }
+        PDPage page = new PDPage(pageSize);
+        document.addPage(page);
+
+        float pageWidth = pageSize.getWidth();
+        float pageHeight = pageSize.getHeight();
+        try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+            if (stretch) {
+                contentStream.drawImage(image, 0, 0, pageWidth, pageHeight);
+            } else {
+                float scale = Math.min(pageWidth / image.getWidth(), pageHeight / image.getHeight());
+                float width = image.getWidth() * scale;
+                float height = image.getHeight() * scale;
+                contentStream.drawImage(image, (pageWidth - width) / 2, (pageHeight - height) / 2, width, height);
+            }
+        }
+    }
+
+    private static EncodedImage await(CompletableFuture<EncodedImage> future, SpooledUpload input) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for image '" + input.getOriginalFilename() + "'", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw new IOException("Failed to convert image '" + input.getOriginalFilename() + "': " + cause.getMessage(), cause);
+        }
+    }
+
+    private static OutputStream deflating(Path file) throws IOException {
+        // Photos barely compress further; a fast level keeps the workers from being the bottleneck
+        return new DeflaterOutputStream(Files.newOutputStream(file), new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * JPEGs start with an SOI marker followed by another marker.
+     */
+    private static boolean isJpeg(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] header = in.readNBytes(3);
+            return header.length == 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * An image ready to be added to the document: a JPEG to embed as-is, or Flate-compressed pixels and alpha.
+     */
+    private static final class EncodedImage {
+        private final Path jpeg;
+        private final Path pixels;
+        private final Path mask;
+        private final int width;
+        private final int height;
+        private final boolean gray;
+
+        private EncodedImage(Path jpeg, Path pixels, Path mask, int width, int height, boolean gray) {
+            this.jpeg = jpeg;
+            this.pixels = pixels;
+            this.mask = mask;
+            this.width = width;
+            this.height = height;
+            this.gray = gray;
+        }
+
+        static EncodedImage jpeg(Path file) {
+            return new EncodedImage(file, null, null, 0, 0, false);
+        }
+
+        /**
+         * Deletes the temp files; a JPEG is the upload itself and stays.
+         */
+        void delete() {
+            for (Path file : new Path[]{pixels, mask}) {
+                if (file != null) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        logger.warn("Could not delete image temp file {}: {}", file, e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+}
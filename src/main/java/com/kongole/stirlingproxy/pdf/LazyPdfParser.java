@@ -0,0 +1,806 @@
+package com.kongole.stirlingproxy.pdf;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Opens a PDF as a {@link PDDocument} whose objects are parsed only when they are first dereferenced.
+ * <p>
+ * The file is memory-mapped; opening reads the trailer and cross-reference sections (tables and streams) and
+ * nothing else. Every indirect reference becomes a placeholder that parses its object from the mapped file, or
+ * from its object stream, on first access. Walking the outline therefore touches the catalog, the outline items,
+ * the page tree nodes and the named destinations, but never content streams, images or fonts.
+ * <p>
+ * This is a strict parser for well-formed files: damaged cross-references, encryption, unsupported stream filters
+ * or dereferencing any stream other than an object stream raise {@link LazyParseException}, and the caller is
+ * expected to fall back to a regular {@link PDDocument#load} which can repair such files.
+ */
+public final class LazyPdfParser {
+
+    private static final int STARTXREF_SEARCH_WINDOW = 2048;
+    private static final long FREE = -1;
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    private final ByteBuffer file;
+    private final Map<Long, Long> offsets = new HashMap<>();            // Object number -> file offset, or FREE
+    private final Map<Long, long[]> compressed = new HashMap<>();       // Object number -> {object stream number, index}
+    private final Map<Long, LazyObject> references = new HashMap<>();
+    private final Map<Long, ObjectStream> objectStreams = new HashMap<>();
+
+    private LazyPdfParser(ByteBuffer file) {
+        this.file = file;
+    }
+
+    /**
+     * Maps {@code path} and reads its cross-reference sections. The returned document must be closed as usual;
+     * the mapping itself is released once the document becomes unreachable.
+     *
+     * @throws LazyParseException If the file isn't a well-formed, unencrypted PDF this parser can read lazily.
+     */
+    public static PDDocument open(Path path) throws IOException {
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new LazyParseException("File is too large to map in one piece: " + channel.size() + " bytes");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        LazyPdfParser parser = new LazyPdfParser(mapped);
+        COSDictionary trailer = parser.readCrossReferences();
+        if (trailer.containsKey(COSName.ENCRYPT)) {
+            throw new LazyParseException("Encrypted documents are not parsed lazily");
+        }
+        if (!(trailer.getDictionaryObject(COSName.ROOT) instanceof COSDictionary)) {
+            throw new LazyParseException("Trailer has no document catalog");
+        }
+
+        COSDocument cosDocument = new COSDocument();
+        cosDocument.setTrailer(trailer);
+        return new PDDocument(cosDocument);
+    }
+
+    // --- Cross-reference sections ---
+
+    private COSDictionary readCrossReferences() throws IOException {
+        COSDictionary trailer = new COSDictionary();
+        Set<Long> visitedSections = new HashSet<>();
+        long sectionOffset = findStartXref();
+
+        while (sectionOffset >= 0) {
+            if (!visitedSections.add(sectionOffset)) {
+                throw new LazyParseException("Cross-reference sections form a loop at offset " + sectionOffset);
+            }
+            Map<Long, long[]> section = new HashMap<>(); // Object number -> {type, field 2, field 3}
+            Lexer lexer = new Lexer(file, checkedOffset(sectionOffset));
+            lexer.skipSpace();
+
+            COSDictionary sectionTrailer;
+            if (lexer.tryKeyword("xref")) {
+                readXrefTable(lexer, section);
+                if (!lexer.tryKeyword("trailer")) {
+                    throw new LazyParseException("Expected 'trailer' after cross-reference table at offset " + sectionOffset);
+                }
+                sectionTrailer = lexer.readDictionary();
+                // Hybrid files also keep a cross-reference stream for objects the table doesn't list
+                COSBase xrefStm = sectionTrailer.getItem(COSName.XREF_STM);
+                if (xrefStm instanceof COSNumber hybridOffset) {
+                    readXrefStream(hybridOffset.longValue(), section);
+                }
+            } else {
+                sectionTrailer = readXrefStream(sectionOffset, section);
+            }
+
+            // Newer sections win, both for objects and for trailer entries
+            section.forEach((number, entry) -> {
+                if (!offsets.containsKey(number) && !compressed.containsKey(number)) {
+                    if (entry[0] == 1) {
+                        offsets.put(number, entry[1]);
+                    } else if (entry[0] == 2) {
+                        compressed.put(number, new long[] {entry[1], entry[2]});
+                    } else {
+                        offsets.put(number, FREE);
+                    }
+                }
+            });
+            for (Map.Entry<COSName, COSBase> item : sectionTrailer.entrySet()) {
+                if (!trailer.containsKey(item.getKey())) {
+                    trailer.setItem(item.getKey(), item.getValue());
+                }
+            }
+
+            COSBase prev = sectionTrailer.getItem(COSName.PREV);
+            sectionOffset = prev instanceof COSNumber number ? number.longValue() : -1;
+        }
+        return trailer;
+    }
+
+    private long findStartXref() {
+        byte[] keyword = "startxref".getBytes(StandardCharsets.US_ASCII);
+        int end = file.limit();
+        for (int start = end - keyword.length; start >= Math.max(0, end - STARTXREF_SEARCH_WINDOW); start--) {
+            if (matches(file, start, keyword)) {
+                Lexer lexer = new Lexer(file, start + keyword.length);
+                return lexer.readLong();
+            }
+        }
+        throw new LazyParseException("No startxref found near the end of the file");
+    }
+
+    private void readXrefTable(Lexer lexer, Map<Long, long[]> section) {
+        while (true) {
+            lexer.skipSpace();
+            if (!Lexer.isDigit(lexer.peek())) {
+                return;
+            }
+            long first = lexer.readLong();
+            long count = lexer.readLong();
+            for (long i = 0; i < count; i++) {
+                long offset = lexer.readLong();
+                long generation = lexer.readLong();
+                String type = lexer.readKeyword();
+                long number = first + i;
+                if ("n".equals(type)) {
+                    section.putIfAbsent(number, new long[] {1, offset, generation});
+                } else if ("f".equals(type)) {
+                    section.putIfAbsent(number, new long[] {0, 0, 0});
+                } else {
+                    throw new LazyParseException("Bad cross-reference entry type '" + type + "' for object " + number);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the cross-reference stream at {@code offset} into {@code section}, where in-use entries already present win,
+     * and returns its dictionary.
+     */
+    private COSDictionary readXrefStream(long offset, Map<Long, long[]> section) throws IOException {
+        Lexer lexer = new Lexer(file, checkedOffset(offset));
+        lexer.readObjectHeader(-1);
+        COSDictionary dictionary = lexer.readDictionary();
+        if (!COSName.XREF.equals(dictionary.getCOSName(COSName.TYPE))) {
+            throw new LazyParseException("Object at offset " + offset + " is not a cross-reference stream");
+        }
+        byte[] data = readStreamData(dictionary, lexer);
+
+        COSArray widths = (COSArray) dictionary.getDictionaryObject(COSName.W);
+        int[] w = new int[3];
+        for (int i = 0; i < 3; i++) {
+            w[i] = ((COSNumber) widths.getObject(i)).intValue();
+        }
+        COSBase indexBase = dictionary.getDictionaryObject(COSName.INDEX);
+        List<long[]> ranges = new ArrayList<>();
+        if (indexBase instanceof COSArray index) {
+            for (int i = 0; i + 1 < index.size(); i += 2) {
+                ranges.add(new long[] {((COSNumber) index.getObject(i)).longValue(), ((COSNumber) index.getObject(i + 1)).longValue()});
+            }
+        } else {
+            ranges.add(new long[] {0, dictionary.getLong(COSName.SIZE)});
+        }
+
+        int entryLength = w[0] + w[1] + w[2];
+        int position = 0;
+        for (long[] range : ranges) {
+            for (long i = 0; i < range[1]; i++) {
+                if (position + entryLength > data.length) {
+                    throw new LazyParseException("Cross-reference stream at offset " + offset + " is shorter than its /Index");
+                }
+                long type = w[0] == 0 ? 1 : field(data, position, w[0]);
+                long second = field(data, position + w[0], w[1]);
+                long third = field(data, position + w[0] + w[1], w[2]);
+                position += entryLength;
+                // In hybrid files the table lists these objects as free; the stream's entries replace those
+                section.merge(range[0] + i, new long[] {type, second, third}, (existing, entry) -> existing[0] == 0 ? entry : existing);
+            }
+        }
+        return dictionary;
+    }
+
+    private static long field(byte[] data, int position, int width) {
+        long value = 0;
+        for (int i = 0; i < width; i++) {
+            value = (value << 8) | (data[position + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private int checkedOffset(long offset) {
+        if (offset < 0 || offset >= file.limit()) {
+            throw new LazyParseException("Offset " + offset + " is outside the file");
+        }
+        return (int) offset;
+    }
+
+    // --- Objects ---
+
+    private COSObject reference(long number, int generation) throws IOException {
+        LazyObject reference = references.get(number);
+        if (reference == null) {
+            reference = new LazyObject(number, generation);
+            references.put(number, reference);
+        }
+        return reference;
+    }
+
+    private COSBase load(long number) throws IOException {
+        long[] location = compressed.get(number);
+        if (location != null) {
+            return objectStream(location[0]).read(number);
+        }
+        Long offset = offsets.get(number);
+        if (offset == null || offset == FREE) {
+            return COSNull.NULL; // References to missing objects resolve to null
+        }
+        Lexer lexer = new Lexer(file, checkedOffset(offset));
+        lexer.readObjectHeader(number);
+        COSBase object = lexer.readObject();
+        lexer.skipSpace();
+        if (lexer.tryKeyword("stream")) {
+            throw new LazyParseException("Object " + number + " is a stream, which lazy parsing never reads");
+        }
+        return object;
+    }
+
+    private ObjectStream objectStream(long number) throws IOException {
+        ObjectStream stream = objectStreams.get(number);
+        if (stream == null) {
+            Long offset = offsets.get(number);
+            if (offset == null || offset == FREE) {
+                throw new LazyParseException("Object stream " + number + " is missing");
+            }
+            Lexer lexer = new Lexer(file, checkedOffset(offset));
+            lexer.readObjectHeader(number);
+            COSDictionary dictionary = lexer.readDictionary();
+            byte[] data = readStreamData(dictionary, lexer);
+            stream = new ObjectStream(ByteBuffer.wrap(data), dictionary.getInt(COSName.N), dictionary.getInt(COSName.FIRST));
+            objectStreams.put(number, stream);
+        }
+        return stream;
+    }
+
+    /**
+     * Reads and decodes the data of the stream whose dictionary {@code lexer} has just read.
+     */
+    private byte[] readStreamData(COSDictionary dictionary, Lexer lexer) throws IOException {
+        lexer.skipSpace();
+        if (!lexer.tryKeyword("stream")) {
+            throw new LazyParseException("Expected a stream");
+        }
+        if (lexer.peek() == '\r') {
+            lexer.pos++;
+        }
+        if (lexer.peek() == '\n') {
+            lexer.pos++;
+        }
+        if (!(dictionary.getDictionaryObject(COSName.LENGTH) instanceof COSNumber length)) {
+            throw new LazyParseException("Stream has no usable /Length");
+        }
+        int start = lexer.pos;
+        long end = start + length.longValue();
+        if (length.longValue() < 0 || end > lexer.limit) {
+            throw new LazyParseException("Stream /Length runs past the end of the data");
+        }
+        byte[] raw = new byte[(int) length.longValue()];
+        lexer.buffer.get(start, raw);
+        lexer.pos = (int) end;
+        lexer.skipSpace();
+        if (!lexer.tryKeyword("endstream")) {
+            throw new LazyParseException("Stream /Length doesn't end at 'endstream'");
+        }
+        return decode(dictionary, raw);
+    }
+
+    private static byte[] decode(COSDictionary dictionary, byte[] raw) throws IOException {
+        COSBase filter = dictionary.getDictionaryObject(COSName.FILTER);
+        COSBase parameters = dictionary.getDictionaryObject(COSName.DECODE_PARMS);
+        if (filter instanceof COSArray filters) {
+            if (filters.size() == 0) {
+                return raw;
+            }
+            if (filters.size() > 1) {
+                throw new LazyParseException("Chained stream filters are not supported");
+            }
+            filter = filters.getObject(0);
+            parameters = parameters instanceof COSArray parameterArray && parameterArray.size() > 0 ? parameterArray.getObject(0) : parameters;
+        }
+        if (filter == null) {
+            return raw;
+        }
+        if (!COSName.FLATE_DECODE.equals(filter)) {
+            throw new LazyParseException("Unsupported stream filter " + filter);
+        }
+
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream(raw.length * 4);
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(raw))) {
+            in.transferTo(inflated);
+        }
+        return parameters instanceof COSDictionary decodeParms ? unpredict(inflated.toByteArray(), decodeParms) : inflated.toByteArray();
+    }
+
+    /**
+     * Reverses the PNG predictors that cross-reference and object streams commonly use.
+     */
+    private static byte[] unpredict(byte[] data, COSDictionary parameters) {
+        int predictor = parameters.getInt(COSName.PREDICTOR, 1);
+        if (predictor == 1) {
+            return data;
+        }
+        if (predictor < 10) {
+            throw new LazyParseException("Unsupported predictor " + predictor);
+        }
+        int colors = parameters.getInt(COSName.COLORS, 1);
+        int bitsPerComponent = parameters.getInt(COSName.BITS_PER_COMPONENT, 8);
+        int columns = parameters.getInt(COSName.COLUMNS, 1);
+        int bytesPerPixel = Math.max(1, colors * bitsPerComponent / 8);
+        int rowLength = (colors * bitsPerComponent * columns + 7) / 8;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        byte[] previous = new byte[rowLength];
+        byte[] row = new byte[rowLength];
+        for (int position = 0; position + 1 + rowLength <= data.length; position += 1 + rowLength) {
+            int type = data[position] & 0xFF;
+            System.arraycopy(data, position + 1, row, 0, rowLength);
+            for (int i = 0; i < rowLength; i++) {
+                int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xFF : 0;
+                int up = previous[i] & 0xFF;
+                int upLeft = i >= bytesPerPixel ? previous[i - bytesPerPixel] & 0xFF : 0;
+                int value = row[i] & 0xFF;
+                row[i] = (byte) switch (type) {
+                    case 0 -> value;
+                    case 1 -> value + left;
+                    case 2 -> value + up;
+                    case 3 -> value + (left + up) / 2;
+                    case 4 -> value + paeth(left, up, upLeft);
+                    default -> throw new LazyParseException("Unknown PNG row filter " + type);
+                };
+            }
+            out.write(row, 0, rowLength);
+            byte[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+        return out.toByteArray();
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+            return left;
+        }
+        return distanceUp <= distanceUpLeft ? up : upLeft;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int position, byte[] expected) {
+        if (position < 0 || position + expected.length > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(position + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Thrown when a file can't be read lazily; callers fall back to a full parse.
+     */
+    public static class LazyParseException extends RuntimeException {
+        public LazyParseException(String message) {
+            super(message);
+        }
+
+        public LazyParseException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * An indirect reference that parses its object on first access.
+     */
+    private final class LazyObject extends COSObject {
+        private boolean loaded;
+
+        private LazyObject(long number, int generation) throws IOException {
+            super(null);
+            setObjectNumber(number);
+            setGenerationNumber(generation);
+        }
+
+        @Override
+        public COSBase getObject() {
+            if (!loaded) {
+                loaded = true;
+                try {
+                    setObject(load(getObjectNumber()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return super.getObject();
+        }
+    }
+
+    private final class ObjectStream {
+        private final ByteBuffer data;
+        private final Map<Long, Integer> objectOffsets = new HashMap<>();
+
+        private ObjectStream(ByteBuffer data, int count, int first) {
+            this.data = data;
+            Lexer header = new Lexer(data, 0);
+            for (int i = 0; i < count; i++) {
+                long number = header.readLong();
+                long offset = header.readLong();
+                objectOffsets.putIfAbsent(number, first + (int) offset);
+            }
+        }
+
+        COSBase read(long number) {
+            Integer offset = objectOffsets.get(number);
+            if (offset == null) {
+                return COSNull.NULL;
+            }
+            return new Lexer(data, offset).readObject();
+        }
+    }
+
+    /**
+     * Tokenizer and direct-object parser over a byte buffer, following the syntax of ISO 32000-1 section 7.2-7.3.
+     */
+    private final class Lexer {
+        private final ByteBuffer buffer;
+        private final int limit;
+        private int pos;
+
+        private Lexer(ByteBuffer buffer, int pos) {
+            this.buffer = buffer;
+            this.limit = buffer.limit();
+            this.pos = pos;
+        }
+
+        int peek() {
+            return pos < limit ? buffer.get(pos) & 0xFF : -1;
+        }
+
+        private int peek(int ahead) {
+            return pos + ahead < limit ? buffer.get(pos + ahead) & 0xFF : -1;
+        }
+
+        private int read() {
+            if (pos >= limit) {
+                throw new LazyParseException("Unexpected end of data");
+            }
+            return buffer.get(pos++) & 0xFF;
+        }
+
+        void skipSpace() {
+            while (pos < limit) {
+                int c = peek();
+                if (isWhitespace(c)) {
+                    pos++;
+                } else if (c == '%') {
+                    while (pos < limit && peek() != '\n' && peek() != '\r') {
+                        pos++;
+                    }
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Consumes {@code keyword} if it is the next token.
+         */
+        boolean tryKeyword(String keyword) {
+            skipSpace();
+            byte[] bytes = keyword.getBytes(StandardCharsets.US_ASCII);
+            if (matches(buffer, pos, bytes) && !isRegular(peek(bytes.length))) {
+                pos += bytes.length;
+                return true;
+            }
+            return false;
+        }
+
+        String readKeyword() {
+            skipSpace();
+            int start = pos;
+            while (isRegular(peek())) {
+                pos++;
+            }
+            return ascii(start, pos);
+        }
+
+        long readLong() {
+            skipSpace();
+            int start = pos;
+            if (peek() == '+' || peek() == '-') {
+                pos++;
+            }
+            while (isDigit(peek())) {
+                pos++;
+            }
+            try {
+                return Long.parseLong(ascii(start, pos));
+            } catch (NumberFormatException e) {
+                throw new LazyParseException("Expected an integer at offset " + start, e);
+            }
+        }
+
+        /**
+         * Reads {@code <number> <generation> obj}, checking the number unless {@code expected} is negative.
+         */
+        void readObjectHeader(long expected) {
+            long number = readLong();
+            readLong();
+            if (!tryKeyword("obj") || (expected >= 0 && number != expected)) {
+                throw new LazyParseException("Cross-reference entry for object " + expected + " doesn't point at its definition");
+            }
+        }
+
+        COSBase readObject() {
+            skipSpace();
+            int c = peek();
+            if (c == '<') {
+                return peek(1) == '<' ? readDictionary() : readHexString();
+            }
+            if (c == '[') {
+                return readArray();
+            }
+            if (c == '(') {
+                return readLiteralString();
+            }
+            if (c == '/') {
+                return readName();
+            }
+            if (isDigit(c) || c == '+' || c == '-' || c == '.') {
+                return readNumberOrReference();
+            }
+            String keyword = readKeyword();
+            return switch (keyword) {
+                case "true" -> COSBoolean.TRUE;
+                case "false" -> COSBoolean.FALSE;
+                case "null" -> COSNull.NULL;
+                default -> throw new LazyParseException("Unexpected token '" + keyword + "' at offset " + pos);
+            };
+        }
+
+        COSDictionary readDictionary() {
+            skipSpace();
+            if (read() != '<' || read() != '<') {
+                throw new LazyParseException("Expected a dictionary at offset " + (pos - 2));
+            }
+            COSDictionary dictionary = new COSDictionary();
+            while (true) {
+                skipSpace();
+                if (peek() == '>' && peek(1) == '>') {
+                    pos += 2;
+                    return dictionary;
+                }
+                COSName key = readName();
+                dictionary.setItem(key, readObject());
+            }
+        }
+
+        private COSArray readArray() {
+            pos++; // '['
+            COSArray array = new COSArray();
+            while (true) {
+                skipSpace();
+                if (peek() == ']') {
+                    pos++;
+                    return array;
+                }
+                array.add(readObject());
+            }
+        }
+
+        private COSName readName() {
+            skipSpace();
+            if (read() != '/') {
+                throw new LazyParseException("Expected a name at offset " + (pos - 1));
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            while (isRegular(peek())) {
+                int c = read();
+                if (c == '#' && isHex(peek()) && isHex(peek(1))) {
+                    c = Character.digit(read(), 16) * 16 + Character.digit(read(), 16);
+                }
+                bytes.write(c);
+            }
+            return COSName.getPDFName(decodeName(bytes.toByteArray()));
+        }
+
+        private COSBase readNumberOrReference() {
+            int start = pos;
+            while (isDigit(peek()) || peek() == '.' || peek() == '+' || peek() == '-' || peek() == 'e' || peek() == 'E') {
+                pos++;
+            }
+            String token = ascii(start, pos);
+            if (token.indexOf('.') >= 0 || token.indexOf('e') >= 0 || token.indexOf('E') >= 0) {
+                try {
+                    return new COSFloat(token);
+                } catch (IOException e) {
+                    throw new LazyParseException("Bad number '" + token + "' at offset " + start, e);
+                }
+            }
+
+            long value;
+            try {
+                value = Long.parseLong(token);
+            } catch (NumberFormatException e) {
+                throw new LazyParseException("Bad number '" + token + "' at offset " + start, e);
+            }
+
+            // An integer may start an indirect reference: <number> <generation> R
+            int afterNumber = pos;
+            skipSpace();
+            if (isDigit(peek())) {
+                int generationStart = pos;
+                while (isDigit(peek())) {
+                    pos++;
+                }
+                int generationEnd = pos;
+                skipSpace();
+                if (peek() == 'R' && !isRegular(peek(1))) {
+                    pos++;
+                    try {
+                        return reference(value, Integer.parseInt(ascii(generationStart, generationEnd)));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+            pos = afterNumber;
+            return COSInteger.get(value);
+        }
+
+        private COSString readLiteralString() {
+            pos++; // '('
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int depth = 1;
+            while (true) {
+                int c = read();
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    if (--depth == 0) {
+                        return new COSString(bytes.toByteArray());
+                    }
+                } else if (c == '\\') {
+                    c = read();
+                    switch (c) {
+                        case 'n' -> c = '\n';
+                        case 'r' -> c = '\r';
+                        case 't' -> c = '\t';
+                        case 'b' -> c = '\b';
+                        case 'f' -> c = '\f';
+                        case '\r' -> {
+                            if (peek() == '\n') {
+                                pos++;
+                            }
+                            continue; // Line continuation
+                        }
+                        case '\n' -> {
+                            continue;
+                        }
+                        default -> {
+                            if (c >= '0' && c <= '7') {
+                                int octal = c - '0';
+                                for (int i = 0; i < 2 && peek() >= '0' && peek() <= '7'; i++) {
+                                    octal = octal * 8 + (read() - '0');
+                                }
+                                c = octal & 0xFF;
+                            }
+                            // Any other escaped character, including ( ) and \, stands for itself
+                        }
+                    }
+                } else if (c == '\r') {
+                    // An unescaped end-of-line is read as a single line feed
+                    if (peek() == '\n') {
+                        pos++;
+                    }
+                    c = '\n';
+                }
+                bytes.write(c);
+            }
+        }
+
+        private COSString readHexString() {
+            pos++; // '<'
+            StringBuilder hex = new StringBuilder();
+            while (true) {
+                int c = read();
+                if (c == '>') {
+                    break;
+                }
+                if (isHex(c)) {
+                    hex.append((char) c);
+                } else if (!isWhitespace(c)) {
+                    throw new LazyParseException("Bad character in hex string at offset " + (pos - 1));
+                }
+            }
+            if (hex.length() % 2 != 0) {
+                hex.append('0');
+            }
+            byte[] bytes = new byte[hex.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hex, i * 2, i * 2 + 2, 16);
+            }
+            return new COSString(bytes);
+        }
+
+        private String ascii(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        static boolean isDigit(int c) {
+            return c >= '0' && c <= '9';
+        }
+
+        private static boolean isHex(int c) {
+            return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+        }
+
+        private static boolean isWhitespace(int c) {
+            return c == 0 || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == ' ';
+        }
+
+        private static boolean isRegular(int c) {
+            return c != -1 && !isWhitespace(c) && "()<>[]{}/%".indexOf(c) < 0;
+        }
+    }
+
+    /**
+     * Names are UTF-8 when they decode as such and Windows-1252 otherwise, as in PDFBox's own parser.
+     */
+    private static String decodeName(byte[] bytes) {
+        try {
+            CharBuffer chars = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes));
+            return chars.toString();
+        } catch (CharacterCodingException e) {
+            return new String(bytes, WINDOWS_1252);
+        }
+    }
+}
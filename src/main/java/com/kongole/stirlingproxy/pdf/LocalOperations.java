@@ -0,0 +1,328 @@
+package com.kongole.stirlingproxy.pdf;
+
+import com.kongole.stirlingproxy.pdf.PdfDocumentLoader.LoadedPdf;
+import com.kongole.stirlingproxy.util.NonClosingOutputStream;
+import com.kongole.stirlingproxy.util.SpooledUpload;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Runs cheap page-level Stirling operations with PDFBox inside the proxy instead of sending the file to Stirling
+ * and back: rotating, merging, selecting and reordering pages, removing pages and splitting at given pages, and
+ * converting images to a PDF (see {@link ImageToPdfConverter}).
+ * <p>
+ * Which routes run here is configured in {@code proxy.local.routes}. A call only runs in-process when the params
+ * stay within what is implemented here (e.g. plain page ranges, not Stirling's {@code 2n+1} functions) and the
+ * uploads add up to no more than {@code proxy.local.max-input-size} ({@code proxy.local.max-image-input-size} for
+ * image conversion, which never holds more than a few images in memory); everything else goes to Stirling as before.
+ * <p>
+ * Responses follow Stirling's: a PDF (or, for splits, a ZIP of PDFs) as an attachment named after the first upload.
+ * Documents are loaded through the {@link PdfDocumentLoader}, so they count against the shared heap budget, and
+ * the result is saved straight into the response. Runs are timed in {@code proxy.local.operation}, tagged by route.
+ */
+@Component
+public class LocalOperations {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalOperations.class);
+
+    public static final String ROTATE = "general/rotate-pdf";
+    public static final String MERGE = "general/merge-pdfs";
+    public static final String REARRANGE = "general/rearrange-pages";
+    public static final String REMOVE_PAGES = "general/remove-pages";
+    public static final String SPLIT_PAGES = "general/split-pages";
+    public static final String IMAGES_TO_PDF = "convert/img/pdf";
+    public static final Set<String> IMPLEMENTED = Set.of(ROTATE, MERGE, REARRANGE, REMOVE_PAGES, SPLIT_PAGES, IMAGES_TO_PDF);
+
+    private final PdfDocumentLoader documentLoader;
+    private final ImageToPdfConverter imageConverter;
+    private final Set<String> routes = new LinkedHashSet<>();
+    private final long maxInputSize;
+    private final long maxImageInputSize;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    public LocalOperations(PdfDocumentLoader documentLoader, ImageToPdfConverter imageConverter,
+                           @Value("${proxy.local.routes:}") List<String> routes,
+                           @Value("${proxy.local.max-input-size:64MB}") DataSize maxInputSize,
+                           @Value("${proxy.local.max-image-input-size:1GB}") DataSize maxImageInputSize,
+                           MeterRegistry meterRegistry) {
+        this.documentLoader = documentLoader;
+        this.imageConverter = imageConverter;
+        this.maxInputSize = maxInputSize.toBytes();
+        this.maxImageInputSize = maxImageInputSize.toBytes();
+        this.meterRegistry = meterRegistry;
+        for (String route : routes) {
+            String trimmed = route.trim();
+            if (IMPLEMENTED.contains(trimmed)) {
+                this.routes.add(trimmed);
+            } else if (!trimmed.isEmpty()) {
+                logger.warn("Ignoring proxy.local.routes entry '{}': only {} can run in-process.", trimmed, IMPLEMENTED);
+            }
+        }
+    }
+
+    public Set<String> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Whether a call of {@code path} with {@code fileCount} uploads of {@code totalSize} bytes and {@code params}
+     * runs in-process under the routing rules.
+     */
+    public boolean handles(String path, int fileCount, long totalSize, Map<String, String> params) {
+        if (!routes.contains(path) || fileCount == 0 || totalSize > (IMAGES_TO_PDF.equals(path) ? maxImageInputSize : maxInputSize)) {
+            return false;
+        }
+        return switch (path) {
+            case ROTATE -> fileCount == 1 && isQuarterTurn(params.get("angle"));
+            case MERGE -> isBlankOr(params.get("sortType"), "orderProvided") && isBlankOr(params.get("removeCertSign"), "false");
+            case REARRANGE -> fileCount == 1 && isBlankOr(params.get("customMode"), "CUSTOM")
+                    && PageSelection.isSupported(params.get("pageNumbers"));
+            case REMOVE_PAGES, SPLIT_PAGES -> fileCount == 1 && PageSelection.isSupported(params.get("pageNumbers"));
+            case IMAGES_TO_PDF -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Runs {@code path} on {@code inputs}, which must be {@link #handles handled}. The documents are loaded and
+     * transformed before this returns, so a file PDFBox can't process fails here, while the caller can still forward
+     * it; on success the returned body owns the inputs and deletes them once the result has been written.
+     */
+    public ResponseEntity<StreamingResponseBody> execute(String path, List<SpooledUpload> inputs, Map<String, String> params) throws IOException {
+        ResponseEntity<StreamingResponseBody> response = switch (path) {
+            case ROTATE -> rotate(inputs, Integer.parseInt(params.get("angle").trim()));
+            case MERGE -> merge(inputs);
+            case REARRANGE -> rearrange(inputs, params.get("pageNumbers"));
+            case REMOVE_PAGES -> removePages(inputs, params.get("pageNumbers"));
+            case SPLIT_PAGES -> splitPages(inputs, params.get("pageNumbers"));
+            case IMAGES_TO_PDF -> imagesToPdf(inputs, Boolean.parseBoolean(params.get("stretch")), Boolean.parseBoolean(params.get("autoRotate")));
+            default -> throw new IllegalArgumentException(path + " cannot run in-process");
+        };
+        executed.incrementAndGet();
+        return response;
+    }
+
+    /**
+     * Records that an in-process run failed and the call was forwarded to Stirling instead.
+     */
+    public void fellBack() {
+        fallbacks.incrementAndGet();
+    }
+
+    public long executed() {
+        return executed.get();
+    }
+
+    public long fallbacks() {
+        return fallbacks.get();
+    }
+
+    private ResponseEntity<StreamingResponseBody> rotate(List<SpooledUpload> inputs, int angle) throws IOException {
+        return transformed(ROTATE, inputs, "_rotated.pdf", document -> {
+            for (PDPage page : document.getPages()) {
+                page.setRotation(Math.floorMod(page.getRotation() + angle, 360));
+            }
+        });
+    }
+
+    private ResponseEntity<StreamingResponseBody> rearrange(List<SpooledUpload> inputs, String pageNumbers) throws IOException {
+        return transformed(REARRANGE, inputs, "_rearranged.pdf", document -> {
+            List<PDPage> newOrder = new ArrayList<>();
+            for (int page : PageSelection.resolve(pageNumbers, document.getNumberOfPages())) {
+                newOrder.add(document.getPage(page));
+            }
+            for (int page = document.getNumberOfPages() - 1; page >= 0; page--) {
+                document.removePage(page);
+            }
+            newOrder.forEach(document::addPage);
+        });
+    }
+
+    private ResponseEntity<StreamingResponseBody> removePages(List<SpooledUpload> inputs, String pageNumbers) throws IOException {
+        return transformed(REMOVE_PAGES, inputs, "_removed_pages.pdf", document -> {
+            // Highest first, so earlier removals don't shift the pages still to be removed
+            for (int page : new TreeSet<>(PageSelection.resolve(pageNumbers, document.getNumberOfPages())).descendingSet()) {
+                document.removePage(page);
+            }
+        });
+    }
+
+    private ResponseEntity<StreamingResponseBody> merge(List<SpooledUpload> inputs) throws IOException {
+        List<Closeable> resources = new ArrayList<>();
+        try {
+            // Imported pages keep referring to their sources, so all of them stay open until the result is saved
+            PDDocument merged = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
+            resources.add(merged);
+            PDFMergerUtility merger = new PDFMergerUtility();
+            for (SpooledUpload input : inputs) {
+                LoadedPdf source = documentLoader.load(input.getPath(), input.getOriginalFilename());
+                resources.add(source);
+                merger.appendDocument(merged, source.getDocument());
+            }
+            return respond(MERGE, inputs, resources, MediaType.APPLICATION_PDF, baseName(inputs.get(0)) + "_merged_unsigned.pdf",
+                    out -> merged.save(new NonClosingOutputStream(out)));
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(resources);
+            throw e;
+        }
+    }
+
+    /**
+     * Splits after each selected page, as Stirling's split-pages does, and streams the parts as a ZIP. Each part is
+     * built only when its entry is written.
+     */
+    private ResponseEntity<StreamingResponseBody> splitPages(List<SpooledUpload> inputs, String pageNumbers) throws IOException {
+        SpooledUpload input = inputs.get(0);
+        LoadedPdf loaded = documentLoader.load(input.getPath(), input.getOriginalFilename());
+        PDDocument document = loaded.getDocument();
+        int pageCount = document.getNumberOfPages();
+        TreeSet<Integer> partEnds;
+        try {
+            partEnds = new TreeSet<>(PageSelection.resolve(pageNumbers, pageCount));
+        } catch (RuntimeException e) {
+            closeQuietly(List.of(loaded));
+            throw e;
+        }
+        partEnds.add(pageCount - 1);
+        String baseName = baseName(input);
+
+        return respond(SPLIT_PAGES, inputs, List.of(loaded), MediaType.APPLICATION_OCTET_STREAM, baseName + "_split.zip", out -> {
+            ZipOutputStream zos = new ZipOutputStream(new NonClosingOutputStream(out));
+            int start = 0;
+            int part = 0;
+            for (int end : partEnds) {
+                if (end < start) {
+                    continue;
+                }
+                try (PDDocument partDocument = new PDDocument()) {
+                    for (int page = start; page <= end; page++) {
+                        partDocument.addPage(document.getPage(page));
+                    }
+                    zos.putNextEntry(new ZipEntry(baseName + "_" + (++part) + ".pdf"));
+                    partDocument.save(new NonClosingOutputStream(zos));
+                    zos.closeEntry();
+                    zos.flush();
+                }
+                start = end + 1;
+            }
+            zos.finish();
+        });
+    }
+
+    /**
+     * Checks that every upload is a decodable image, then leaves decoding and assembling the PDF to the response body.
+     */
+    private ResponseEntity<StreamingResponseBody> imagesToPdf(List<SpooledUpload> inputs, boolean stretch, boolean autoRotate) throws IOException {
+        imageConverter.probe(inputs);
+        String filename = inputs.get(0).getOriginalFilename() != null
+                ? inputs.get(0).getOriginalFilename().replaceFirst("[.][^.]+$", "") + "_converted.pdf"
+                : "converted.pdf";
+        return respond(IMAGES_TO_PDF, inputs, List.of(), MediaType.APPLICATION_PDF, filename,
+                out -> imageConverter.write(inputs, stretch, autoRotate, out));
+    }
+
+    /**
+     * Loads the single input, applies {@code transform} to it and responds with the modified document.
+     */
+    private ResponseEntity<StreamingResponseBody> transformed(String route, List<SpooledUpload> inputs, String suffix,
+                                                              DocumentTransform transform) throws IOException {
+        SpooledUpload input = inputs.get(0);
+        LoadedPdf loaded = documentLoader.load(input.getPath(), input.getOriginalFilename());
+        try {
+            transform.apply(loaded.getDocument());
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(List.of(loaded));
+            throw e;
+        }
+        return respond(route, inputs, List.of(loaded), MediaType.APPLICATION_PDF, baseName(input) + suffix,
+                out -> loaded.getDocument().save(new NonClosingOutputStream(out)));
+    }
+
+    private ResponseEntity<StreamingResponseBody> respond(String route, List<SpooledUpload> inputs, List<Closeable> resources,
+                                                          MediaType contentType, String filename, StreamingResponseBody writer) {
+        Timer timer = Timer.builder("proxy.local.operation").tag("route", route).register(meterRegistry);
+        long started = System.nanoTime();
+        StreamingResponseBody body = outputStream -> {
+            try {
+                writer.writeTo(outputStream);
+                outputStream.flush();
+                logger.debug("Ran {} in-process on {} file(s).", route, inputs.size());
+            } finally {
+                timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                closeQuietly(resources);
+                closeQuietly(inputs);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(filename, StandardCharsets.UTF_8).build().toString())
+                .body(body);
+    }
+
+    private static boolean isQuarterTurn(String angle) {
+        try {
+            return angle != null && Integer.parseInt(angle.trim()) % 90 == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isBlankOr(String value, String accepted) {
+        return value == null || value.isBlank() || value.trim().equalsIgnoreCase(accepted);
+    }
+
+    private static String baseName(SpooledUpload input) {
+        String name = input.getOriginalFilename() != null ? input.getOriginalFilename() : "document.pdf";
+        int extension = name.lastIndexOf('.');
+        return extension > 0 && name.substring(extension).toLowerCase(Locale.ROOT).equals(".pdf") ? name.substring(0, extension) : name;
+    }
+
+    private static void closeQuietly(List<? extends Closeable> closeables) {
+        for (Closeable closeable : closeables) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                logger.warn("Could not close or delete {} after an in-process operation: {}", closeable, e.getMessage());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface DocumentTransform {
+        void apply(PDDocument document) throws IOException;
+    }
+}
@@ -0,0 +1,193 @@
+package com.kongole.stirlingproxy.pdf;
+
+import com.kongole.stirlingproxy.cache.OutlineIndex;
+import com.kongole.stirlingproxy.pdf.PdfDocumentLoader.LoadedPdf;
+import com.kongole.stirlingproxy.util.SpooledUpload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The outline-based operations the proxy runs itself, extracting bookmarks and splitting by chapters, shared by
+ * {@code PdfInfoController} and the pipeline's last step.
+ * <p>
+ * Outlines and chapter ranges are looked up in the {@link OutlineIndex} first and stored there once resolved, so
+ * splitting a file whose bookmarks were just extracted skips outline resolution. The split ZIP is streamed: each
+ * chapter goes into its entry on the response as soon as it is ready, built one after another from a single document
+ * or concurrently on the PDF worker pool (see {@link ChapterSplitter}).
+ */
+@Component
+public class OutlineOperations {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutlineOperations.class);
+
+    private static final StreamingResponseBody EMPTY_BODY = outputStream -> { };
+
+    private final ChapterSplitter chapterSplitter;
+    private final PdfDocumentLoader documentLoader;
+    private final OutlineIndex outlineIndex;
+
+    public OutlineOperations(ChapterSplitter chapterSplitter, PdfDocumentLoader documentLoader, OutlineIndex outlineIndex) {
+        this.chapterSplitter = chapterSplitter;
+        this.documentLoader = documentLoader;
+        this.outlineIndex = outlineIndex;
+    }
+
+    /**
+     * Spools the upload to disk, hashing it when the outline index is enabled so it can be looked up by content.
+     */
+    public SpooledUpload spool(MultipartFile file) throws IOException {
+        return outlineIndex.isEnabled() ? SpooledUpload.spool(file) : SpooledUpload.spoolUnhashed(file);
+    }
+
+    /**
+     * The outline of {@code upload}, from the index when it has been resolved before.
+     */
+    public OutlineSummary outline(SpooledUpload upload) throws IOException {
+        OutlineSummary summary = indexedOutline(upload);
+        if (summary == null) {
+            summary = documentLoader.readOutline(upload.getPath(), upload.getOriginalFilename());
+            storeOutline(upload, summary);
+        }
+        return summary;
+    }
+
+    /**
+     * Splits {@code upload} at the bookmarks of {@code bookmarkLevel} (1 or greater) into a streamed ZIP of chapter
+     * PDFs named {@code zipFilename}. A file without an outline, or without bookmarks at that level, gets an empty
+     * {@code chapters_no_outline.zip} or {@code chapters_level_not_found.zip}.
+     * <p>
+     * Takes over the upload: it is deleted once the ZIP has been streamed, or right away if there is nothing to
+     * stream or this method throws.
+     *
+     * @param parallelism How many chapters to build concurrently, or null for {@code proxy.pdf.split.parallelism}.
+     */
+    public ResponseEntity<StreamingResponseBody> splitByChapters(SpooledUpload upload, int bookmarkLevel, Integer parallelism,
+                                                                 String zipFilename) throws IOException {
+        String filename = upload.getOriginalFilename();
+        LoadedPdf loaded = null;
+        boolean handedOff = false; // Once the streaming body owns the document and upload, it is responsible for closing them
+        try {
+            OutlineSummary summary = indexedOutline(upload);
+            boolean summaryChanged = false;
+            if (summary == null) {
+                summary = documentLoader.readOutline(upload.getPath(), filename);
+                summaryChanged = true;
+            }
+
+            if (!summary.hasOutline()) {
+                logger.info("PDF file '{}' has no document outline. Cannot split by chapters.", filename);
+                if (summaryChanged) {
+                    storeOutline(upload, summary);
+                }
+                return emptyZip("chapters_no_outline.zip");
+            }
+
+            List<ChapterRange> indexedChapters = summary.getChapters(bookmarkLevel);
+            List<ChapterRange> chapters = indexedChapters != null
+                    ? indexedChapters
+                    : ChapterSplitter.planChapters(summary.getBookmarks(), bookmarkLevel, summary.getPageCount());
+            if (indexedChapters == null) {
+                summary.putChapters(bookmarkLevel, chapters);
+                summaryChanged = true;
+            }
+            if (summaryChanged) {
+                storeOutline(upload, summary);
+            }
+
+            if (chapters.isEmpty()) {
+                logger.info("No bookmarks found at level {} in PDF '{}'. Cannot split by chapters.", bookmarkLevel, filename);
+                return emptyZip("chapters_level_not_found.zip");
+            }
+
+            int workers = chapterSplitter.effectiveParallelism(parallelism, chapters.size());
+            if (workers == 1) {
+                // Planning only needed the outline; the sequential path builds every chapter from one full document
+                loaded = documentLoader.load(upload.getPath(), filename);
+            }
+
+            LoadedPdf source = loaded;
+            StreamingResponseBody body = outputStream -> {
+                try (ZipOutputStream zos = new ZipOutputStream(outputStream)) {
+                    if (workers > 1) {
+                        chapterSplitter.writeParallel(upload.getPath(), chapters, workers, zos);
+                    } else {
+                        chapterSplitter.writeSequential(source.getDocument(), chapters, zos);
+                    }
+                    zos.finish();
+                    logger.info("Successfully split PDF '{}' into {} chapters at level {} using {} worker(s).",
+                            filename, chapters.size(), bookmarkLevel, workers);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Error while streaming chapters of PDF file '{}': {}", filename, e.getMessage(), e);
+                    throw e;
+                } finally {
+                    if (source != null) {
+                        closeQuietly(source, filename);
+                    }
+                    deleteQuietly(upload);
+                }
+            };
+            handedOff = true;
+
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + zipFilename + "\"")
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .body(body);
+        } finally {
+            if (!handedOff) {
+                if (loaded != null) {
+                    closeQuietly(loaded, filename);
+                }
+                deleteQuietly(upload);
+            }
+        }
+    }
+
+    private OutlineSummary indexedOutline(SpooledUpload upload) {
+        if (!outlineIndex.isEnabled() || upload.getSha256() == null) {
+            return null;
+        }
+        OutlineSummary summary = outlineIndex.get(upload.getSha256());
+        if (summary != null) {
+            logger.debug("Reusing indexed outline of '{}' ({}).", upload.getOriginalFilename(), upload.getSha256());
+        }
+        return summary;
+    }
+
+    private void storeOutline(SpooledUpload upload, OutlineSummary summary) {
+        if (outlineIndex.isEnabled() && upload.getSha256() != null) {
+            outlineIndex.put(upload.getSha256(), summary);
+        }
+    }
+
+    private static ResponseEntity<StreamingResponseBody> emptyZip(String filename) {
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .body(EMPTY_BODY);
+    }
+
+    private static void closeQuietly(LoadedPdf document, String filename) {
+        try {
+            document.close();
+        } catch (IOException e) {
+            logger.error("Error closing PDF document '{}' after splitting: {}", filename, e.getMessage(), e);
+        }
+    }
+
+    private static void deleteQuietly(SpooledUpload upload) {
+        try {
+            upload.close();
+        } catch (IOException e) {
+            logger.warn("Could not delete spooled upload of '{}': {}", upload.getOriginalFilename(), e.getMessage());
+        }
+    }
+}
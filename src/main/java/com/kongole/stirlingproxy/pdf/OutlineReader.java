@@ -0,0 +1,149 @@
+package com.kongole.stirlingproxy.pdf;
+
+import com.kongole.stirlingproxy.dto.BookmarkInfo;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.action.PDActionGoTo;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves a document's outline into {@link BookmarkInfo} entries, in outline (pre-)order with 0-indexed levels
+ * and 1-indexed page numbers. Bookmarks whose page cannot be determined are logged and left out.
+ * <p>
+ * Pages and named destinations are looked up through a {@link PageIndex} built once per document, so the cost
+ * is linear in the size of the outline. The outline is walked with an explicit stack, so deeply nested
+ * outlines cannot overflow the thread stack, and items already visited are skipped so a cyclic outline ends.
+ */
+public final class OutlineReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutlineReader.class);
+
+    private OutlineReader() {
+    }
+
+    /**
+     * @return The resolved bookmarks, empty if the document has no outline.
+     */
+    public static List<BookmarkInfo> readBookmarks(PDDocument document) throws IOException {
+        PDDocumentOutline outline = document.getDocumentCatalog().getDocumentOutline();
+        if (outline == null) {
+            return new ArrayList<>();
+        }
+        return readBookmarks(outline, PageIndex.of(document));
+    }
+
+    public static List<BookmarkInfo> readBookmarks(PDDocumentOutline outline, PageIndex pageIndex) throws IOException {
+        List<BookmarkInfo> bookmarks = new ArrayList<>();
+        Set<COSDictionary> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Pending> stack = new ArrayDeque<>();
+        if (outline.getFirstChild() != null) {
+            stack.push(new Pending(outline.getFirstChild(), 0));
+        }
+
+        while (!stack.isEmpty()) {
+            Pending next = stack.pop();
+            PDOutlineItem bookmark = next.item;
+            int level = next.level;
+            if (!visited.add(bookmark.getCOSObject())) {
+                logger.warn("Outline item at level {} was already visited; the outline contains a cycle. Skipping.", level);
+                continue;
+            }
+
+            String bookmarkTitle = bookmark.getTitle();
+            if (bookmarkTitle == null || bookmarkTitle.trim().isEmpty()) {
+                bookmarkTitle = "[Untitled Bookmark]";
+                logger.warn("Found an untitled bookmark at outline level {}.", level);
+            }
+
+            int pageNumber = resolvePageNumber(bookmark, bookmarkTitle, level, pageIndex);
+
+            // Only add bookmarks with a resolved page number
+            if (pageNumber != -1) {
+                bookmarks.add(new BookmarkInfo(bookmarkTitle, pageNumber, level));
+            } else {
+                logger.warn("Bookmark '{}' at level {} could not resolve to a valid page number. Skipping.", bookmarkTitle, level);
+            }
+
+            // Sibling first, so the children (pushed last) are visited before it
+            PDOutlineItem sibling = bookmark.getNextSibling();
+            if (sibling != null) {
+                stack.push(new Pending(sibling, level));
+            }
+            PDOutlineItem child = bookmark.getFirstChild();
+            if (child != null) {
+                stack.push(new Pending(child, level + 1));
+            }
+        }
+        return bookmarks;
+    }
+
+    /**
+     * Determines the 1-indexed page number based on the bookmark's destination or GoTo action, or -1.
+     */
+    private static int resolvePageNumber(PDOutlineItem bookmark, String bookmarkTitle, int level, PageIndex pageIndex) throws IOException {
+        if (bookmark.getDestination() != null) {
+            return resolvePageNumber(bookmark.getDestination(), false, bookmarkTitle, level, pageIndex);
+        }
+        if (bookmark.getAction() instanceof PDActionGoTo goToAction) {
+            if (goToAction.getDestination() != null) {
+                return resolvePageNumber(goToAction.getDestination(), true, bookmarkTitle, level, pageIndex);
+            }
+            logger.warn("GoTo action for bookmark '{}' at level {} has no discernable destination.", bookmarkTitle, level);
+            return -1;
+        }
+        logger.warn("Unsupported destination or action type for bookmark '{}' at level {}: {}", bookmarkTitle, level,
+                (bookmark.getAction() != null ? bookmark.getAction().getClass().getName() : "null"));
+        return -1;
+    }
+
+    private static int resolvePageNumber(PDDestination destination, boolean fromGoTo, String bookmarkTitle, int level,
+                                         PageIndex pageIndex) throws IOException {
+        PDPageDestination pageDest = null;
+        if (destination instanceof PDPageDestination pageDestination) {
+            pageDest = pageDestination;
+        } else if (destination instanceof PDNamedDestination namedDest) {
+            pageDest = pageIndex.resolve(namedDest);
+            if (pageDest == null) {
+                logger.warn("Named destination '{}'{} could not be resolved to a valid page destination for bookmark '{}'. Page number will be -1.",
+                        namedDest.getNamedDestination(), fromGoTo ? " from GoTo action" : "", bookmarkTitle);
+            }
+        }
+
+        if (pageDest == null) {
+            logger.warn("Unsupported destination type{} for bookmark '{}' at level {}: {}",
+                    fromGoTo ? " within GoTo action" : "", bookmarkTitle, level, destination.getClass().getName());
+            return -1;
+        }
+
+        PDPage actualPage = pageDest.getPage();
+        if (actualPage != null) {
+            return pageIndex.indexOf(actualPage) + 1; // PDFBox is 0-indexed
+        }
+        int rawPageNum = pageDest.getPageNumber();
+        if (rawPageNum != -1) {
+            return rawPageNum + 1;
+        }
+        logger.warn("PDPageDestination{} for bookmark '{}' at level {} returned raw page number -1 and null PDPage.",
+                fromGoTo ? " from GoTo action" : "", bookmarkTitle, level);
+        return -1;
+    }
+
+    private record Pending(PDOutlineItem item, int level) {
+    }
+}
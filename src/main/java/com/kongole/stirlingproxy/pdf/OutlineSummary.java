@@ -0,0 +1,69 @@
+package com.kongole.stirlingproxy.pdf;
+
+import com.kongole.stirlingproxy.dto.BookmarkInfo;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What bookmark extraction and chapter splitting need to know about a document's outline: its page count,
+ * the resolved bookmarks and, per requested bookmark level, the chapter page ranges.
+ */
+public class OutlineSummary {
+    private final int pageCount;
+    private final boolean hasOutline;
+    private final List<BookmarkInfo> bookmarks;
+    private final Map<Integer, List<ChapterRange>> chaptersByLevel; // Keyed by 1-indexed bookmark level
+
+    public OutlineSummary(int pageCount, boolean hasOutline, List<BookmarkInfo> bookmarks,
+                          Map<Integer, List<ChapterRange>> chaptersByLevel) {
+        this.pageCount = pageCount;
+        this.hasOutline = hasOutline;
+        this.bookmarks = Collections.unmodifiableList(bookmarks);
+        this.chaptersByLevel = new ConcurrentHashMap<>(chaptersByLevel);
+    }
+
+    public static OutlineSummary read(PDDocument document) throws IOException {
+        PageIndex pageIndex = PageIndex.of(document);
+        PDDocumentOutline outline = document.getDocumentCatalog().getDocumentOutline();
+        if (outline == null) {
+            return new OutlineSummary(pageIndex.getPageCount(), false, List.of(), Map.of());
+        }
+        return new OutlineSummary(pageIndex.getPageCount(), true, OutlineReader.readBookmarks(outline, pageIndex), Map.of());
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * False if the document has no outline at all, as opposed to an outline without resolvable bookmarks.
+     */
+    public boolean hasOutline() {
+        return hasOutline;
+    }
+
+    public List<BookmarkInfo> getBookmarks() {
+        return bookmarks;
+    }
+
+    /**
+     * @return The chapter ranges already planned for {@code bookmarkLevel} (1-indexed), or null if none were.
+     */
+    public List<ChapterRange> getChapters(int bookmarkLevel) {
+        return chaptersByLevel.get(bookmarkLevel);
+    }
+
+    public void putChapters(int bookmarkLevel, List<ChapterRange> chapters) {
+        chaptersByLevel.put(bookmarkLevel, List.copyOf(chapters));
+    }
+
+    public Map<Integer, List<ChapterRange>> getChaptersByLevel() {
+        return Collections.unmodifiableMap(chaptersByLevel);
+    }
+}
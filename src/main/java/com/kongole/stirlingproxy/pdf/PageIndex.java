@@ -0,0 +1,124 @@
+package com.kongole.stirlingproxy.pdf;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
+import org.apache.pdfbox.pdmodel.PDDocumentNameDestinationDictionary;
+import org.apache.pdfbox.pdmodel.PDDocumentNameDictionary;
+import org.apache.pdfbox.pdmodel.PDDestinationNameTreeNode;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDNameTreeNode;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Page lookups for one document, built once so that resolving many bookmarks doesn't re-walk the page tree
+ * or the named-destination tree for each of them.
+ * <p>
+ * Pages are keyed by the identity of their COS dictionary: a destination's {@link PDPage} is a fresh wrapper
+ * around the same dictionary that sits in the page tree.
+ */
+public final class PageIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(PageIndex.class);
+
+    private final PDDocument document;
+    private final Map<COSDictionary, Integer> pageIndexes;
+    private final Map<String, PDPageDestination> namedDestinations;
+    private final int pageCount;
+
+    private PageIndex(PDDocument document, Map<COSDictionary, Integer> pageIndexes,
+                      Map<String, PDPageDestination> namedDestinations, int pageCount) {
+        this.document = document;
+        this.pageIndexes = pageIndexes;
+        this.namedDestinations = namedDestinations;
+        this.pageCount = pageCount;
+    }
+
+    public static PageIndex of(PDDocument document) {
+        Map<COSDictionary, Integer> pageIndexes = new IdentityHashMap<>();
+        int index = 0;
+        for (PDPage page : document.getPages()) {
+            pageIndexes.putIfAbsent(page.getCOSObject(), index++);
+        }
+        return new PageIndex(document, pageIndexes, readNamedDestinations(document.getDocumentCatalog()), index);
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * 0-indexed position of {@code page} in the document, or -1 if it isn't part of the page tree.
+     */
+    public int indexOf(PDPage page) {
+        Integer index = pageIndexes.get(page.getCOSObject());
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Resolves a named destination to its page destination, or null if the name is unknown.
+     */
+    public PDPageDestination resolve(PDNamedDestination namedDestination) throws IOException {
+        String name = namedDestination.getNamedDestination();
+        if (namedDestinations.containsKey(name)) {
+            return namedDestinations.get(name);
+        }
+        // Not in the pre-built table (e.g. the name tree could not be read up front); ask PDFBox and remember the answer
+        PDPageDestination resolved = document.getDocumentCatalog().findNamedDestinationPage(namedDestination);
+        namedDestinations.put(name, resolved);
+        return resolved;
+    }
+
+    /**
+     * Collects the /Names /Dests name tree and the older /Dests dictionary into a single table. Entries of
+     * the name tree win, matching {@link PDDocumentCatalog#findNamedDestinationPage}, which only consults /Dests
+     * for names the tree doesn't resolve.
+     */
+    private static Map<String, PDPageDestination> readNamedDestinations(PDDocumentCatalog catalog) {
+        Map<String, PDPageDestination> table = new HashMap<>();
+        try {
+            PDDocumentNameDictionary names = catalog.getNames();
+            PDDestinationNameTreeNode root = names != null ? names.getDests() : null;
+            if (root != null) {
+                Deque<PDNameTreeNode<PDPageDestination>> pending = new ArrayDeque<>();
+                pending.push(root);
+                while (!pending.isEmpty()) {
+                    PDNameTreeNode<PDPageDestination> node = pending.pop();
+                    Map<String, PDPageDestination> leafNames = node.getNames();
+                    if (leafNames != null) {
+                        table.putAll(leafNames);
+                    }
+                    List<PDNameTreeNode<PDPageDestination>> kids = node.getKids();
+                    if (kids != null) {
+                        kids.forEach(pending::push);
+                    }
+                }
+            }
+
+            PDDocumentNameDestinationDictionary dests = catalog.getDests();
+            if (dests != null) {
+                for (COSName key : dests.getCOSObject().keySet()) {
+                    if (dests.getDestination(key.getName()) instanceof PDPageDestination destination) {
+                        table.putIfAbsent(key.getName(), destination);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Lookups that miss the table fall back to PDFBox one name at a time
+            logger.warn("Could not pre-read named destinations, resolving them individually instead: {}", e.getMessage());
+        }
+        return table;
+    }
+}
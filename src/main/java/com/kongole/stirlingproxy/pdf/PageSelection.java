@@ -0,0 +1,52 @@
+package com.kongole.stirlingproxy.pdf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The subset of Stirling's {@code pageNumbers} syntax the proxy evaluates itself: {@code all}, single pages and
+ * ranges, comma-separated and 1-indexed, such as {@code 1,3,5-7} or {@code 10-} for page 10 to the end.
+ * Stirling also accepts functions like {@code 2n+1}; selections using them are left to Stirling.
+ */
+public final class PageSelection {
+
+    private static final Pattern SUPPORTED = Pattern.compile(
+            "\\s*(all|\\d+(\\s*-\\s*\\d*)?)(\\s*,\\s*(all|\\d+(\\s*-\\s*\\d*)?))*\\s*", Pattern.CASE_INSENSITIVE);
+
+    private PageSelection() {
+    }
+
+    public static boolean isSupported(String pageNumbers) {
+        return pageNumbers != null && SUPPORTED.matcher(pageNumbers).matches();
+    }
+
+    /**
+     * Resolves a supported selection against a document of {@code pageCount} pages, in the order given and with
+     * repeats kept. Pages beyond the end of the document are dropped, as Stirling does.
+     *
+     * @return 0-indexed page numbers.
+     */
+    public static List<Integer> resolve(String pageNumbers, int pageCount) {
+        if (!isSupported(pageNumbers)) {
+            throw new IllegalArgumentException("Unsupported page selection: " + pageNumbers);
+        }
+        List<Integer> pages = new ArrayList<>();
+        for (String part : pageNumbers.split(",")) {
+            String token = part.replace(" ", "").trim();
+            if (token.equalsIgnoreCase("all")) {
+                for (int page = 0; page < pageCount; page++) {
+                    pages.add(page);
+                }
+                continue;
+            }
+            int dash = token.indexOf('-');
+            int first = Integer.parseInt(dash < 0 ? token : token.substring(0, dash));
+            int last = dash < 0 ? first : dash == token.length() - 1 ? pageCount : Integer.parseInt(token.substring(dash + 1));
+            for (int page = Math.max(first, 1); page <= Math.min(last, pageCount); page++) {
+                pages.add(page - 1);
+            }
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,278 @@
+package com.kongole.stirlingproxy.pdf;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads PDFs from spooled files with a memory mode chosen per document against a process-wide heap budget.
+ * <p>
+ * Documents are always parsed from a buffered, file-backed source rather than copied into memory first.
+ * The memory mode governs PDFBox's scratch buffers (decoded streams, rebuilt objects):
+ * <ul>
+ *     <li>{@link Mode#MAIN_MEMORY} for small files, whose scratch space is reserved from the budget up front;</li>
+ *     <li>{@link Mode#MIXED} for larger files, capped at {@code proxy.pdf.memory.max-per-document} of heap, then spilling to temp files;</li>
+ *     <li>{@link Mode#TEMP_FILE} when the budget is exhausted, so a burst of large scans cannot crowd out small requests.</li>
+ * </ul>
+ * The reservation is returned to the budget when the {@link LoadedPdf} is closed.
+ * <p>
+ * Reading just the outline bypasses all of this where possible: see {@link #readOutline(Path, String)}.
+ * <p>
+ * Load times are recorded in {@code proxy.pdf.load} per mode, outline reads in {@code proxy.pdf.outline} per parser.
+ */
+@Component
+public class PdfDocumentLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(PdfDocumentLoader.class);
+
+    public enum Mode { MAIN_MEMORY, MIXED, TEMP_FILE }
+
+    private final long heapBudget;
+    private final long mainMemoryThreshold;
+    private final long maxPerDocument;
+    private final boolean lazyOutline;
+    private final AtomicLong reserved = new AtomicLong();
+
+    private final AtomicLong mainMemoryLoads = new AtomicLong();
+    private final AtomicLong mixedLoads = new AtomicLong();
+    private final AtomicLong tempFileLoads = new AtomicLong();
+    private final AtomicLong peakReserved = new AtomicLong();
+    private final AtomicLong allocatedDuringLoads = new AtomicLong();
+    private final AtomicLong lazyOutlineReads = new AtomicLong();
+    private final AtomicLong lazyOutlineFallbacks = new AtomicLong();
+    private final MeterRegistry meterRegistry;
+
+    public PdfDocumentLoader(
+            @Value("${proxy.pdf.memory.heap-budget:256MB}") DataSize heapBudget,
+            @Value("${proxy.pdf.memory.main-memory-threshold:8MB}") DataSize mainMemoryThreshold,
+            @Value("${proxy.pdf.memory.max-per-document:64MB}") DataSize maxPerDocument,
+            @Value("${proxy.pdf.lazy-outline.enabled:true}") boolean lazyOutline,
+            MeterRegistry meterRegistry) {
+        this.heapBudget = heapBudget.toBytes();
+        this.mainMemoryThreshold = mainMemoryThreshold.toBytes();
+        this.maxPerDocument = maxPerDocument.toBytes();
+        this.lazyOutline = lazyOutline;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Loads {@code file}, reserving heap for it from the budget. The caller must close the result.
+     *
+     * @param description Used in log messages, typically the original filename.
+     */
+    public LoadedPdf load(Path file, String description) throws IOException {
+        long size = Files.size(file);
+        Mode mode;
+        long reservation;
+        if (size <= mainMemoryThreshold && tryReserve(size)) {
+            mode = Mode.MAIN_MEMORY;
+            reservation = size;
+        } else {
+            reservation = reserveUpTo(Math.min(size, maxPerDocument));
+            mode = reservation > 0 ? Mode.MIXED : Mode.TEMP_FILE;
+        }
+
+        MemoryUsageSetting setting = switch (mode) {
+            case MAIN_MEMORY -> MemoryUsageSetting.setupMainMemoryOnly();
+            case MIXED -> MemoryUsageSetting.setupMixed(reservation);
+            case TEMP_FILE -> MemoryUsageSetting.setupTempFileOnly();
+        };
+
+        long allocatedBefore = threadAllocatedBytes();
+        long started = System.nanoTime();
+        PDDocument document;
+        try {
+            document = PDDocument.load(file.toFile(), setting);
+        } catch (IOException | RuntimeException e) {
+            release(reservation);
+            throw e;
+        }
+        long elapsed = System.nanoTime() - started;
+        timer("proxy.pdf.load", "mode", mode.name()).record(elapsed, TimeUnit.NANOSECONDS);
+        long allocated = Math.max(0, threadAllocatedBytes() - allocatedBefore);
+        allocatedDuringLoads.addAndGet(allocated);
+        counter(mode).incrementAndGet();
+        logger.debug("Loaded '{}' ({} bytes, {} pages) in {} mode with {} bytes reserved; {} bytes allocated in {} ms.",
+                description, size, document.getNumberOfPages(), mode, reservation, allocated, elapsed / 1_000_000);
+        return new LoadedPdf(document, mode, reservation, allocated);
+    }
+
+    /**
+     * Reads the outline of {@code file}. Unless disabled, only the objects the outline walk dereferences are
+     * parsed, through {@link LazyPdfParser}; files it can't handle are loaded in full instead.
+     */
+    public OutlineSummary readOutline(Path file, String description) throws IOException {
+        if (lazyOutline) {
+            long started = System.nanoTime();
+            try (PDDocument document = LazyPdfParser.open(file)) {
+                OutlineSummary summary = OutlineSummary.read(document);
+                long elapsed = System.nanoTime() - started;
+                timer("proxy.pdf.outline", "parser", "lazy").record(elapsed, TimeUnit.NANOSECONDS);
+                lazyOutlineReads.incrementAndGet();
+                logger.debug("Read outline of '{}' lazily ({} bookmarks) in {} ms.",
+                        description, summary.getBookmarks().size(), elapsed / 1_000_000);
+                return summary;
+            } catch (IOException | RuntimeException e) {
+                lazyOutlineFallbacks.incrementAndGet();
+                logger.debug("Lazy outline read of '{}' failed, loading the whole document instead: {}", description, e.toString());
+            }
+        }
+        try (LoadedPdf loaded = load(file, description)) {
+            // The load itself is timed in proxy.pdf.load; this covers resolving the outline of the loaded document
+            long started = System.nanoTime();
+            OutlineSummary summary = OutlineSummary.read(loaded.getDocument());
+            timer("proxy.pdf.outline", "parser", "full").record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            return summary;
+        }
+    }
+
+    public long getHeapBudget() {
+        return heapBudget;
+    }
+
+    public long getReserved() {
+        return reserved.get();
+    }
+
+    public long getPeakReserved() {
+        return peakReserved.get();
+    }
+
+    public long getLoads(Mode mode) {
+        return counter(mode).get();
+    }
+
+    public long getLazyOutlineReads() {
+        return lazyOutlineReads.get();
+    }
+
+    public long getLazyOutlineFallbacks() {
+        return lazyOutlineFallbacks.get();
+    }
+
+    /**
+     * Total heap allocated by loading threads while parsing documents, where the JVM can measure it.
+     */
+    public long getAllocatedDuringLoads() {
+        return allocatedDuringLoads.get();
+    }
+
+    private boolean tryReserve(long bytes) {
+        while (true) {
+            long current = reserved.get();
+            if (current + bytes > heapBudget) {
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + bytes)) {
+                peakReserved.accumulateAndGet(current + bytes, Math::max);
+                return true;
+            }
+        }
+    }
+
+    private long reserveUpTo(long bytes) {
+        while (true) {
+            long current = reserved.get();
+            long granted = Math.min(bytes, heapBudget - current);
+            if (granted <= 0) {
+                return 0;
+            }
+            if (reserved.compareAndSet(current, current + granted)) {
+                peakReserved.accumulateAndGet(current + granted, Math::max);
+                return granted;
+            }
+        }
+    }
+
+    private void release(long bytes) {
+        if (bytes > 0) {
+            reserved.addAndGet(-bytes);
+        }
+    }
+
+    private Timer timer(String name, String tag, String value) {
+        return Timer.builder(name).tag(tag, value).register(meterRegistry);
+    }
+
+    private AtomicLong counter(Mode mode) {
+        return switch (mode) {
+            case MAIN_MEMORY -> mainMemoryLoads;
+            case MIXED -> mixedLoads;
+            case TEMP_FILE -> tempFileLoads;
+        };
+    }
+
+    private static long threadAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean hotspot && hotspot.isThreadAllocatedMemoryEnabled()) {
+            return hotspot.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * A loaded document together with its share of the heap budget. Closing it closes the document and
+     * returns the reservation.
+     */
+    public class LoadedPdf implements Closeable {
+        private final PDDocument document;
+        private final Mode mode;
+        private final long reservation;
+        private final long allocatedBytes;
+        private boolean closed;
+
+        private LoadedPdf(PDDocument document, Mode mode, long reservation, long allocatedBytes) {
+            this.document = document;
+            this.mode = mode;
+            this.reservation = reservation;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public PDDocument getDocument() {
+            return document;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        public long getReservation() {
+            return reservation;
+        }
+
+        /**
+         * Heap allocated by the loading thread while parsing this document, or 0 if the JVM cannot measure it.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                document.close();
+            } finally {
+                release(reservation);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.kongole.stirlingproxy.pdf;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed thread pool for CPU-heavy, in-process PDF work such as building and saving split chapters.
+ * It is shared by all requests, so the number of busy cores stays bounded however many splits run at once.
+ * <p>
+ * Deliberately not exposed as an {@code Executor} bean: that would make Spring Boot back off from creating
+ * the {@code applicationTaskExecutor} that streams response bodies.
+ */
+@Component
+public class PdfWorkerPool {
+
+    private final ThreadPoolExecutor executor;
+
+    public PdfWorkerPool(@Value("${proxy.pdf.workers:0}") int workers) {
+        int poolSize = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "pdf-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+    }
+
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    public int getPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,250 @@
+package com.kongole.stirlingproxy.pipeline;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kongole.stirlingproxy.dto.PipelineStep;
+import com.kongole.stirlingproxy.pdf.OutlineOperations;
+import com.kongole.stirlingproxy.pdf.OutlineSummary;
+import com.kongole.stirlingproxy.upstream.StirlingUpstreamClient;
+import com.kongole.stirlingproxy.upstream.UpstreamRelay;
+import com.kongole.stirlingproxy.util.SpooledUpload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Runs an ordered list of operations on the uploaded files inside the proxy, so intermediate PDFs never travel
+ * back to the client.
+ * <p>
+ * The first step receives all uploads; every later step receives the previous step's result, spooled to a temp file
+ * (and hashed on the way, for consistent hashing and the outline index) and deleted once the next step has sent it.
+ * The last Stirling step's response is relayed to the client as it streams in. If a step fails on Stirling's side its
+ * response is relayed instead, marked with {@value #FAILED_STEP_HEADER}, and the remaining steps are skipped.
+ * <p>
+ * Steps that {@code PdfInfoController} implements in-process ({@link #LOCAL_OPERATIONS}) run here as well, through
+ * the same {@link OutlineOperations}, without calling Stirling. Both produce something other than a PDF, so they may only come last.
+ */
+@Component
+public class PipelineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineRunner.class);
+
+    public static final String SPLIT_BY_CHAPTERS = "general/split-pdf-by-chapters";
+    public static final String EXTRACT_BOOKMARKS = "pdf-info/extract-bookmarks";
+    public static final Set<String> LOCAL_OPERATIONS = Set.of(SPLIT_BY_CHAPTERS, EXTRACT_BOOKMARKS);
+
+    public static final String STEPS_HEADER = "X-Proxy-Pipeline-Steps";
+    public static final String FAILED_STEP_HEADER = "X-Proxy-Pipeline-Failed-Step";
+
+    private static final List<MediaType> ACCEPT_ALL = Collections.singletonList(MediaType.ALL);
+    // category/action, or deeper routes such as convert/img/pdf; never anything that could leave /api/v1
+    private static final Pattern OPERATION = Pattern.compile("[A-Za-z0-9_-]+(/[A-Za-z0-9_-]+)+");
+
+    private final StirlingUpstreamClient upstreamClient;
+    private final OutlineOperations outlineOperations;
+    private final ObjectMapper objectMapper;
+    private final int maxSteps;
+
+    private final AtomicLong pipelines = new AtomicLong();
+    private final AtomicLong upstreamSteps = new AtomicLong();
+    private final AtomicLong localSteps = new AtomicLong();
+    private final AtomicLong failedSteps = new AtomicLong();
+
+    public PipelineRunner(StirlingUpstreamClient upstreamClient, OutlineOperations outlineOperations, ObjectMapper objectMapper,
+                          @Value("${proxy.pipeline.max-steps:20}") int maxSteps) {
+        this.upstreamClient = upstreamClient;
+        this.outlineOperations = outlineOperations;
+        this.objectMapper = objectMapper;
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * @return Why {@code steps} can't run on {@code inputCount} uploads, or null if they can.
+     */
+    public String validate(List<PipelineStep> steps, int inputCount) {
+        if (steps == null || steps.isEmpty() || steps.size() > maxSteps) {
+            return "A pipeline takes between 1 and " + maxSteps + " steps";
+        }
+        if (inputCount == 0) {
+            return "A pipeline needs at least one input file";
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            String operation = steps.get(i) != null ? steps.get(i).getOperation() : null;
+            if (operation == null || !OPERATION.matcher(operation).matches()) {
+                return "Step " + (i + 1) + " has an invalid operation: " + operation;
+            }
+            if (LOCAL_OPERATIONS.contains(operation)) {
+                if (i < steps.size() - 1) {
+                    return "Step " + (i + 1) + " (" + operation + ") does not produce a PDF and can only be the last step";
+                }
+                if (i == 0 && inputCount > 1) {
+                    return "Step 1 (" + operation + ") takes a single file";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs validated {@code steps} on {@code uploads} and returns the response of the last one. Takes over the
+     * uploads and deletes them, as well as every intermediate result, once they are no longer needed.
+     */
+    public ResponseEntity<StreamingResponseBody> run(List<PipelineStep> steps, List<SpooledUpload> uploads) throws IOException {
+        pipelines.incrementAndGet();
+        List<SpooledUpload> inputs = uploads;
+        try {
+            for (int i = 0; i < steps.size(); i++) {
+                PipelineStep step = steps.get(i);
+                String stepHeader = String.valueOf(i + 1);
+
+                if (LOCAL_OPERATIONS.contains(step.getOperation())) {
+                    SpooledUpload input = inputs.get(0);
+                    inputs = Collections.emptyList(); // The local step owns its input from here on
+                    localSteps.incrementAndGet();
+                    return withHeader(runLocal(step, input), STEPS_HEADER, stepHeader);
+                }
+
+                ClientHttpResponse upstream = call(step, inputs);
+                upstreamSteps.incrementAndGet();
+                if (upstream.getStatusCode().isError()) {
+                    failedSteps.incrementAndGet();
+                    logger.warn("Stirling PDF API returned {} for pipeline step {} ({}); skipping the remaining {} step(s).",
+                            upstream.getStatusCode().value(), i + 1, step.getOperation(), steps.size() - i - 1);
+                    return withHeader(withHeader(UpstreamRelay.relay(upstream), STEPS_HEADER, stepHeader),
+                            FAILED_STEP_HEADER, stepHeader + " " + step.getOperation());
+                }
+                if (i == steps.size() - 1) {
+                    return withHeader(UpstreamRelay.relay(upstream), STEPS_HEADER, stepHeader);
+                }
+
+                SpooledUpload output;
+                try (ClientHttpResponse response = upstream; InputStream in = response.getBody()) {
+                    output = SpooledUpload.spool(in, resultFilename(response.getHeaders(), inputs.get(0)));
+                }
+                logger.debug("Pipeline step {} ({}) produced {} bytes.", i + 1, step.getOperation(), output.getSize());
+                closeQuietly(inputs);
+                inputs = List.of(output);
+            }
+            throw new IllegalArgumentException("A pipeline needs at least one step");
+        } finally {
+            closeQuietly(inputs);
+        }
+    }
+
+    public long pipelines() {
+        return pipelines.get();
+    }
+
+    public long upstreamSteps() {
+        return upstreamSteps.get();
+    }
+
+    public long localSteps() {
+        return localSteps.get();
+    }
+
+    public long failedSteps() {
+        return failedSteps.get();
+    }
+
+    private ClientHttpResponse call(PipelineStep step, List<SpooledUpload> inputs) throws IOException {
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        for (SpooledUpload input : inputs) {
+            form.add(step.getFileField(), input.asResource());
+        }
+        step.getParams().forEach((name, value) -> {
+            if (value instanceof Collection<?> values) {
+                values.forEach(item -> form.add(name, String.valueOf(item)));
+            } else if (value != null) {
+                form.add(name, String.valueOf(value));
+            }
+        });
+        String contentHash = inputs.size() == 1 ? inputs.get(0).getSha256() : null;
+        return upstreamClient.postMultipart(step.getOperation(), form, ACCEPT_ALL, contentHash);
+    }
+
+    /**
+     * Runs one of {@link #LOCAL_OPERATIONS} on {@code input}, which it deletes once done with it.
+     */
+    private ResponseEntity<StreamingResponseBody> runLocal(PipelineStep step, SpooledUpload input) throws IOException {
+        boolean handedOff = false;
+        try {
+            if (EXTRACT_BOOKMARKS.equals(step.getOperation())) {
+                OutlineSummary summary = outlineOperations.outline(input);
+                byte[] json = objectMapper.writeValueAsBytes(summary.hasOutline() ? summary.getBookmarks() : Collections.emptyList());
+                return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(UpstreamRelay.bytes(json));
+            }
+
+            int bookmarkLevel = intParam(step, "bookmarkLevel", 1);
+            if (bookmarkLevel < 1) {
+                return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+                        .body(UpstreamRelay.bytes("bookmarkLevel must be 1 or greater".getBytes()));
+            }
+            Integer requestedParallelism = step.getParams().containsKey("parallelism") ? intParam(step, "parallelism", 0) : null;
+            handedOff = true; // The split deletes the input in every case
+            return outlineOperations.splitByChapters(input, bookmarkLevel, requestedParallelism, baseName(input) + "_chapters.zip");
+        } finally {
+            if (!handedOff) {
+                closeQuietly(List.of(input));
+            }
+        }
+    }
+
+    private static int intParam(PipelineStep step, String name, int defaultValue) {
+        Object value = step.getParams().get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return value instanceof Number number ? number.intValue() : Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer, got " + value);
+        }
+    }
+
+    /**
+     * The name Stirling gave a step's result, or else the name of the step's first input.
+     */
+    private static String resultFilename(HttpHeaders headers, SpooledUpload input) {
+        String filename = headers.getContentDisposition().getFilename();
+        return filename != null ? filename : input.getOriginalFilename();
+    }
+
+    private static String baseName(SpooledUpload input) {
+        String name = input.getOriginalFilename() != null ? input.getOriginalFilename() : "pipeline";
+        return name.toLowerCase().endsWith(".pdf") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    private static ResponseEntity<StreamingResponseBody> withHeader(ResponseEntity<StreamingResponseBody> response, String name, String value) {
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header(name, value)
+                .body(response.getBody());
+    }
+
+    private static void closeQuietly(List<SpooledUpload> uploads) {
+        for (SpooledUpload upload : uploads) {
+            try {
+                upload.close();
+            } catch (IOException e) {
+                logger.warn("Could not delete pipeline file {}: {}", upload.getPath(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.kongole.stirlingproxy.reactive;
+
+import com.kongole.stirlingproxy.config.CorsConfig;
+import com.kongole.stirlingproxy.upstream.ReactiveUpstreamClient;
+import com.kongole.stirlingproxy.upstream.UpstreamOverloadedException;
+import com.kongole.stirlingproxy.upstream.UpstreamRelay;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.reactive.CorsWebFilter;
+import org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.contentType;
+
+/**
+ * Non-blocking variant of the {@code StirlingPdfFullProxyController} routes, served by Reactor Netty on its own
+ * port next to the servlet stack. The multipart body is not parsed: it goes to Stirling as the stream of buffers it
+ * arrived in, with the client's boundary and Content-Length, and the response body comes back the same way. Each
+ * side is only read as fast as the other side takes it, so memory per exchange stays at a few socket buffers and no
+ * thread waits on either connection.
+ * <p>
+ * Routes:
+ * <ul>
+ *   <li>{@code POST /proxy-api/{category}/{action}}</li>
+ *   <li>{@code POST /proxy-api/api/stirling/{category}/{action}/with-params}</li>
+ *   <li>{@code POST /proxy-api/api/stirling/{path}}, for the routes with their own servlet handler
+ *       (convert/url/pdf, misc/extract-images, general/merge-pdfs...)</li>
+ * </ul>
+ * all to {@code /api/v1/{category}/{action}}, with whatever form fields the client sent. The result cache, request
+ * coalescing and in-process operations all need the upload parsed or hashed, so they stay with the servlet stack;
+ * the upstream concurrency limit, backend balancing and upstream metrics apply to both.
+ */
+@Component
+@ConditionalOnProperty(name = "proxy.reactive.enabled", havingValue = "true")
+public class ReactiveProxyServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveProxyServer.class);
+
+    private static final List<MediaType> ACCEPT_ALL = Collections.singletonList(MediaType.ALL);
+    private static final String WITH_PARAMS = "/with-params";
+
+    private final ReactiveUpstreamClient upstreamClient;
+    private final long maxRequestSize;
+    private final DisposableServer server;
+
+    public ReactiveProxyServer(
+            ReactiveUpstreamClient upstreamClient,
+            @Value("${proxy.reactive.port:8081}") int port,
+            @Value("${proxy.reactive.max-request-size:${spring.servlet.multipart.max-request-size:100MB}}") DataSize maxRequestSize) {
+        this.upstreamClient = upstreamClient;
+        this.maxRequestSize = maxRequestSize.toBytes();
+
+        RouterFunction<ServerResponse> routes = RouterFunctions.route()
+                .GET("/proxy-api/", request -> ServerResponse.ok()
+                        .contentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8))
+                        .bodyValue("✅ Stirling PDF Proxy is running! (reactive)"))
+                .POST("/proxy-api/api/stirling/{*path}", contentType(MediaType.MULTIPART_FORM_DATA), request -> {
+                    String path = request.pathVariable("path");
+                    if (path.endsWith(WITH_PARAMS)) {
+                        path = path.substring(0, path.length() - WITH_PARAMS.length());
+                    }
+                    return path.length() > 1 ? forward(request, path.substring(1)) : ServerResponse.notFound().build();
+                })
+                .POST("/proxy-api/{category}/{action}", contentType(MediaType.MULTIPART_FORM_DATA),
+                        request -> forward(request, request.pathVariable("category") + "/" + request.pathVariable("action")))
+                .build();
+
+        CorsConfiguration cors = new CorsConfiguration().applyPermitDefaultValues();
+        cors.addAllowedMethod(CorsConfiguration.ALL);
+        cors.setExposedHeaders(List.of(CorsConfig.EXPOSED_HEADERS));
+        UrlBasedCorsConfigurationSource corsSource = new UrlBasedCorsConfigurationSource();
+        corsSource.registerCorsConfiguration("/**", cors);
+
+        HttpHandler handler = RouterFunctions.toHttpHandler(routes, HandlerStrategies.builder()
+                .webFilter(new CorsWebFilter(corsSource))
+                .build());
+        this.server = HttpServer.create()
+                .port(port)
+                .handle(new ReactorHttpHandlerAdapter(handler))
+                .bindNow();
+        logger.info("Reactive proxy stack listening on port {}.", server.port());
+    }
+
+    /**
+     * The port the reactive stack listens on, which differs from {@code proxy.reactive.port} when that is 0.
+     */
+    public int getPort() {
+        return server.port();
+    }
+
+    /**
+     * Streams the request body to Stirling and the response back. Upstream 4xx/5xx are relayed as-is; a call shed by
+     * the concurrency limit gets 503 with Retry-After, as on the servlet stack. Failures once the response has
+     * started can only abort the connection.
+     */
+    private Mono<ServerResponse> forward(ServerRequest request, String path) {
+        HttpHeaders headers = request.headers().asHttpHeaders();
+        long contentLength = headers.getContentLength();
+        if (contentLength > maxRequestSize) {
+            return text(HttpStatus.PAYLOAD_TOO_LARGE, "Request body exceeds the maximum of " + maxRequestSize + " bytes");
+        }
+        Flux<DataBuffer> body = request.bodyToFlux(DataBuffer.class);
+        if (contentLength < 0) {
+            body = limited(body);
+        }
+        List<MediaType> accept = headers.getAccept().isEmpty() ? ACCEPT_ALL : headers.getAccept();
+
+        return upstreamClient.postMultipart(path, headers.getContentType(), contentLength, accept, body)
+                .flatMap(upstream -> {
+                    if (upstream.getStatusCode().isError()) {
+                        logger.warn("Stirling PDF API returned {} for {} (reactive).", upstream.getStatusCode().value(), path);
+                    }
+                    return ServerResponse.status(upstream.getStatusCode())
+                            .headers(relayed -> relayed.addAll(UpstreamRelay.copyHeaders(upstream.getHeaders())))
+                            .body(BodyInserters.fromDataBuffers(upstream.getBody()));
+                })
+                .onErrorResume(e -> failed(path, e instanceof WebClientRequestException && e.getCause() != null ? e.getCause() : e));
+    }
+
+    private Mono<ServerResponse> failed(String path, Throwable e) {
+        if (e instanceof UpstreamOverloadedException overloaded) {
+            logger.warn("Shedding {} (reactive): {}", path, overloaded.getMessage());
+            return ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(overloaded.getRetryAfter().toSeconds()))
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .bodyValue("Stirling PDF is overloaded, retry later: " + overloaded.getMessage());
+        }
+        if (e instanceof ResponseStatusException status) {
+            return text(status.getStatusCode(), status.getReason());
+        }
+        if (e instanceof IOException) {
+            logger.error("Error reading file(s) or network issue during {} (reactive): {}", path, e.getMessage(), e);
+            return text(HttpStatus.INTERNAL_SERVER_ERROR, "Error reading file(s) or network issue: " + e.getMessage());
+        }
+        logger.error("Unexpected internal server error in {} (reactive): {}", path, e.getMessage(), e);
+        return text(HttpStatus.INTERNAL_SERVER_ERROR, "Internal server error in proxy: " + e.getMessage());
+    }
+
+    /**
+     * A chunked body, failed with 413 once it runs past {@code max-request-size}.
+     */
+    private Flux<DataBuffer> limited(Flux<DataBuffer> body) {
+        AtomicLong received = new AtomicLong();
+        return body.handle((buffer, sink) -> {
+            if (received.addAndGet(buffer.readableByteCount()) > maxRequestSize) {
+                DataBufferUtils.release(buffer);
+                sink.error(new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                        "Request body exceeds the maximum of " + maxRequestSize + " bytes"));
+            } else {
+                sink.next(buffer);
+            }
+        });
+    }
+
+    private static Mono<ServerResponse> text(HttpStatusCode status, String message) {
+        return ServerResponse.status(status).contentType(MediaType.TEXT_PLAIN).bodyValue(message);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        server.disposeNow();
+    }
+}
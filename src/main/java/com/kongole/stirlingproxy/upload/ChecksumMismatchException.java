@@ -0,0 +1,14 @@
+package com.kongole.stirlingproxy.upload;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an upload chunk doesn't match the checksum it was sent with. The chunk has been discarded and the
+ * client should send it again.
+ */
+public class ChecksumMismatchException extends IOException {
+
+    public ChecksumMismatchException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,125 @@
+package com.kongole.stirlingproxy.upload;
+
+import com.kongole.stirlingproxy.util.SpooledUpload;
+
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A file uploaded in chunks. Chunks are appended to {@link #getPath()} in order; the SHA-256 of the whole file is
+ * computed along the way, so a complete upload has its content hash without another read.
+ * <p>
+ * Only one chunk is written at a time: writers take {@link #tryLock()} and a second client sending to the same
+ * upload is turned away rather than queued.
+ */
+public class ResumableUpload {
+
+    private final String id;
+    private final Path path;
+    private final long length;
+    private final String filename;
+    private final String contentType;
+    private final Instant createdAt = Instant.now();
+    private final ReentrantLock lock = new ReentrantLock();
+    private MessageDigest digest = SpooledUpload.sha256Digest();
+    private volatile long offset;
+    private volatile Instant touchedAt = createdAt;
+    private volatile String sha256;
+
+    ResumableUpload(String id, Path path, long length, String filename, String contentType) {
+        this.id = id;
+        this.path = path;
+        this.length = length;
+        this.filename = filename;
+        this.contentType = contentType;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Declared size of the whole file.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Bytes received so far, which is where the next chunk must start.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getTouchedAt() {
+        return touchedAt;
+    }
+
+    public boolean isComplete() {
+        return offset == length;
+    }
+
+    /**
+     * Lower-case hex SHA-256 of the file, or null until the upload is complete.
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    public boolean tryLock() {
+        return lock.tryLock();
+    }
+
+    public void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * A copy of the running digest, for the chunk writer holding the lock to continue. Working on a copy lets a
+     * rejected chunk be dropped without disturbing the hash.
+     */
+    MessageDigest copyDigest() {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("SHA-256 digests can't be copied in this JVM", e);
+        }
+    }
+
+    /**
+     * Records a verified chunk ending at {@code newOffset}, with the digest updated by it.
+     */
+    void advance(long newOffset, MessageDigest updatedDigest) {
+        digest = updatedDigest;
+        offset = newOffset;
+        touchedAt = Instant.now();
+        if (newOffset == length) {
+            sha256 = HexFormat.of().formatHex(digest.digest());
+        }
+    }
+
+    boolean isExpired(Instant now, Duration ttl) {
+        return touchedAt.plus(ttl).isBefore(now);
+    }
+}
@@ -0,0 +1,337 @@
+package com.kongole.stirlingproxy.upload;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps resumable uploads: files sent in chunks, each appended at the offset the previous one ended, so a client
+ * that loses its connection resumes from the last byte received instead of starting over. The chunks are written
+ * straight to a file under {@code dir}, never held in memory, which is why uploads may be far larger than the
+ * multipart limit.
+ * <p>
+ * A chunk may carry a checksum; one that doesn't match is discarded whole. Without a checksum, whatever arrived
+ * before a dropped connection is kept. Uploads untouched for {@code ttl} are deleted, complete or not, and at most
+ * {@code max-uploads} are kept at a time.
+ * <p>
+ * Uploads live in memory; upload files left in the directory by an earlier run are deleted on startup. Nothing
+ * else in the directory is touched, so it may be shared.
+ */
+@Component
+public class ResumableUploadManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResumableUploadManager.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Checksum algorithms a chunk may be verified with, by their tus names. */
+    private static final Map<String, String> CHECKSUM_ALGORITHMS = Map.of("sha256", "SHA-256", "sha1", "SHA-1", "md5", "MD5");
+    /** Names of the files this class creates, {@code <id>.bin}. */
+    private static final Pattern UPLOAD_FILE = Pattern.compile("[0-9a-f]{32}\\.bin");
+
+    private final Path directory;
+    private final long maxSize;
+    private final int maxUploads;
+    private final Duration ttl;
+    private final ScheduledExecutorService cleaner;
+    private final Map<String, ResumableUpload> uploads = new ConcurrentHashMap<>();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong checksumMismatches = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    public ResumableUploadManager(
+            @Value("${proxy.uploads.dir:${java.io.tmpdir}/stirling-proxy-uploads}") Path directory,
+            @Value("${proxy.uploads.max-size:4GB}") DataSize maxSize,
+            @Value("${proxy.uploads.max-uploads:1000}") int maxUploads,
+            @Value("${proxy.uploads.ttl:24h}") Duration ttl,
+            @Value("${proxy.uploads.cleanup-interval:5m}") Duration cleanupInterval) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize.toBytes();
+        this.maxUploads = maxUploads;
+        this.ttl = ttl;
+
+        Files.createDirectories(directory);
+        deleteLeftovers();
+
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stirling-upload-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long cleanupMillis = cleanupInterval.toMillis();
+        cleaner.scheduleWithFixedDelay(this::removeExpired, cleanupMillis, cleanupMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts an upload of {@code length} bytes.
+     *
+     * @throws IllegalArgumentException  If {@code length} is negative or above {@code max-size}.
+     * @throws RejectedExecutionException If {@code max-uploads} uploads are already kept.
+     */
+    public ResumableUpload create(long length, String filename, String contentType) throws IOException {
+        if (length < 0) {
+            throw new IllegalArgumentException("Upload length must not be negative");
+        }
+        if (length > maxSize) {
+            throw new IllegalArgumentException("Upload length " + length + " exceeds the maximum of " + maxSize + " bytes");
+        }
+        String id = UUID.randomUUID().toString().replace("-", "");
+        ResumableUpload upload = new ResumableUpload(id, directory.resolve(id + ".bin"), length, filename,
+                contentType != null && !contentType.isBlank() ? contentType : MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        synchronized (uploads) {
+            if (uploads.size() >= maxUploads) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException("There are already " + uploads.size() + " uploads; try again once some have expired");
+            }
+            uploads.put(id, upload);
+        }
+        try {
+            Files.createFile(upload.getPath());
+        } catch (IOException e) {
+            uploads.remove(id);
+            throw e;
+        }
+        created.incrementAndGet();
+        if (length == 0) {
+            upload.advance(0, upload.copyDigest());
+            completed.incrementAndGet();
+        }
+        logger.debug("Started upload {} of {} bytes ('{}').", id, length, filename);
+        return upload;
+    }
+
+    /**
+     * @return The upload, or null if there is no such upload or it has expired.
+     */
+    public ResumableUpload get(String id) {
+        return uploads.get(id);
+    }
+
+    /**
+     * @return The upload if it exists and has been received in full, otherwise null.
+     */
+    public ResumableUpload getComplete(String id) {
+        ResumableUpload upload = uploads.get(id);
+        return upload != null && upload.isComplete() ? upload : null;
+    }
+
+    /**
+     * Appends the chunk read from {@code in} at the upload's current offset. The caller must hold the upload's
+     * lock and have checked that the client's offset matches.
+     *
+     * @param checksum The chunk's {@code Upload-Checksum}, {@code <algorithm> <base64 digest>}, or null.
+     * @return The offset after the chunk.
+     * @throws IllegalArgumentException  If the checksum header is malformed or names an unsupported algorithm, or
+     *                                   the chunk runs past the upload's length. Nothing of the chunk is kept.
+     * @throws ChecksumMismatchException If the chunk doesn't match its checksum. Nothing of the chunk is kept.
+     * @throws IOException               If reading the chunk failed. Without a checksum, the bytes received up to
+     *                                   then are kept and the upload resumes after them.
+     */
+    public long append(ResumableUpload upload, InputStream in, String checksum) throws IOException {
+        MessageDigest chunkDigest = null;
+        byte[] expected = null;
+        if (checksum != null) {
+            String[] parts = checksum.trim().split("\\s+");
+            String algorithm = parts.length == 2 ? CHECKSUM_ALGORITHMS.get(parts[0].toLowerCase()) : null;
+            if (algorithm == null) {
+                throw new IllegalArgumentException("Upload-Checksum must be '<algorithm> <base64 digest>' with one of "
+                        + CHECKSUM_ALGORITHMS.keySet());
+            }
+            chunkDigest = messageDigest(algorithm);
+            expected = Base64.getDecoder().decode(parts[1]);
+        }
+
+        long start = upload.getOffset();
+        long remaining = upload.getLength() - start;
+        MessageDigest fileDigest = upload.copyDigest();
+        long written = 0;
+        try (FileChannel channel = FileChannel.open(upload.getPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(start);
+            channel.position(start);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (read > remaining - written) {
+                        throw new IllegalArgumentException("Chunk runs past the upload length of " + upload.getLength() + " bytes");
+                    }
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                    while (chunk.hasRemaining()) {
+                        channel.write(chunk);
+                    }
+                    fileDigest.update(buffer, 0, read);
+                    if (chunkDigest != null) {
+                        chunkDigest.update(buffer, 0, read);
+                    }
+                    written += read;
+                }
+            } catch (IOException e) {
+                if (chunkDigest != null || written == 0) {
+                    channel.truncate(start);
+                    throw e;
+                }
+                // Keep what arrived so the client can resume after it
+                channel.force(false);
+                record(upload, start + written, fileDigest, written);
+                logger.debug("Upload {} interrupted at {} of {} bytes: {}", upload.getId(), start + written,
+                        upload.getLength(), e.getMessage());
+                throw e;
+            } catch (RuntimeException e) {
+                channel.truncate(start);
+                throw e;
+            }
+
+            if (chunkDigest != null && !MessageDigest.isEqual(chunkDigest.digest(), expected)) {
+                channel.truncate(start);
+                checksumMismatches.incrementAndGet();
+                throw new ChecksumMismatchException("Chunk at offset " + start + " doesn't match its " + checksum.trim().split("\\s+")[0] + " checksum");
+            }
+        }
+        record(upload, start + written, fileDigest, written);
+        return start + written;
+    }
+
+    /**
+     * Deletes the upload and its file.
+     *
+     * @return False if there is no such upload.
+     */
+    public boolean delete(String id) {
+        ResumableUpload upload = uploads.remove(id);
+        if (upload == null) {
+            return false;
+        }
+        deleteFile(upload);
+        return true;
+    }
+
+    /**
+     * A complete upload as a multipart file named {@code field}, for controllers that take their input that way.
+     */
+    public UploadedFile asMultipartFile(ResumableUpload upload, String field) {
+        return new UploadedFile(upload, field);
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    public Collection<ResumableUpload> getUploads() {
+        return Collections.unmodifiableCollection(uploads.values());
+    }
+
+    public List<String> getChecksumAlgorithms() {
+        return List.copyOf(CHECKSUM_ALGORITHMS.keySet());
+    }
+
+    public long created() {
+        return created.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    public long completed() {
+        return completed.get();
+    }
+
+    public long checksumMismatches() {
+        return checksumMismatches.get();
+    }
+
+    public long expired() {
+        return expired.get();
+    }
+
+    public long bytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private void record(ResumableUpload upload, long newOffset, MessageDigest fileDigest, long written) {
+        upload.advance(newOffset, fileDigest);
+        bytesReceived.addAndGet(written);
+        if (upload.isComplete()) {
+            completed.incrementAndGet();
+            logger.debug("Upload {} complete, {} bytes, SHA-256 {}.", upload.getId(), upload.getLength(), upload.getSha256());
+        }
+    }
+
+    private void removeExpired() {
+        Instant now = Instant.now();
+        for (ResumableUpload upload : uploads.values()) {
+            if (upload.isExpired(now, ttl) && uploads.remove(upload.getId(), upload)) {
+                expired.incrementAndGet();
+                deleteFile(upload);
+            }
+        }
+    }
+
+    private void deleteLeftovers() throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path file : entries) {
+                if (UPLOAD_FILE.matcher(file.getFileName().toString()).matches()) {
+                    Files.deleteIfExists(file); // Left over from an earlier run, whose uploads are gone
+                }
+            }
+        }
+    }
+
+    private void deleteFile(ResumableUpload upload) {
+        try {
+            Files.deleteIfExists(upload.getPath());
+        } catch (IOException e) {
+            logger.warn("Could not delete upload {}: {}", upload.getPath(), e.getMessage());
+        }
+    }
+
+    private static MessageDigest messageDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " is not available in this JVM", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cleaner.shutdownNow();
+    }
+}
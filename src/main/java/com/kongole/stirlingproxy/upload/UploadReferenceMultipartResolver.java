@@ -0,0 +1,68 @@
+package com.kongole.stirlingproxy.upload;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.multipart.MultipartException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The servlet container's multipart handling, plus references to resumable uploads: a form field whose value is
+ * {@code upload:<id>} stands for the complete upload with that id, as if the file had been sent in that field.
+ * Every multipart route accepts such references, e.g. {@code fileInput=upload:<id>} on a single-file operation or
+ * several {@code files=upload:<id>} for a merge, mixed with regular file parts if need be.
+ */
+@Component("multipartResolver")
+public class UploadReferenceMultipartResolver implements MultipartResolver {
+
+    static final Pattern REFERENCE = Pattern.compile("upload:([0-9a-f]{32})");
+
+    private final StandardServletMultipartResolver delegate = new StandardServletMultipartResolver();
+    private final ResumableUploadManager uploadManager;
+
+    public UploadReferenceMultipartResolver(ResumableUploadManager uploadManager) {
+        this.uploadManager = uploadManager;
+    }
+
+    @Override
+    public boolean isMultipart(HttpServletRequest request) {
+        return delegate.isMultipart(request);
+    }
+
+    @Override
+    public MultipartHttpServletRequest resolveMultipart(HttpServletRequest request) throws MultipartException {
+        MultipartHttpServletRequest multipart = delegate.resolveMultipart(request);
+        MultiValueMap<String, MultipartFile> references = new LinkedMultiValueMap<>();
+        for (Map.Entry<String, String[]> parameter : multipart.getParameterMap().entrySet()) {
+            for (String value : parameter.getValue()) {
+                Matcher matcher = REFERENCE.matcher(value.trim());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                ResumableUpload upload = uploadManager.getComplete(matcher.group(1));
+                if (upload == null) {
+                    delegate.cleanupMultipart(multipart);
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Field '" + parameter.getKey()
+                            + "' refers to upload " + matcher.group(1) + ", which doesn't exist or isn't complete");
+                }
+                references.add(parameter.getKey(), uploadManager.asMultipartFile(upload, parameter.getKey()));
+            }
+        }
+        return references.isEmpty() ? multipart : new UploadReferenceRequest(multipart, references);
+    }
+
+    @Override
+    public void cleanupMultipart(MultipartHttpServletRequest request) {
+        delegate.cleanupMultipart(request instanceof UploadReferenceRequest referenceRequest ? referenceRequest.getDelegate() : request);
+    }
+}
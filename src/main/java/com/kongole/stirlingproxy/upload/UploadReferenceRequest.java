@@ -0,0 +1,79 @@
+package com.kongole.stirlingproxy.upload;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.multipart.support.AbstractMultipartHttpServletRequest;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A multipart request whose upload references have been swapped for the uploads they name: the referencing fields
+ * are files here and no longer show up as request parameters.
+ */
+class UploadReferenceRequest extends AbstractMultipartHttpServletRequest {
+
+    private final MultipartHttpServletRequest delegate;
+    private final MultiValueMap<String, MultipartFile> references;
+
+    UploadReferenceRequest(MultipartHttpServletRequest delegate, MultiValueMap<String, MultipartFile> references) {
+        super(delegate);
+        this.delegate = delegate;
+        this.references = references;
+        MultiValueMap<String, MultipartFile> files = new LinkedMultiValueMap<>(delegate.getMultiFileMap());
+        references.forEach((name, uploads) -> uploads.forEach(upload -> files.add(name, upload)));
+        setMultipartFiles(files);
+    }
+
+    MultipartHttpServletRequest getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String getMultipartContentType(String paramOrFileName) {
+        List<MultipartFile> uploads = references.get(paramOrFileName);
+        if (uploads != null) {
+            return uploads.get(0).getContentType();
+        }
+        return delegate.getMultipartContentType(paramOrFileName);
+    }
+
+    @Override
+    public HttpHeaders getMultipartHeaders(String paramOrFileName) {
+        List<MultipartFile> uploads = references.get(paramOrFileName);
+        if (uploads != null) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.CONTENT_TYPE, uploads.get(0).getContentType());
+            return headers;
+        }
+        return delegate.getMultipartHeaders(paramOrFileName);
+    }
+
+    @Override
+    public String getParameter(String name) {
+        return references.containsKey(name) ? null : super.getParameter(name);
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return references.containsKey(name) ? null : super.getParameterValues(name);
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(getParameterMap().keySet());
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        Map<String, String[]> parameters = new LinkedHashMap<>(super.getParameterMap());
+        parameters.keySet().removeAll(references.keySet());
+        return Collections.unmodifiableMap(parameters);
+    }
+}
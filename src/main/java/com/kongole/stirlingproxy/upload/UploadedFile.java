@@ -0,0 +1,78 @@
+package com.kongole.stirlingproxy.upload;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A complete {@link ResumableUpload} seen as a multipart file, so every route taking a {@link MultipartFile} can use
+ * it. The upload stays in place and can be used again until it is deleted or expires.
+ */
+public class UploadedFile implements MultipartFile {
+
+    private final ResumableUpload upload;
+    private final String name;
+
+    UploadedFile(ResumableUpload upload, String name) {
+        this.upload = upload;
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return upload.getFilename();
+    }
+
+    @Override
+    public String getContentType() {
+        return upload.getContentType();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return upload.getLength() == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return upload.getLength();
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        return Files.readAllBytes(upload.getPath());
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Files.newInputStream(upload.getPath());
+    }
+
+    /**
+     * Hard-links the upload to {@code dest} where the file system allows, which spools it in constant time however
+     * large it is, and copies it otherwise. Either way the upload itself is left for later use.
+     */
+    @Override
+    public void transferTo(File dest) throws IOException {
+        transferTo(dest.toPath());
+    }
+
+    @Override
+    public void transferTo(Path dest) throws IOException {
+        Files.deleteIfExists(dest);
+        try {
+            Files.createLink(dest, upload.getPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(upload.getPath(), dest);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.kongole.stirlingproxy.upstream;
+
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.Future;
+
+/**
+ * A request sent over the async HttpClient5 transport. The body is written on the calling thread into a
+ * {@link RequestBodyProducer} while the I/O reactor sends it, and {@link #execute()} returns once the response
+ * head has arrived, with the body still streaming in.
+ */
+final class AsyncUpstreamRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+    private final CloseableHttpAsyncClient client;
+    private final HttpMethod method;
+    private final URI uri;
+    private final int bufferSize;
+    private final HttpHeaders headers = new HttpHeaders();
+    private Body body;
+    private ByteArrayOutputStream bufferedBody;
+    private boolean executed;
+
+    AsyncUpstreamRequest(CloseableHttpAsyncClient client, HttpMethod method, URI uri, int bufferSize) {
+        this.client = client;
+        this.method = method;
+        this.uri = uri;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    @Override
+    public URI getURI() {
+        return uri;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public void setBody(Body body) {
+        this.body = body;
+    }
+
+    /**
+     * Buffers the body in memory; callers relaying uploads use {@link #setBody(Body)} instead.
+     */
+    @Override
+    public OutputStream getBody() {
+        if (bufferedBody == null) {
+            bufferedBody = new ByteArrayOutputStream();
+        }
+        return bufferedBody;
+    }
+
+    @Override
+    public ClientHttpResponse execute() throws IOException {
+        Assert.state(!executed, "Request has already been executed");
+        executed = true;
+        if (body == null && bufferedBody != null) {
+            if (headers.getContentLength() < 0) {
+                headers.setContentLength(bufferedBody.size());
+            }
+            body = bufferedBody::writeTo;
+        }
+
+        BasicHttpRequest request = new BasicHttpRequest(method.name(), uri);
+        headers.forEach((name, values) -> {
+            // The entity supplies these, and HttpClient rejects requests that set them twice
+            if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) && !HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)
+                    && !HttpHeaders.TRANSFER_ENCODING.equalsIgnoreCase(name)) {
+                values.forEach(value -> request.addHeader(name, value));
+            }
+        });
+        RequestBodyProducer entity = body == null ? null
+                : new RequestBodyProducer(headers.getContentLength(), headers.getFirst(HttpHeaders.CONTENT_TYPE), bufferSize);
+        ResponseBodyConsumer consumer = new ResponseBodyConsumer(bufferSize);
+
+        Future<Void> exchange = client.execute(new BasicRequestProducer(request, entity), consumer, new FutureCallback<>() {
+            @Override
+            public void completed(Void result) {
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                consumer.failed(ex);
+                if (entity != null) {
+                    entity.failed(ex);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                IOException cancelled = new IOException("Upstream exchange was cancelled");
+                consumer.failed(cancelled);
+                if (entity != null) {
+                    entity.failed(cancelled);
+                }
+            }
+        });
+        consumer.setExchange(exchange);
+
+        if (entity != null) {
+            OutputStream out = entity.outputStream();
+            try {
+                body.writeTo(out);
+                // Closing ends the request body, so only do it once all of it was written
+                out.close();
+            } catch (IOException | RuntimeException e) {
+                if (!consumer.hasResponded()) {
+                    exchange.cancel(true);
+                    throw e;
+                }
+                // Stirling answered before taking the whole upload (e.g. an early 4xx); relay that answer
+            }
+        }
+        return new AsyncUpstreamResponse(consumer.awaitHead(), consumer);
+    }
+}
@@ -0,0 +1,29 @@
+package com.kongole.stirlingproxy.upstream;
+
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+
+import java.net.URI;
+
+/**
+ * Creates requests on HttpClient5's non-blocking transport. Socket I/O runs on a few reactor threads instead of one
+ * blocked thread per exchange, and with HTTP/2 many exchanges share one connection as separate streams.
+ * Request and response bodies stream through buffers of {@code bufferSize} bytes each, with flow control on both.
+ */
+public class AsyncUpstreamRequestFactory implements ClientHttpRequestFactory {
+
+    private final CloseableHttpAsyncClient client;
+    private final int bufferSize;
+
+    public AsyncUpstreamRequestFactory(CloseableHttpAsyncClient client, int bufferSize) {
+        this.client = client;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new AsyncUpstreamRequest(client, httpMethod, uri, bufferSize);
+    }
+}
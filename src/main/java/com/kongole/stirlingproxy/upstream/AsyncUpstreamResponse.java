@@ -0,0 +1,84 @@
+package com.kongole.stirlingproxy.upstream;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Upstream response received over the async transport; the body streams out of a {@link ResponseBodyConsumer}.
+ */
+final class AsyncUpstreamResponse implements ClientHttpResponse {
+
+    private final HttpResponse response;
+    private final ResponseBodyConsumer consumer;
+    private HttpHeaders headers;
+    private InputStream body;
+
+    AsyncUpstreamResponse(HttpResponse response, ResponseBodyConsumer consumer) {
+        this.response = response;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public HttpStatusCode getStatusCode() {
+        return HttpStatusCode.valueOf(response.getCode());
+    }
+
+    @Override
+    @Deprecated
+    @SuppressWarnings("removal")
+    public int getRawStatusCode() {
+        return response.getCode();
+    }
+
+    @Override
+    public String getStatusText() {
+        // HTTP/2 has no reason phrase
+        return response.getReasonPhrase() != null ? response.getReasonPhrase() : "";
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        if (headers == null) {
+            headers = new HttpHeaders();
+            for (Header header : response.getHeaders()) {
+                headers.add(header.getName(), header.getValue());
+            }
+        }
+        return headers;
+    }
+
+    @Override
+    public InputStream getBody() {
+        if (body == null) {
+            body = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] single = new byte[1];
+                    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return consumer.read(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    consumer.close();
+                }
+            };
+        }
+        return body;
+    }
+
+    @Override
+    public void close() {
+        consumer.close();
+    }
+}
@@ -0,0 +1,107 @@
+package com.kongole.stirlingproxy.upstream;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Active health checks of the {@link UpstreamBackends}: every {@code interval}, a GET of {@code path} on each
+ * backend through the pooled upstream client. A backend is marked unhealthy after {@code unhealthy-threshold}
+ * failed checks in a row (no 2xx within {@code timeout}) and healthy again after {@code healthy-threshold} passes.
+ */
+@Component
+public class BackendHealthChecker {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackendHealthChecker.class);
+
+    private final CloseableHttpClient httpClient;
+    private final String path;
+    private final RequestConfig requestConfig;
+    private final int healthyThreshold;
+    private final int unhealthyThreshold;
+    private final ScheduledExecutorService scheduler;
+
+    public BackendHealthChecker(
+            UpstreamBackends backends,
+            CloseableHttpClient upstreamHttpClient,
+            @Value("${proxy.upstream.health.enabled:true}") boolean enabled,
+            @Value("${proxy.upstream.health.path:/api/v1/info/status}") String path,
+            @Value("${proxy.upstream.health.interval:10s}") Duration interval,
+            @Value("${proxy.upstream.health.timeout:2s}") Duration timeout,
+            @Value("${proxy.upstream.health.healthy-threshold:2}") int healthyThreshold,
+            @Value("${proxy.upstream.health.unhealthy-threshold:2}") int unhealthyThreshold) {
+        this.httpClient = upstreamHttpClient;
+        this.path = path.startsWith("/") ? path : "/" + path;
+        this.requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.of(timeout))
+                .setResponseTimeout(Timeout.of(timeout))
+                .build();
+        this.healthyThreshold = Math.max(1, healthyThreshold);
+        this.unhealthyThreshold = Math.max(1, unhealthyThreshold);
+
+        if (!enabled) {
+            this.scheduler = null;
+            return;
+        }
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(Math.min(backends.getBackends().size(), 4), runnable -> {
+            Thread thread = new Thread(runnable, "upstream-health-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = interval.toMillis();
+        for (UpstreamBackend backend : backends.getBackends()) {
+            // Spread the first checks so the backends aren't all probed in the same instant
+            long initialDelay = ThreadLocalRandom.current().nextLong(Math.max(1, intervalMillis));
+            scheduler.scheduleWithFixedDelay(() -> check(backend), initialDelay, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void check(UpstreamBackend backend) {
+        HttpGet request = new HttpGet(backend.getBaseUrl() + path);
+        request.setConfig(requestConfig);
+        boolean passed;
+        String outcome;
+        try {
+            int status = httpClient.execute(request, response -> {
+                EntityUtils.consume(response.getEntity());
+                return response.getCode();
+            });
+            passed = status >= 200 && status < 300;
+            outcome = String.valueOf(status);
+        } catch (Exception e) {
+            passed = false;
+            outcome = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+
+        if (backend.healthChecked(passed, outcome, healthyThreshold, unhealthyThreshold)) {
+            if (passed) {
+                logger.info("Stirling backend {} is healthy again.", backend.getBaseUrl());
+            } else {
+                logger.warn("Stirling backend {} failed {} health checks in a row ({}), taking it out of rotation.",
+                        backend.getBaseUrl(), unhealthyThreshold, outcome);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.kongole.stirlingproxy.upstream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit on concurrent calls to Stirling, so that a slow upstream (an OCR spike, say) makes the proxy shed
+ * load quickly instead of parking every servlet thread on a connection until they all time out together.
+ * <p>
+ * The limit follows a gradient algorithm: a slow moving average of call latency stands for the upstream's unloaded
+ * latency, and each sample compares it to the current latency. While calls are as fast as usual the limit grows by
+ * about its square root; when latency rises above {@code tolerance} times the baseline the limit shrinks in
+ * proportion, and failed calls cut it by a tenth. Latency is sampled from sending the request until the response
+ * headers arrive, so a slow client downloading the result doesn't count against Stirling.
+ * <p>
+ * Calls beyond the limit wait in a bounded queue for up to {@code queue-timeout}. When the queue is full, or the
+ * wait runs out, the call is rejected with an {@link UpstreamOverloadedException}.
+ */
+@Component
+public class ConcurrencyLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    private static final double SMOOTHING = 0.2;
+    private static final int BASELINE_WINDOW = 600; // Samples in the slow moving average
+    private static final double DROP_DECREASE = 0.9;
+    private static final long MIN_RETRY_AFTER_SECONDS = 1;
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final int maxQueue;
+    private final long queueTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+    private double limit; // Guarded by lock
+    private double baselineRttNanos; // Guarded by lock; 0 until the first sample
+    private double recentRttNanos; // Guarded by lock
+    private int inFlight; // Guarded by lock
+    private int queued; // Guarded by lock
+
+    private final AtomicLong shedQueueFull = new AtomicLong();
+    private final AtomicLong shedTimeout = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public ConcurrencyLimiter(
+            @Value("${proxy.upstream.limiter.enabled:true}") boolean enabled,
+            @Value("${proxy.upstream.limiter.initial-limit:20}") int initialLimit,
+            @Value("${proxy.upstream.limiter.min-limit:4}") int minLimit,
+            @Value("${proxy.upstream.limiter.max-limit:50}") int maxLimit,
+            @Value("${proxy.upstream.limiter.tolerance:1.5}") double tolerance,
+            @Value("${proxy.upstream.limiter.max-queue:50}") int maxQueue,
+            @Value("${proxy.upstream.limiter.queue-timeout:2s}") Duration queueTimeout) {
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.maxQueue = maxQueue;
+        this.queueTimeoutNanos = queueTimeout.toNanos();
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Waits for a permit to call Stirling. The caller must hand the result back through exactly one of
+     * {@link Permit#success()} or {@link Permit#dropped()}.
+     *
+     * @throws UpstreamOverloadedException If the queue is full or no permit became free within the queue timeout.
+     */
+    public Permit acquire() {
+        if (!enabled) {
+            return new Permit(false);
+        }
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return new Permit(true);
+            }
+            if (queued >= maxQueue) {
+                shedQueueFull.incrementAndGet();
+                throw overloaded("Upstream concurrency limit of " + (int) limit + " reached and " + queued + " requests already queued");
+            }
+
+            queued++;
+            try {
+                long remaining = queueTimeoutNanos;
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        shedTimeout.incrementAndGet();
+                        throw overloaded("No upstream permit became free within " + Duration.ofNanos(queueTimeoutNanos));
+                    }
+                    remaining = permitAvailable.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw overloaded("Interrupted while waiting for an upstream permit");
+            } finally {
+                queued--;
+            }
+            inFlight++;
+            return new Permit(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * As {@link #acquire()} when a permit is free right away, but returns null instead of queueing, so callers on
+     * an event loop can wait for one elsewhere.
+     */
+    public Permit tryAcquire() {
+        if (!enabled) {
+            return new Permit(false);
+        }
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return new Permit(true);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Slow moving average of call latency, the limiter's estimate of the unloaded upstream latency.
+     */
+    public Duration getBaselineLatency() {
+        lock.lock();
+        try {
+            return Duration.ofNanos((long) baselineRttNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long shedQueueFull() {
+        return shedQueueFull.get();
+    }
+
+    public long shedTimeout() {
+        return shedTimeout.get();
+    }
+
+    /**
+     * Calls that failed without an upstream response and lowered the limit.
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    private void onSample(long rttNanos, int inFlightAtStart) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (baselineRttNanos == 0) {
+                baselineRttNanos = rttNanos;
+                recentRttNanos = rttNanos;
+            } else {
+                baselineRttNanos += (rttNanos - baselineRttNanos) * 2.0 / (BASELINE_WINDOW + 1);
+                recentRttNanos += (rttNanos - recentRttNanos) * 0.5;
+            }
+            // Let the baseline follow a lasting improvement instead of holding the limit down with an old, slower one
+            if (baselineRttNanos > 2 * recentRttNanos) {
+                baselineRttNanos *= 0.95;
+            }
+
+            double previous = limit;
+            // Leave the limit alone while it isn't being used; such samples say nothing about what the upstream can take
+            if (inFlightAtStart >= limit / 2) {
+                double gradient = Math.max(0.5, Math.min(1.0, tolerance * baselineRttNanos / recentRttNanos));
+                double target = limit * gradient + Math.sqrt(limit);
+                limit = clamp(limit * (1 - SMOOTHING) + target * SMOOTHING);
+            }
+            signalIfGrown(previous);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onDropped() {
+        dropped.incrementAndGet();
+        lock.lock();
+        try {
+            inFlight--;
+            double previous = limit;
+            limit = clamp(limit * DROP_DECREASE);
+            if ((int) previous != (int) limit) {
+                logger.debug("Upstream call failed, concurrency limit lowered to {}.", (int) limit);
+            }
+            permitAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalIfGrown(double previous) {
+        if ((int) limit > (int) previous) {
+            permitAvailable.signalAll();
+        } else {
+            permitAvailable.signal();
+        }
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+
+    private UpstreamOverloadedException overloaded(String message) {
+        long seconds = (long) Math.ceil(baselineRttNanos / 1e9);
+        Duration retryAfter = Duration.ofSeconds(Math.max(MIN_RETRY_AFTER_SECONDS, Math.min(MAX_RETRY_AFTER_SECONDS, seconds)));
+        return new UpstreamOverloadedException(message, retryAfter);
+    }
+
+    /**
+     * Permission for one upstream call. {@link #success()} records its latency from acquisition on.
+     */
+    public final class Permit {
+        private final boolean limited;
+        private final long startNanos = System.nanoTime();
+        private final int inFlightAtStart;
+        private boolean released;
+
+        private Permit(boolean limited) {
+            this.limited = limited;
+            this.inFlightAtStart = limited ? inFlight : 0;
+        }
+
+        /**
+         * The upstream answered (with any status).
+         */
+        public void success() {
+            if (limited && !released) {
+                released = true;
+                onSample(System.nanoTime() - startNanos, inFlightAtStart);
+            }
+        }
+
+        /**
+         * The call failed without a response: connection error, timeout.
+         */
+        public void dropped() {
+            if (limited && !released) {
+                released = true;
+                onDropped();
+            }
+        }
+    }
+}
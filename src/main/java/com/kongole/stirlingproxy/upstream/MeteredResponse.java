@@ -0,0 +1,108 @@
+package com.kongole.stirlingproxy.upstream;
+
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Upstream response that counts the body bytes read from it and, when closed, completes the exchange's metrics
+ * and releases its backend.
+ */
+final class MeteredResponse implements ClientHttpResponse {
+
+    private final ClientHttpResponse delegate;
+    private final StirlingUpstreamClient client;
+    private final String path;
+    private final Timer.Sample sample;
+    private final AtomicInteger routeInFlight;
+    private final UpstreamBackends.Lease lease;
+    private long bytesRead;
+    private InputStream body;
+    private boolean closed;
+
+    MeteredResponse(ClientHttpResponse delegate, StirlingUpstreamClient client, String path, Timer.Sample sample,
+                    AtomicInteger routeInFlight, UpstreamBackends.Lease lease) {
+        this.delegate = delegate;
+        this.client = client;
+        this.path = path;
+        this.sample = sample;
+        this.routeInFlight = routeInFlight;
+        this.lease = lease;
+    }
+
+    @Override
+    public HttpStatusCode getStatusCode() throws IOException {
+        return delegate.getStatusCode();
+    }
+
+    @Override
+    @Deprecated
+    @SuppressWarnings("removal")
+    public int getRawStatusCode() throws IOException {
+        return delegate.getStatusCode().value();
+    }
+
+    @Override
+    public String getStatusText() throws IOException {
+        return delegate.getStatusText();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return delegate.getHeaders();
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+        if (body == null) {
+            body = new FilterInputStream(delegate.getBody()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        bytesRead++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read > 0) {
+                        bytesRead += read;
+                    }
+                    return read;
+                }
+            };
+        }
+        return body;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        String status;
+        try {
+            status = String.valueOf(delegate.getStatusCode().value());
+        } catch (IOException e) {
+            status = StirlingUpstreamClient.IO_ERROR_STATUS;
+        }
+        try {
+            delegate.close();
+        } finally {
+            routeInFlight.decrementAndGet();
+            lease.release();
+            client.bytesCounter("proxy.upstream.response.bytes", path).increment(bytesRead);
+            sample.stop(client.requestTimer(path, status));
+        }
+    }
+}
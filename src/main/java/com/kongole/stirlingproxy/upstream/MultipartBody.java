@@ -0,0 +1,154 @@
+package com.kongole.stirlingproxy.upstream;
+
+import com.kongole.stirlingproxy.util.SpooledUploadResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.MultiValueMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@code multipart/form-data} body whose total length is known before it is written, so it can be
+ * sent with a Content-Length instead of chunked encoding.
+ * <p>
+ * Parts are either strings or resources with a known length. Spooled uploads are written with
+ * {@link SpooledUploadResource#transferTo(OutputStream)}; other resources are copied from their stream.
+ */
+public final class MultipartBody {
+
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DASHES = "--".getBytes(StandardCharsets.US_ASCII);
+    private static final MediaType TEXT_PART_TYPE = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final byte[] boundary;
+    private final List<Part> parts;
+    private final long contentLength;
+
+    private MultipartBody(byte[] boundary, List<Part> parts) throws IOException {
+        this.boundary = boundary;
+        this.parts = parts;
+
+        long length = 0;
+        for (Part part : parts) {
+            length += DASHES.length + boundary.length + CRLF.length + part.headers.length + part.length() + CRLF.length;
+        }
+        this.contentLength = length + DASHES.length + boundary.length + DASHES.length + CRLF.length;
+    }
+
+    /**
+     * @param form Field name to values; each value is a {@link String} or a {@link Resource} with a known length.
+     */
+    public static MultipartBody of(MultiValueMap<String, Object> form) throws IOException {
+        List<Part> parts = new ArrayList<>();
+        for (Map.Entry<String, List<Object>> field : form.entrySet()) {
+            for (Object value : field.getValue()) {
+                parts.add(Part.of(field.getKey(), value));
+            }
+        }
+        return new MultipartBody(MimeTypeUtils.generateMultipartBoundary(), Collections.unmodifiableList(parts));
+    }
+
+    public MediaType getContentType() {
+        return new MediaType(MediaType.MULTIPART_FORM_DATA,
+                Collections.singletonMap("boundary", new String(boundary, StandardCharsets.US_ASCII)));
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        for (Part part : parts) {
+            out.write(DASHES);
+            out.write(boundary);
+            out.write(CRLF);
+            out.write(part.headers);
+            part.writeContent(out);
+            out.write(CRLF);
+        }
+        out.write(DASHES);
+        out.write(boundary);
+        out.write(DASHES);
+        out.write(CRLF);
+        out.flush();
+    }
+
+    private static final class Part {
+        private final byte[] headers;
+        private final byte[] text;
+        private final Resource resource;
+        private final long resourceLength;
+
+        private Part(byte[] headers, byte[] text, Resource resource, long resourceLength) {
+            this.headers = headers;
+            this.text = text;
+            this.resource = resource;
+            this.resourceLength = resourceLength;
+        }
+
+        static Part of(String name, Object value) throws IOException {
+            if (value instanceof Resource resource) {
+                long length = resource.contentLength();
+                if (length < 0) {
+                    throw new IllegalArgumentException("Part '" + name + "' has an unknown content length");
+                }
+                String filename = resource.getFilename();
+                MediaType type = MediaTypeFactory.getMediaType(filename).orElse(MediaType.APPLICATION_OCTET_STREAM);
+                return new Part(headers(ContentDisposition.formData().name(name).filename(filename).build(), type), null, resource, length);
+            }
+            if (value instanceof CharSequence) {
+                return new Part(headers(ContentDisposition.formData().name(name).build(), TEXT_PART_TYPE),
+                        value.toString().getBytes(StandardCharsets.UTF_8), null, 0);
+            }
+            throw new IllegalArgumentException("Unsupported value type for part '" + name + "': "
+                    + (value == null ? "null" : value.getClass().getName()));
+        }
+
+        private static byte[] headers(ContentDisposition disposition, MediaType type) {
+            return ("Content-Disposition: " + disposition + "\r\n"
+                    + "Content-Type: " + type + "\r\n"
+                    + "\r\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        long length() {
+            return text != null ? text.length : resourceLength;
+        }
+
+        void writeContent(OutputStream out) throws IOException {
+            if (text != null) {
+                out.write(text);
+                return;
+            }
+
+            long written;
+            if (resource instanceof SpooledUploadResource spooled) {
+                written = spooled.transferTo(out);
+            } else {
+                written = 0;
+                try (InputStream in = resource.getInputStream()) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                        written += read;
+                    }
+                }
+            }
+            if (written != resourceLength) {
+                throw new IOException("Part " + resource.getDescription() + " changed size while being sent: expected "
+                        + resourceLength + " bytes, wrote " + written);
+            }
+        }
+    }
+}
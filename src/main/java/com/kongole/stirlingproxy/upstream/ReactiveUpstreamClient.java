@@ -0,0 +1,164 @@
+package com.kongole.stirlingproxy.upstream;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking counterpart of {@link StirlingUpstreamClient} for the reactive proxy stack: posts a multipart body
+ * given as a stream of buffers over Reactor Netty and hands back the response with its body still streaming, so
+ * neither side is ever held in full. Demand from the client connection paces the upstream read and vice versa.
+ * <p>
+ * Calls go through the same {@link ConcurrencyLimiter} and {@link UpstreamBackends} as the servlet stack and are
+ * metered under the same names. Waiting in the limiter's queue blocks, so only that wait is moved off the event loop.
+ * Connections are pooled per backend with the {@code proxy.upstream.pool} settings; the classic pool is not shared.
+ */
+@Component
+@ConditionalOnProperty(name = "proxy.reactive.enabled", havingValue = "true")
+public class ReactiveUpstreamClient {
+
+    private final UpstreamBackends backends;
+    private final ConcurrencyLimiter limiter;
+    private final StirlingUpstreamClient meters;
+    private final MeterRegistry meterRegistry;
+    private final ConnectionProvider connections;
+    private final WebClient webClient;
+
+    public ReactiveUpstreamClient(
+            UpstreamBackends backends, ConcurrencyLimiter limiter, StirlingUpstreamClient meters, MeterRegistry meterRegistry,
+            @Value("${proxy.upstream.pool.max-per-route:50}") int maxPerRoute,
+            @Value("${proxy.upstream.pool.acquire-timeout:30s}") Duration acquireTimeout,
+            @Value("${proxy.upstream.pool.idle-eviction:30s}") Duration idleEviction,
+            @Value("${proxy.upstream.pool.time-to-live:15m}") Duration timeToLive,
+            @Value("${proxy.upstream.connect-timeout:5s}") Duration connectTimeout,
+            @Value("${proxy.upstream.response-timeout:5m}") Duration responseTimeout) {
+        this.backends = backends;
+        this.limiter = limiter;
+        this.meters = meters;
+        this.meterRegistry = meterRegistry;
+        // Reactor Netty keeps one pool per remote address, so the limit applies per backend like max-per-route
+        this.connections = ConnectionProvider.builder("stirling-upstream-reactive")
+                .maxConnections(maxPerRoute)
+                .pendingAcquireTimeout(acquireTimeout)
+                .maxIdleTime(idleEviction)
+                .maxLifeTime(timeToLive)
+                .build();
+        HttpClient httpClient = HttpClient.create(connections)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .responseTimeout(responseTimeout);
+        this.webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+    /**
+     * Posts {@code body} to {@code /api/v1/{path}} as is. The returned response's body must be subscribed to (or
+     * cancelled) to end the exchange; until then the backend counts it as outstanding.
+     *
+     * @param contentLength Length of {@code body}, or -1 to send it chunked.
+     * @return The upstream response, with any status, once its headers have arrived. Fails with an
+     * {@link UpstreamOverloadedException} if the concurrency limit sheds the call.
+     */
+    public Mono<ResponseEntity<Flux<DataBuffer>>> postMultipart(String path, MediaType contentType, long contentLength,
+                                                             List<MediaType> accept, Flux<DataBuffer> body) {
+        ConcurrencyLimiter.Permit permit = limiter.tryAcquire();
+        Mono<ConcurrencyLimiter.Permit> acquired = permit != null ? Mono.just(permit)
+                : Mono.fromCallable(limiter::acquire).subscribeOn(Schedulers.boundedElastic());
+        return acquired.flatMap(granted -> exchange(path, contentType, contentLength, accept, body, granted))
+                // A permit granted after the client went away must still be handed back
+                .doOnDiscard(ConcurrencyLimiter.Permit.class, ConcurrencyLimiter.Permit::dropped);
+    }
+
+    private Mono<ResponseEntity<Flux<DataBuffer>>> exchange(String path, MediaType contentType, long contentLength,
+                                                         List<MediaType> accept, Flux<DataBuffer> body,
+                                                         ConcurrencyLimiter.Permit permit) {
+        AtomicInteger routeInFlight;
+        UpstreamBackends.Lease lease;
+        try {
+            routeInFlight = meters.inFlight(path);
+            lease = backends.acquire(null);
+        } catch (RuntimeException e) {
+            permit.dropped(); // An unreturned permit would shrink the limit for good
+            return Mono.error(e);
+        }
+        routeInFlight.incrementAndGet();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        AtomicLong requestBytes = new AtomicLong();
+        AtomicLong responseBytes = new AtomicLong();
+        AtomicBoolean responded = new AtomicBoolean();
+        AtomicBoolean finished = new AtomicBoolean();
+        Runnable failed = () -> {
+            if (!responded.get() && finished.compareAndSet(false, true)) {
+                permit.dropped();
+                lease.failed();
+                lease.release();
+                routeInFlight.decrementAndGet();
+                sample.stop(meters.requestTimer(path, StirlingUpstreamClient.IO_ERROR_STATUS));
+            }
+        };
+
+        return webClient.post()
+                .uri(URI.create(lease.getBackend().getBaseUrl() + "/api/v1/" + path))
+                .headers(headers -> {
+                    headers.setAccept(accept);
+                    headers.setContentType(contentType);
+                    if (contentLength >= 0) {
+                        headers.setContentLength(contentLength);
+                    }
+                })
+                .body(BodyInserters.fromDataBuffers(body.doOnNext(buffer -> requestBytes.addAndGet(buffer.readableByteCount()))))
+                .retrieve()
+                // Relay 4xx/5xx like any other response instead of turning them into errors
+                .onStatus(status -> true, response -> Mono.empty())
+                .toEntityFlux(DataBuffer.class)
+                .map(upstream -> {
+                    responded.set(true);
+                    permit.success();
+                    int status = upstream.getStatusCode().value();
+                    lease.responded(status);
+                    meters.bytesCounter("proxy.upstream.request.bytes", path).increment(requestBytes.get());
+                    Flux<DataBuffer> relayed = upstream.getBody() == null ? Flux.empty() : upstream.getBody();
+                    relayed = relayed
+                            .doOnNext(buffer -> responseBytes.addAndGet(buffer.readableByteCount()))
+                            .doFinally(signal -> {
+                                if (finished.compareAndSet(false, true)) {
+                                    lease.release();
+                                    routeInFlight.decrementAndGet();
+                                    meters.bytesCounter("proxy.upstream.response.bytes", path).increment(responseBytes.get());
+                                    sample.stop(meters.requestTimer(path, String.valueOf(status)));
+                                }
+                            });
+                    return new ResponseEntity<>(relayed, upstream.getHeaders(), upstream.getStatusCode());
+                })
+                .doOnError(e -> failed.run())
+                .doOnCancel(failed);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        connections.dispose();
+    }
+}
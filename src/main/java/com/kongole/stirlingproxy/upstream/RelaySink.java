@@ -0,0 +1,27 @@
+package com.kongole.stirlingproxy.upstream;
+
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A secondary destination that receives a copy of a relayed upstream body while it streams to the client.
+ */
+public interface RelaySink {
+
+    /**
+     * The stream the relayed bytes are copied into.
+     */
+    OutputStream stream();
+
+    /**
+     * Called once the whole body has been relayed.
+     */
+    void complete(int status, HttpHeaders headers) throws IOException;
+
+    /**
+     * Called instead of {@link #complete} when the relay or the sink itself failed. Must not throw.
+     */
+    void abort();
+}
@@ -0,0 +1,184 @@
+package com.kongole.stirlingproxy.upstream;
+
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+/**
+ * Request body for the async transport. The calling thread writes the body into a fixed-size ring buffer through
+ * {@link #outputStream()}, and the I/O reactor drains it whenever the connection (or the HTTP/2 stream window) can
+ * take more. A slow upstream therefore blocks the writer rather than growing the buffer.
+ */
+final class RequestBodyProducer implements AsyncEntityProducer {
+
+    private final long contentLength;
+    private final String contentType;
+    private final byte[] buffer;
+    private int head;
+    private int count;
+    private boolean writerClosed;
+    private boolean ended;
+    private Exception failure;
+    private DataStreamChannel channel;
+
+    RequestBodyProducer(long contentLength, String contentType, int bufferSize) {
+        this.contentLength = contentLength;
+        this.contentType = contentType;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * The stream the body is written to. Closing it ends the request body, so only close it once the whole body
+     * has been written.
+     */
+    OutputStream outputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                RequestBodyProducer.this.write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                RequestBodyProducer.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                closeWriter();
+            }
+        };
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            DataStreamChannel wake;
+            synchronized (this) {
+                while (count == buffer.length && failure == null && !ended) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while sending the request body upstream");
+                    }
+                }
+                if (failure != null) {
+                    throw new IOException("Upstream exchange failed while sending the request body", failure);
+                }
+                if (ended) {
+                    throw new IOException("Upstream request body was already complete");
+                }
+                int tail = (head + count) % buffer.length;
+                int chunk = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+                System.arraycopy(b, off, buffer, tail, chunk);
+                count += chunk;
+                off += chunk;
+                len -= chunk;
+                wake = channel;
+            }
+            // Outside the lock: asking for output may take the connection's own lock
+            if (wake != null) {
+                wake.requestOutput();
+            }
+        }
+    }
+
+    private void closeWriter() {
+        DataStreamChannel wake;
+        synchronized (this) {
+            writerClosed = true;
+            wake = channel;
+        }
+        if (wake != null) {
+            wake.requestOutput();
+        }
+    }
+
+    @Override
+    public void produce(DataStreamChannel channel) throws IOException {
+        boolean endStream = false;
+        synchronized (this) {
+            this.channel = channel;
+            while (count > 0) {
+                int chunk = Math.min(count, buffer.length - head);
+                int written = channel.write(ByteBuffer.wrap(buffer, head, chunk));
+                head = (head + written) % buffer.length;
+                count -= written;
+                if (written < chunk) {
+                    break; // The connection can't take more for now; the reactor calls back when it can
+                }
+            }
+            if (count == 0) {
+                head = 0;
+                if (writerClosed && !ended) {
+                    ended = true;
+                    endStream = true;
+                }
+            }
+            notifyAll();
+        }
+        if (endStream) {
+            channel.endStream();
+        }
+    }
+
+    @Override
+    public synchronized int available() {
+        if (count > 0) {
+            return count;
+        }
+        // Report something to send once the writer is done, so the reactor calls produce() to end the stream
+        return writerClosed && !ended ? 1 : 0;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public synchronized void failed(Exception cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void releaseResources() {
+        if (!ended && failure == null) {
+            failure = new IOException("Upstream exchange ended before the request body was sent");
+        }
+        notifyAll();
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return null;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return contentLength < 0;
+    }
+
+    @Override
+    public Set<String> getTrailerNames() {
+        return null;
+    }
+}
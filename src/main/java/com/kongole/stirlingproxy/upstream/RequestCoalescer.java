@@ -0,0 +1,253 @@
+package com.kongole.stirlingproxy.upstream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight coalescing of identical upstream calls.
+ * <p>
+ * The first request for a key becomes the leader and calls Stirling; its relayed body is also written
+ * to a shared temp file. Requests for the same key that arrive while the leader is in flight become
+ * followers: they wait for the leader to finish and replay the shared file instead of calling Stirling.
+ * If the leader fails, followers fall back to calling Stirling themselves.
+ */
+@Component
+public class RequestCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestCoalescer.class);
+
+    private final boolean enabled;
+    private final long waitTimeoutMillis;
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong leaders = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    public RequestCoalescer(
+            @Value("${proxy.coalescing.enabled:false}") boolean enabled,
+            @Value("${proxy.coalescing.wait-timeout:5m}") Duration waitTimeout) {
+        this.enabled = enabled;
+        this.waitTimeoutMillis = waitTimeout.toMillis();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Registers interest in {@code key}. The caller must eventually either drive the call (leader) or
+     * {@link Call#await() await} it and {@link Call#release() release} it (follower).
+     */
+    public Call join(String key) {
+        boolean[] leader = new boolean[1];
+        Flight flight = inFlight.compute(key, (k, existing) -> {
+            if (existing == null) {
+                leader[0] = true;
+                return new Flight(k);
+            }
+            existing.references.incrementAndGet(); // Held until the follower has opened the shared file
+            return existing;
+        });
+        if (leader[0]) {
+            leaders.incrementAndGet();
+        }
+        return new Call(flight, leader[0]);
+    }
+
+    public long leaders() {
+        return leaders.get();
+    }
+
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    public long fallbacks() {
+        return fallbacks.get();
+    }
+
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    private void finish(Flight flight, SharedResponse response, Throwable failure) {
+        // Removing the key first means no follower can join a flight whose outcome is already decided
+        inFlight.remove(flight.key, flight);
+        if (failure != null) {
+            flight.result.completeExceptionally(failure);
+        } else {
+            flight.result.complete(response);
+        }
+        flight.release();
+    }
+
+    /**
+     * The upstream response a leader shares with its followers.
+     */
+    public static class SharedResponse {
+        private final int status;
+        private final HttpHeaders headers;
+        private final Path bodyFile;
+
+        SharedResponse(int status, HttpHeaders headers, Path bodyFile) {
+            this.status = status;
+            this.headers = headers;
+            this.bodyFile = bodyFile;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        public Path getBodyFile() {
+            return bodyFile;
+        }
+    }
+
+    public class Call {
+        private final Flight flight;
+        private final boolean leader;
+
+        private Call(Flight flight, boolean leader) {
+            this.flight = flight;
+            this.leader = leader;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Leader only: a sink that captures the relayed body for the followers.
+         *
+         * @throws IOException If the shared file can't be created. The flight is failed, so followers call Stirling
+         *                     themselves right away instead of waiting out the timeout.
+         */
+        public RelaySink sink() throws IOException {
+            try {
+                Path file = Files.createTempFile("stirling-proxy-shared-", ".bin");
+                flight.bodyFile = file;
+                return new SharedSink(file);
+            } catch (IOException | RuntimeException e) {
+                finish(flight, null, e);
+                throw e;
+            }
+        }
+
+        /**
+         * Leader only: reports that the upstream call failed before its body could be relayed.
+         */
+        public void fail(Throwable failure) {
+            finish(flight, null, failure);
+        }
+
+        /**
+         * Follower only: waits for the leader's response.
+         *
+         * @throws IOException If the leader failed or didn't finish in time; the caller should call Stirling itself.
+         */
+        public SharedResponse await() throws IOException {
+            try {
+                SharedResponse response = flight.result.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+                coalesced.incrementAndGet();
+                return response;
+            } catch (ExecutionException | TimeoutException e) {
+                fallbacks.incrementAndGet();
+                throw new IOException("Coalesced upstream call for key " + flight.key + " did not complete", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fallbacks.incrementAndGet();
+                throw new IOException("Interrupted while waiting for coalesced upstream call", e);
+            }
+        }
+
+        /**
+         * Follower only: gives up this follower's hold on the shared file, once it has been opened or is no longer needed.
+         */
+        public void release() {
+            flight.release();
+        }
+
+        private final class SharedSink implements RelaySink {
+            private final Path file;
+            private final OutputStream out;
+            private boolean finished;
+
+            private SharedSink(Path file) throws IOException {
+                this.file = file;
+                this.out = Files.newOutputStream(file);
+            }
+
+            @Override
+            public OutputStream stream() {
+                return out;
+            }
+
+            @Override
+            public void complete(int status, HttpHeaders headers) throws IOException {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                out.close();
+                finish(flight, new SharedResponse(status, headers, file), null);
+            }
+
+            @Override
+            public void abort() {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    logger.debug("Error closing shared body file {}: {}", file, e.getMessage());
+                }
+                finish(flight, null, new IOException("Leader relay for key " + flight.key + " was aborted"));
+            }
+        }
+    }
+
+    private static final class Flight {
+        private final String key;
+        private final CompletableFuture<SharedResponse> result = new CompletableFuture<>();
+        private final AtomicInteger references = new AtomicInteger(1); // The leader's own reference
+        private volatile Path bodyFile;
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0 && bodyFile != null) {
+                try {
+                    Files.deleteIfExists(bodyFile);
+                } catch (IOException e) {
+                    logger.warn("Could not delete shared body file {}: {}", bodyFile, e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.kongole.stirlingproxy.upstream;
+
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Response side of the async transport. The response head is handed to the waiting caller as soon as it arrives,
+ * and the body is read through {@link #read(byte[], int, int)} as a blocking stream while the I/O reactor fills a
+ * bounded buffer. The reactor is only granted as much capacity as the buffer has room for, so a slow client
+ * throttles the upstream (HTTP/2 window updates, or suspended reads on HTTP/1.1) instead of the proxy buffering
+ * the whole body.
+ */
+final class ResponseBodyConsumer implements AsyncResponseConsumer<Void> {
+
+    private final int capacity;
+    private final CompletableFuture<HttpResponse> head = new CompletableFuture<>();
+    private final Deque<ByteBuffer> chunks = new ArrayDeque<>();
+    private int buffered;
+    /** Capacity granted to the reactor that it hasn't used yet. */
+    private int window;
+    private boolean ended;
+    private Exception failure;
+    private CapacityChannel capacityChannel;
+    private FutureCallback<Void> resultCallback;
+    private volatile Future<?> exchange;
+
+    ResponseBodyConsumer(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void setExchange(Future<?> exchange) {
+        this.exchange = exchange;
+    }
+
+    @Override
+    public void consumeResponse(HttpResponse response, EntityDetails entityDetails, HttpContext context,
+                                FutureCallback<Void> resultCallback) {
+        boolean noBody;
+        synchronized (this) {
+            this.resultCallback = resultCallback;
+            noBody = entityDetails == null;
+            if (noBody) {
+                ended = true;
+                notifyAll();
+            }
+        }
+        head.complete(response);
+        if (noBody) {
+            resultCallback.completed(null);
+        }
+    }
+
+    @Override
+    public void informationResponse(HttpResponse response, HttpContext context) {
+        // 1xx responses carry nothing to relay
+    }
+
+    @Override
+    public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+        int increment;
+        synchronized (this) {
+            this.capacityChannel = capacityChannel;
+            increment = capacity - buffered - window;
+            if (increment > 0) {
+                window += increment;
+            }
+        }
+        if (increment > 0) {
+            capacityChannel.update(increment);
+        }
+    }
+
+    @Override
+    public void consume(ByteBuffer src) {
+        int length = src.remaining();
+        if (length == 0) {
+            return;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(length);
+        chunk.put(src).flip();
+        synchronized (this) {
+            chunks.add(chunk);
+            buffered += length;
+            // The initial HTTP/2 stream window is granted by the protocol, not by us
+            window = Math.max(0, window - length);
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void streamEnd(List<? extends Header> trailers) {
+        FutureCallback<Void> callback;
+        synchronized (this) {
+            ended = true;
+            callback = resultCallback;
+            notifyAll();
+        }
+        if (callback != null) {
+            callback.completed(null);
+        }
+    }
+
+    @Override
+    public void failed(Exception cause) {
+        synchronized (this) {
+            if (!ended && failure == null) {
+                failure = cause;
+            }
+            notifyAll();
+        }
+        head.completeExceptionally(cause);
+    }
+
+    @Override
+    public synchronized void releaseResources() {
+        if (!ended && failure == null) {
+            failure = new IOException("Upstream exchange was released before the response body was read");
+        }
+        notifyAll();
+    }
+
+    /**
+     * Whether the response head arrived, i.e. whether the upstream has already answered.
+     */
+    boolean hasResponded() {
+        return head.isDone() && !head.isCompletedExceptionally();
+    }
+
+    HttpResponse awaitHead() throws IOException {
+        try {
+            return head.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new InterruptedIOException("Interrupted while waiting for the upstream response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Upstream exchange failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int read;
+        int increment = 0;
+        CapacityChannel grantTo;
+        synchronized (this) {
+            while (chunks.isEmpty() && !ended && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading the upstream response");
+                }
+            }
+            if (failure != null) {
+                throw new IOException("Upstream response failed: " + failure.getMessage(), failure);
+            }
+            if (chunks.isEmpty()) {
+                return -1;
+            }
+            ByteBuffer chunk = chunks.peek();
+            read = Math.min(len, chunk.remaining());
+            chunk.get(b, off, read);
+            if (!chunk.hasRemaining()) {
+                chunks.poll();
+            }
+            buffered -= read;
+
+            // Grant capacity back in sizeable steps rather than once per read
+            grantTo = capacityChannel;
+            int room = capacity - buffered - window;
+            if (!ended && grantTo != null && (room >= capacity / 4 || buffered == 0) && room > 0) {
+                increment = room;
+                window += increment;
+            }
+        }
+        if (increment > 0) {
+            grantTo.update(increment);
+        }
+        return read;
+    }
+
+    /**
+     * Releases the exchange. When the body hasn't been read to the end, the exchange is cancelled, which resets
+     * the HTTP/2 stream (or closes the HTTP/1.1 connection) so the rest of the body isn't transferred.
+     */
+    void close() {
+        boolean complete;
+        synchronized (this) {
+            complete = ended;
+            chunks.clear();
+            buffered = 0;
+        }
+        if (!complete) {
+            abort();
+        }
+    }
+
+    private void abort() {
+        synchronized (this) {
+            if (!ended && failure == null) {
+                failure = new IOException("Upstream exchange was cancelled");
+            }
+            notifyAll();
+        }
+        Future<?> current = exchange;
+        if (current != null) {
+            current.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.kongole.stirlingproxy.upstream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens multipart POST exchanges against the Stirling PDF API.
+ * The response is handed back unread so callers can relay the body without buffering it.
+ * <p>
+ * Every exchange is metered per route ({@code category/action}): {@code proxy.upstream.requests} times it from
+ * sending the request until the response is closed, i.e. until its body has been relayed, and is tagged with the
+ * upstream status; request and response bytes are counted, and {@code proxy.upstream.in.flight} gauges open exchanges.
+ * <p>
+ * Calls go through the {@link ConcurrencyLimiter}, which may reject them with an {@link UpstreamOverloadedException}
+ * before anything is sent, and then to the backend {@link UpstreamBackends} picks for them.
+ */
+@Component
+public class StirlingUpstreamClient {
+
+    static final String REQUESTS_METRIC = "proxy.upstream.requests";
+    static final String IO_ERROR_STATUS = "IO_ERROR";
+
+    private final UpstreamBackends backends;
+    private final ClientHttpRequestFactory requestFactory;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrencyLimiter limiter;
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public StirlingUpstreamClient(UpstreamBackends backends, ClientHttpRequestFactory upstreamRequestFactory,
+                                  MeterRegistry meterRegistry, ConcurrencyLimiter limiter) {
+        this.backends = backends;
+        this.requestFactory = upstreamRequestFactory;
+        this.meterRegistry = meterRegistry;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Whether backends are chosen by document content hash, so callers should pass one where they can.
+     */
+    public boolean isContentRouted() {
+        return backends.isConsistentHashing();
+    }
+
+    /**
+     * Posts a multipart form to {@code /api/v1/{path}} and returns the open upstream response.
+     * The body is sent with an exact Content-Length, so file parts must have a known length
+     * (see {@link MultipartBody}). The caller owns the returned response and must close it.
+     */
+    public ClientHttpResponse postMultipart(String path, MultiValueMap<String, Object> form, List<MediaType> accept) throws IOException {
+        return postMultipart(path, form, accept, null);
+    }
+
+    /**
+     * As {@link #postMultipart(String, MultiValueMap, List)}, with the SHA-256 of the uploaded document so that
+     * consistent hashing can send it to the same backend as earlier calls for that document.
+     */
+    public ClientHttpResponse postMultipart(String path, MultiValueMap<String, Object> form, List<MediaType> accept,
+                                            String contentHash) throws IOException {
+        MultipartBody body = MultipartBody.of(form);
+        ConcurrencyLimiter.Permit permit = limiter.acquire();
+        UpstreamBackends.Lease lease = null;
+        AtomicInteger routeInFlight;
+        Timer.Sample sample;
+        try {
+            lease = backends.acquire(contentHash);
+            routeInFlight = inFlight(path);
+            sample = Timer.start(meterRegistry);
+        } catch (RuntimeException e) {
+            // An unreturned permit would shrink the limit for good
+            permit.dropped();
+            if (lease != null) {
+                lease.release();
+            }
+            throw e;
+        }
+        routeInFlight.incrementAndGet();
+        ClientHttpResponse response = null;
+        try {
+            ClientHttpRequest request = requestFactory.createRequest(
+                    URI.create(lease.getBackend().getBaseUrl() + "/api/v1/" + path), HttpMethod.POST);
+            request.getHeaders().setAccept(accept);
+            request.getHeaders().setContentType(body.getContentType());
+            request.getHeaders().setContentLength(body.getContentLength());
+
+            if (request instanceof StreamingHttpOutputMessage streamingRequest) {
+                streamingRequest.setBody(body::writeTo);
+            } else {
+                body.writeTo(request.getBody());
+            }
+            response = request.execute();
+            lease.responded(response.getStatusCode().value());
+        } catch (IOException | RuntimeException e) {
+            if (response != null) {
+                response.close();
+            }
+            permit.dropped();
+            lease.failed();
+            lease.release();
+            routeInFlight.decrementAndGet();
+            sample.stop(requestTimer(path, IO_ERROR_STATUS));
+            throw e;
+        }
+        permit.success();
+        bytesCounter("proxy.upstream.request.bytes", path).increment(body.getContentLength());
+        return new MeteredResponse(response, this, path, sample, routeInFlight, lease);
+    }
+
+    Timer requestTimer(String path, String status) {
+        return Timer.builder(REQUESTS_METRIC)
+                .description("Upstream exchanges, from sending the request until the response body has been relayed")
+                .tag("route", path)
+                .tag("status", status)
+                .register(meterRegistry);
+    }
+
+    Counter bytesCounter(String name, String path) {
+        return Counter.builder(name)
+                .baseUnit("bytes")
+                .tag("route", path)
+                .register(meterRegistry);
+    }
+
+    AtomicInteger inFlight(String path) {
+        return inFlight.computeIfAbsent(path, route -> {
+            AtomicInteger count = new AtomicInteger();
+            Gauge.builder("proxy.upstream.in.flight", count, AtomicInteger::get)
+                    .description("Upstream exchanges whose response has not been fully relayed yet")
+                    .tag("route", route)
+                    .register(meterRegistry);
+            return count;
+        });
+    }
+}
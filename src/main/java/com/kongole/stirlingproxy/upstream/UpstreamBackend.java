@@ -0,0 +1,203 @@
+package com.kongole.stirlingproxy.upstream;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One Stirling instance behind the proxy: its base URL, the exchanges currently open against it, and the health
+ * and outlier state {@link UpstreamBackends} selects on.
+ * <p>
+ * A backend is available while its active health check passes and it isn't ejected. Ejection is passive: after
+ * {@code consecutive-failures} gateway failures in a row (connection errors, 502, 503, 504) it is taken out of
+ * rotation for the base ejection time, multiplied by the number of ejections in a row. Other 5xx responses count
+ * as errors in the stats but don't eject, since Stirling answers 500 to PDFs it can't process.
+ */
+public final class UpstreamBackend {
+
+    private static final double LATENCY_SMOOTHING = 0.1;
+
+    private final String baseUrl;
+    private final Timer successTimer;
+    private final Timer errorTimer;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong gatewayFailures = new AtomicLong();
+    private final AtomicLong ejections = new AtomicLong();
+
+    // Guarded by this
+    private double latencyNanos;
+    private int consecutiveFailures;
+    private int ejectionMultiplier;
+    private long ejectedUntilNanos;
+    private boolean ejected;
+    private boolean healthy = true;
+    private int healthCheckStreak; // Positive: passes in a row, negative: failures in a row
+    private String lastHealthCheck = "not run";
+
+    UpstreamBackend(String baseUrl, MeterRegistry meterRegistry) {
+        this.baseUrl = baseUrl;
+        this.successTimer = backendTimer(meterRegistry, "success");
+        this.errorTimer = backendTimer(meterRegistry, "error");
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Exchanges answered with a 5xx or failed without a response.
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getGatewayFailures() {
+        return gatewayFailures.get();
+    }
+
+    public long getEjections() {
+        return ejections.get();
+    }
+
+    /**
+     * Moving average of the time until response headers arrived.
+     */
+    public synchronized Duration getLatency() {
+        return Duration.ofNanos((long) latencyNanos);
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized boolean isHealthy() {
+        return healthy;
+    }
+
+    public synchronized boolean isEjected() {
+        return isEjected(System.nanoTime());
+    }
+
+    /**
+     * Time left until an ejected backend returns to rotation, or zero.
+     */
+    public synchronized Duration getEjectionRemaining() {
+        long now = System.nanoTime();
+        return isEjected(now) ? Duration.ofNanos(ejectedUntilNanos - now) : Duration.ZERO;
+    }
+
+    public synchronized String getLastHealthCheck() {
+        return lastHealthCheck;
+    }
+
+    synchronized boolean isAvailable(long now) {
+        return healthy && !isEjected(now);
+    }
+
+    void started() {
+        outstanding.incrementAndGet();
+        requests.incrementAndGet();
+    }
+
+    void finished() {
+        outstanding.decrementAndGet();
+    }
+
+    /**
+     * Records an upstream response. Returns true if this backend should now be ejected.
+     */
+    synchronized boolean responded(int status, long latency, int failureThreshold) {
+        recordLatency(latency);
+        boolean gatewayFailure = status == 502 || status == 503 || status == 504;
+        (status >= 500 ? errorTimer : successTimer).record(latency, TimeUnit.NANOSECONDS);
+        if (status >= 500) {
+            errors.incrementAndGet();
+        }
+        if (!gatewayFailure) {
+            consecutiveFailures = 0;
+            if (!ejected) {
+                ejectionMultiplier = 0;
+            }
+            return false;
+        }
+        gatewayFailures.incrementAndGet();
+        return ++consecutiveFailures >= failureThreshold && !ejected;
+    }
+
+    /**
+     * Records an exchange that failed without a response. Returns true if this backend should now be ejected.
+     */
+    synchronized boolean failed(long latency, int failureThreshold) {
+        errorTimer.record(latency, TimeUnit.NANOSECONDS);
+        errors.incrementAndGet();
+        gatewayFailures.incrementAndGet();
+        return ++consecutiveFailures >= failureThreshold && !ejected;
+    }
+
+    synchronized Duration eject(Duration baseEjectionTime, Duration maxEjectionTime, long now) {
+        ejectionMultiplier++;
+        Duration ejection = baseEjectionTime.multipliedBy(ejectionMultiplier);
+        if (ejection.compareTo(maxEjectionTime) > 0) {
+            ejection = maxEjectionTime;
+        }
+        ejected = true;
+        ejectedUntilNanos = now + ejection.toNanos();
+        consecutiveFailures = 0;
+        ejections.incrementAndGet();
+        return ejection;
+    }
+
+    /**
+     * Records an active health check. Returns true if the backend's health changed.
+     */
+    synchronized boolean healthChecked(boolean passed, String outcome, int healthyThreshold, int unhealthyThreshold) {
+        lastHealthCheck = outcome;
+        if (passed) {
+            healthCheckStreak = Math.max(1, healthCheckStreak + 1);
+            if (!healthy && healthCheckStreak >= healthyThreshold) {
+                healthy = true;
+                return true;
+            }
+        } else {
+            healthCheckStreak = Math.min(-1, healthCheckStreak - 1);
+            if (healthy && -healthCheckStreak >= unhealthyThreshold) {
+                healthy = false;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isEjected(long now) {
+        if (ejected && now - ejectedUntilNanos >= 0) {
+            ejected = false; // Back in rotation; the multiplier resets with its next good response
+        }
+        return ejected;
+    }
+
+    private void recordLatency(long latency) {
+        latencyNanos = latencyNanos == 0 ? latency : latencyNanos + (latency - latencyNanos) * LATENCY_SMOOTHING;
+    }
+
+    private Timer backendTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("proxy.upstream.backend.requests")
+                .description("Upstream exchanges per backend, until the response headers arrived")
+                .tag("backend", baseUrl)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
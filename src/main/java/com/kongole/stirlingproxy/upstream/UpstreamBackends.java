@@ -0,0 +1,245 @@
+package com.kongole.stirlingproxy.upstream;
+
+import com.kongole.stirlingproxy.util.SpooledUpload;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Stirling instances the proxy balances across, configured as a comma-separated list in
+ * {@code stirling.base.url}.
+ * <p>
+ * Each call goes to the available backend with the fewest outstanding exchanges (ties rotate), where an exchange
+ * stays outstanding until its response body has been relayed. With consistent hashing enabled, calls that carry
+ * the uploaded document's SHA-256 go to that document's place on a hash ring instead, so repeated work on the same
+ * file lands where Stirling may still have it cached; a backend is passed over while it is unavailable or already
+ * holds more than {@code hash-load-factor} times its fair share of outstanding exchanges.
+ * <p>
+ * Availability comes from {@link BackendHealthChecker} and from passive outlier ejection (see {@link UpstreamBackend}).
+ * At most {@code max-ejection-percent} of the backends are ejected at a time. If no backend is available at all,
+ * calls go to the least loaded one regardless rather than failing outright.
+ */
+@Component
+public class UpstreamBackends {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamBackends.class);
+
+    private static final int VIRTUAL_NODES = 160; // Ring points per backend
+
+    private final List<UpstreamBackend> backends;
+    private final NavigableMap<Long, UpstreamBackend> ring = new TreeMap<>();
+    private final boolean consistentHashing;
+    private final double hashLoadFactor;
+    private final int failureThreshold;
+    private final Duration baseEjectionTime;
+    private final Duration maxEjectionTime;
+    private final int maxEjected;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong panicSelections = new AtomicLong();
+
+    public UpstreamBackends(
+            @Value("${stirling.base.url}") String baseUrls,
+            @Value("${proxy.upstream.balancer.consistent-hashing:false}") boolean consistentHashing,
+            @Value("${proxy.upstream.balancer.hash-load-factor:1.25}") double hashLoadFactor,
+            @Value("${proxy.upstream.outlier.consecutive-failures:5}") int failureThreshold,
+            @Value("${proxy.upstream.outlier.base-ejection-time:30s}") Duration baseEjectionTime,
+            @Value("${proxy.upstream.outlier.max-ejection-time:5m}") Duration maxEjectionTime,
+            @Value("${proxy.upstream.outlier.max-ejection-percent:50}") int maxEjectionPercent,
+            MeterRegistry meterRegistry) {
+        List<UpstreamBackend> parsed = new ArrayList<>();
+        for (String url : baseUrls.split(",")) {
+            String trimmed = url.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            String baseUrl = trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+            if (parsed.stream().noneMatch(backend -> backend.getBaseUrl().equals(baseUrl))) {
+                parsed.add(new UpstreamBackend(baseUrl, meterRegistry));
+            }
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("stirling.base.url must name at least one Stirling instance");
+        }
+        this.backends = Collections.unmodifiableList(parsed);
+        this.consistentHashing = consistentHashing;
+        this.hashLoadFactor = Math.max(1.0, hashLoadFactor);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseEjectionTime = baseEjectionTime;
+        this.maxEjectionTime = maxEjectionTime;
+        this.maxEjected = backends.size() * Math.max(0, Math.min(100, maxEjectionPercent)) / 100;
+
+        for (UpstreamBackend backend : backends) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(backend.getBaseUrl() + "#" + i), backend);
+            }
+            Gauge.builder("proxy.upstream.backend.outstanding", backend, UpstreamBackend::getOutstanding)
+                    .description("Exchanges open against the backend")
+                    .tag("backend", backend.getBaseUrl())
+                    .register(meterRegistry);
+            Gauge.builder("proxy.upstream.backend.available", backend, b -> b.isAvailable(System.nanoTime()) ? 1 : 0)
+                    .description("1 while the backend is healthy and not ejected")
+                    .tag("backend", backend.getBaseUrl())
+                    .register(meterRegistry);
+        }
+        logger.info("Balancing Stirling calls across {} backend(s) by {}: {}", backends.size(),
+                consistentHashing ? "consistent hashing of the document" : "least outstanding requests",
+                backends.stream().map(UpstreamBackend::getBaseUrl).toList());
+    }
+
+    public List<UpstreamBackend> getBackends() {
+        return backends;
+    }
+
+    /**
+     * Whether calls are routed by document content hash, so callers should supply one.
+     */
+    public boolean isConsistentHashing() {
+        return consistentHashing && backends.size() > 1;
+    }
+
+    /**
+     * Selections made while no backend was available.
+     */
+    public long getPanicSelections() {
+        return panicSelections.get();
+    }
+
+    /**
+     * Picks the backend for one exchange and counts it as outstanding there until {@link Lease#release()}.
+     *
+     * @param contentHash SHA-256 of the uploaded document, or null when there is none or it wasn't computed.
+     */
+    public Lease acquire(String contentHash) {
+        long now = System.nanoTime();
+        UpstreamBackend backend = null;
+        if (contentHash != null && isConsistentHashing()) {
+            backend = onRing(contentHash, now);
+        }
+        if (backend == null) {
+            backend = leastOutstanding(now, true);
+        }
+        if (backend == null) {
+            panicSelections.incrementAndGet();
+            logger.debug("No Stirling backend is available, sending the call to the least loaded one anyway.");
+            backend = leastOutstanding(now, false);
+        }
+        backend.started();
+        return new Lease(backend, now);
+    }
+
+    private UpstreamBackend leastOutstanding(long now, boolean availableOnly) {
+        int size = backends.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        UpstreamBackend best = null;
+        for (int i = 0; i < size; i++) {
+            UpstreamBackend candidate = backends.get((start + i) % size);
+            if (availableOnly && !candidate.isAvailable(now)) {
+                continue;
+            }
+            if (best == null || candidate.getOutstanding() < best.getOutstanding()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The first available backend clockwise from the document's ring position that has room under the load bound.
+     */
+    private UpstreamBackend onRing(String contentHash, long now) {
+        int available = 0;
+        int outstanding = 0;
+        for (UpstreamBackend backend : backends) {
+            if (backend.isAvailable(now)) {
+                available++;
+                outstanding += backend.getOutstanding();
+            }
+        }
+        if (available == 0) {
+            return null;
+        }
+        double bound = Math.ceil(hashLoadFactor * (outstanding + 1) / available);
+
+        long position = hash(contentHash);
+        for (NavigableMap<Long, UpstreamBackend> arc : List.of(ring.tailMap(position, true), ring.headMap(position, false))) {
+            for (UpstreamBackend backend : arc.values()) {
+                if (backend.isAvailable(now) && backend.getOutstanding() + 1 <= bound) {
+                    return backend;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void maybeEject(UpstreamBackend backend, long now) {
+        synchronized (this) {
+            long ejected = backends.stream().filter(UpstreamBackend::isEjected).count();
+            if (ejected >= maxEjected) {
+                logger.warn("Stirling backend {} keeps failing, but {} of {} backends are already ejected; keeping it.",
+                        backend.getBaseUrl(), ejected, backends.size());
+                return;
+            }
+            Duration ejection = backend.eject(baseEjectionTime, maxEjectionTime, now);
+            logger.warn("Ejecting Stirling backend {} for {} after {} consecutive failures.",
+                    backend.getBaseUrl(), ejection, failureThreshold);
+        }
+    }
+
+    private static long hash(String key) {
+        byte[] digest = SpooledUpload.sha256Digest().digest(key.getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(digest).getLong();
+    }
+
+    /**
+     * One exchange's claim on a backend. Report its outcome through {@link #responded(int)} or {@link #failed()},
+     * then {@link #release()} it once the response has been closed.
+     */
+    public final class Lease {
+        private final UpstreamBackend backend;
+        private final long startNanos;
+        private final AtomicInteger released = new AtomicInteger();
+
+        private Lease(UpstreamBackend backend, long startNanos) {
+            this.backend = backend;
+            this.startNanos = startNanos;
+        }
+
+        public UpstreamBackend getBackend() {
+            return backend;
+        }
+
+        public void responded(int status) {
+            long now = System.nanoTime();
+            if (backend.responded(status, now - startNanos, failureThreshold)) {
+                maybeEject(backend, now);
+            }
+        }
+
+        public void failed() {
+            long now = System.nanoTime();
+            if (backend.failed(now - startNanos, failureThreshold)) {
+                maybeEject(backend, now);
+            }
+        }
+
+        public void release() {
+            if (released.compareAndSet(0, 1)) {
+                backend.finished();
+            }
+        }
+    }
+}
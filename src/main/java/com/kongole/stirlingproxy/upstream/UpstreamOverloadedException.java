@@ -0,0 +1,21 @@
+package com.kongole.stirlingproxy.upstream;
+
+import java.time.Duration;
+
+/**
+ * Thrown instead of calling Stirling when the {@link ConcurrencyLimiter} sheds a request. Controllers answer it
+ * with 503 and a {@code Retry-After} of {@link #getRetryAfter()}.
+ */
+public class UpstreamOverloadedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public UpstreamOverloadedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,271 @@
+package com.kongole.stirlingproxy.upstream;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Turns an open upstream response into a {@link StreamingResponseBody} so the body is copied
+ * straight from the upstream socket into the servlet output stream through a fixed-size buffer.
+ */
+public final class UpstreamRelay {
+
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    // Hop-by-hop headers (RFC 7230 section 6.1) describe the upstream connection, not the payload.
+    private static final Set<String> HOP_BY_HOP_HEADERS = Set.of(
+            "connection", "keep-alive", "proxy-authenticate", "proxy-authorization",
+            "te", "trailer", "transfer-encoding", "upgrade");
+
+    private UpstreamRelay() {
+    }
+
+    /**
+     * Builds a response carrying the upstream status and end-to-end headers whose body is pulled
+     * from the upstream lazily. The upstream response is closed once the body has been relayed.
+     */
+    public static ResponseEntity<StreamingResponseBody> relay(ClientHttpResponse upstream) throws IOException {
+        HttpHeaders headers = copyHeaders(upstream.getHeaders());
+        if (headers.getContentType() == null) {
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            try (ClientHttpResponse response = upstream; InputStream in = response.getBody()) {
+                copy(in, outputStream);
+            }
+        };
+        return ResponseEntity.status(upstream.getStatusCode()).headers(headers).body(body);
+    }
+
+    /**
+     * Same as {@link #relay(ClientHttpResponse)}, additionally copying the body into each of {@code sinks}.
+     * A failing sink is aborted on its own without interrupting the client's download or the other sinks.
+     */
+    public static ResponseEntity<StreamingResponseBody> relay(ClientHttpResponse upstream, List<RelaySink> sinks) throws IOException {
+        HttpHeaders headers = copyHeaders(upstream.getHeaders());
+        if (headers.getContentType() == null) {
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        }
+        int status = upstream.getStatusCode().value();
+
+        StreamingResponseBody body = outputStream -> {
+            boolean[] healthy = new boolean[sinks.size()];
+            Arrays.fill(healthy, true);
+            try (ClientHttpResponse response = upstream; InputStream in = response.getBody()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                    for (int i = 0; i < healthy.length; i++) {
+                        if (healthy[i]) {
+                            try {
+                                sinks.get(i).stream().write(buffer, 0, read);
+                            } catch (IOException e) {
+                                healthy[i] = false;
+                                sinks.get(i).abort();
+                            }
+                        }
+                    }
+                }
+                outputStream.flush();
+            } catch (IOException | RuntimeException e) {
+                for (int i = 0; i < healthy.length; i++) {
+                    if (healthy[i]) {
+                        sinks.get(i).abort();
+                    }
+                }
+                throw e;
+            }
+            for (int i = 0; i < healthy.length; i++) {
+                if (healthy[i]) {
+                    try {
+                        sinks.get(i).complete(status, headers);
+                    } catch (IOException e) {
+                        sinks.get(i).abort();
+                    }
+                }
+            }
+        };
+        return ResponseEntity.status(upstream.getStatusCode()).headers(headers).body(body);
+    }
+
+    /**
+     * Replays a stored response from disk. The file is opened immediately, so it stays readable
+     * even if it is evicted before the body has been streamed.
+     */
+    public static ResponseEntity<StreamingResponseBody> replay(int status, HttpHeaders storedHeaders, Path bodyFile) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(storedHeaders);
+        if (headers.getContentType() == null) {
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        }
+        headers.setContentLength(Files.size(bodyFile));
+
+        InputStream opened = Files.newInputStream(bodyFile);
+        StreamingResponseBody body = outputStream -> {
+            try (InputStream in = opened) {
+                copy(in, outputStream);
+            }
+        };
+        return ResponseEntity.status(status).headers(headers).body(body);
+    }
+
+    /**
+     * Serves a stored response as a downloadable resource with the strong ETag {@code "<etag>"}. A request whose
+     * {@code If-None-Match} matches gets 304 without a body, and a single byte {@code Range} (honoured only while
+     * {@code If-Range}, if sent, still matches) gets 206 with just those bytes, so an interrupted download resumes
+     * where it stopped. Stored error responses are replayed whole, as {@link #replay(int, HttpHeaders, Path)} does.
+     * <p>
+     * The servlet output stream is not a channel, so {@link FileChannel#transferTo} still copies every chunk through
+     * a heap buffer; this is not zero-copy. Tomcat's sendfile would avoid the copy, but it reopens the file by name
+     * once the response is committed, and stored results can be evicted or expire while a download is running.
+     */
+    public static ResponseEntity<StreamingResponseBody> replay(int status, HttpHeaders storedHeaders, Path bodyFile,
+                                                               String etag, HttpHeaders requestHeaders) throws IOException {
+        if (status != HttpStatus.OK.value()) {
+            return replay(status, storedHeaders, bodyFile);
+        }
+        String quotedEtag = "\"" + etag + "\"";
+        if (matches(requestHeaders.getIfNoneMatch(), quotedEtag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(quotedEtag).build();
+        }
+
+        // Opened before answering, so the file stays readable even if it is deleted before the body has been streamed
+        FileChannel channel = FileChannel.open(bodyFile, StandardOpenOption.READ);
+        long size;
+        try {
+            size = channel.size();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(storedHeaders);
+        if (headers.getContentType() == null) {
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        }
+        headers.setETag(quotedEtag);
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        HttpRange range = singleRange(requestHeaders, quotedEtag);
+        long start = 0;
+        long length = size;
+        HttpStatus responseStatus = HttpStatus.OK;
+        if (range != null) {
+            try {
+                start = range.getRangeStart(size);
+                length = range.getRangeEnd(size) - start + 1;
+                if (length <= 0) {
+                    throw new IllegalArgumentException("Empty range of an empty body");
+                }
+            } catch (IllegalArgumentException e) {
+                channel.close();
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .eTag(quotedEtag)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                        .build();
+            }
+            responseStatus = HttpStatus.PARTIAL_CONTENT;
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (start + length - 1) + "/" + size);
+        }
+        headers.setContentLength(length);
+
+        long from = start;
+        long count = length;
+        StreamingResponseBody body = outputStream -> {
+            try (FileChannel in = channel) {
+                WritableByteChannel target = Channels.newChannel(outputStream);
+                long position = from;
+                long end = from + count;
+                while (position < end) {
+                    position += in.transferTo(position, end - position, target);
+                }
+                outputStream.flush();
+            }
+        };
+        return ResponseEntity.status(responseStatus).headers(headers).body(body);
+    }
+
+    /**
+     * Wraps an in-memory payload (typically a short error message) in the same response shape as a relayed body.
+     */
+    public static StreamingResponseBody bytes(byte[] payload) {
+        return outputStream -> outputStream.write(payload);
+    }
+
+    /**
+     * The end-to-end upstream headers worth passing on to a client: hop-by-hop and CORS headers are dropped.
+     */
+    public static HttpHeaders copyHeaders(HttpHeaders upstreamHeaders) {
+        HttpHeaders headers = new HttpHeaders();
+        upstreamHeaders.forEach((name, values) -> {
+            String lowerName = name.toLowerCase(Locale.ROOT);
+            // CORS headers are owned by this proxy (see CorsConfig), not by Stirling
+            if (!HOP_BY_HOP_HEADERS.contains(lowerName) && !lowerName.startsWith("access-control-")) {
+                headers.put(name, values);
+            }
+        });
+        return headers;
+    }
+
+    private static boolean matches(List<String> etags, String quotedEtag) {
+        for (String candidate : etags) {
+            // If-None-Match uses the weak comparison, so W/ prefixes are ignored
+            String tag = candidate.startsWith("W/") ? candidate.substring(2) : candidate;
+            if (tag.equals("*") || tag.equals(quotedEtag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The request's byte range, or null to send the whole body: when there is no Range, when it is malformed or asks
+     * for several ranges, or when If-Range names another version. If-Range dates are not honoured, since the ETag
+     * is what identifies a stored response.
+     */
+    private static HttpRange singleRange(HttpHeaders requestHeaders, String quotedEtag) {
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(quotedEtag)) {
+            return null;
+        }
+        List<HttpRange> ranges;
+        try {
+            ranges = requestHeaders.getRange();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return ranges.size() == 1 ? ranges.get(0) : null;
+    }
+
+    static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            total += read;
+        }
+        out.flush();
+        return total;
+    }
+}
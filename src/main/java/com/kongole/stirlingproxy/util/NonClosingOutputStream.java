@@ -0,0 +1,26 @@
+package com.kongole.stirlingproxy.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes writes through to the wrapped stream but only flushes it on close. Lets writers that insist on
+ * closing their output (such as {@code PDDocument.save}) write into a stream that must stay open, like a ZIP entry.
+ */
+public class NonClosingOutputStream extends FilterOutputStream {
+
+    public NonClosingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+}
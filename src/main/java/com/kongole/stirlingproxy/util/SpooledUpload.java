@@ -0,0 +1,118 @@
+package com.kongole.stirlingproxy.util;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * An uploaded file spooled once to a temp file. When a content hash is requested, the SHA-256 is
+ * computed during that same copy; otherwise the container's own temp file is moved into place
+ * where possible. Closing the upload deletes the temp file.
+ */
+public final class SpooledUpload implements Closeable {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Path path;
+    private final String originalFilename;
+    private final long size;
+    private final String sha256;
+
+    private SpooledUpload(Path path, String originalFilename, long size, String sha256) {
+        this.path = path;
+        this.originalFilename = originalFilename;
+        this.size = size;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Spools and hashes {@code file}.
+     */
+    public static SpooledUpload spool(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return spool(in, file.getOriginalFilename());
+        }
+    }
+
+    /**
+     * Spools {@code file} without hashing it. Servlet containers that already keep the part on disk
+     * move that file into place rather than copying it. {@link #getSha256()} returns null for such uploads.
+     */
+    public static SpooledUpload spoolUnhashed(MultipartFile file) throws IOException {
+        Path path = Files.createTempFile("stirling-proxy-upload-", ".bin");
+        try {
+            // transferTo(File) goes through Part.write, which renames the container's temp file when it can
+            file.transferTo(path.toFile());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        return new SpooledUpload(path, file.getOriginalFilename(), Files.size(path), null);
+    }
+
+    public static SpooledUpload spool(InputStream in, String originalFilename) throws IOException {
+        Path path = Files.createTempFile("stirling-proxy-upload-", ".bin");
+        MessageDigest digest = sha256Digest();
+        long size = 0;
+        try (OutputStream out = Files.newOutputStream(path)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+                size += read;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        return new SpooledUpload(path, originalFilename, size, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    public static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available in this JVM", e);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Lower-case hex SHA-256 of the uploaded bytes, or null if the upload was spooled unhashed.
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * A multipart part that re-reads the spooled bytes under the original filename, with an exact length.
+     */
+    public SpooledUploadResource asResource() {
+        return new SpooledUploadResource(this);
+    }
+
+    @Override
+    public void close() throws IOException {
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,78 @@
+package com.kongole.stirlingproxy.util;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Upload-forwarding resource over a {@link SpooledUpload}: reports the exact content length and
+ * is re-readable, so it can be sent upstream with a fixed Content-Length.
+ */
+public class SpooledUploadResource extends AbstractResource {
+    private final SpooledUpload upload;
+
+    public SpooledUploadResource(SpooledUpload upload) {
+        this.upload = upload;
+    }
+
+    @Override
+    public String getFilename() {
+        return upload.getOriginalFilename();
+    }
+
+    @Override
+    public long contentLength() {
+        return upload.getSize();
+    }
+
+    @Override
+    public boolean exists() {
+        return Files.exists(upload.getPath());
+    }
+
+    @Override
+    public boolean isFile() {
+        return true;
+    }
+
+    @Override
+    public File getFile() {
+        return upload.getPath().toFile();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Files.newInputStream(upload.getPath());
+    }
+
+    /**
+     * Writes the spooled bytes to {@code out} with {@link FileChannel#transferTo}, which reads straight from
+     * the page cache instead of filling a heap array per read.
+     *
+     * @return The number of bytes written.
+     */
+    public long transferTo(OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(upload.getPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return position;
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "spooled upload [" + upload.getOriginalFilename() + "] at " + upload.getPath();
+    }
+}
@@ -0,0 +1,41 @@
+package com.kongole.stirlingproxy.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The uploads spooled for one proxied request. Closing the spool deletes all of them.
+ */
+public class UploadSpool implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSpool.class);
+
+    private final List<SpooledUpload> uploads = new ArrayList<>();
+
+    /**
+     * Spools {@code file} (unhashed) and returns it as a part ready to be forwarded.
+     */
+    public SpooledUploadResource add(MultipartFile file) throws IOException {
+        SpooledUpload upload = SpooledUpload.spoolUnhashed(file);
+        uploads.add(upload);
+        return upload.asResource();
+    }
+
+    @Override
+    public void close() {
+        for (SpooledUpload upload : uploads) {
+            try {
+                upload.close();
+            } catch (IOException e) {
+                logger.warn("Could not delete spooled upload {}: {}", upload.getPath(), e.getMessage());
+            }
+        }
+        uploads.clear();
+    }
+}
@@ -0,0 +1,338 @@
+package com.kongole.stirlingproxy.pdf;
+
+import com.kongole.stirlingproxy.dto.BookmarkInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDNamedDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Differential tests: the lazily parsed outline of each file must match the one read from a full
+ * {@link PDDocument#load}, and files the lazy parser doesn't handle must make it fail rather than answer.
+ */
+class LazyPdfParserTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void plainFileMatchesFullLoad() throws IOException {
+        Path file = directory.resolve("plain.pdf");
+        try (PDDocument document = documentWithOutline(5)) {
+            document.save(file.toFile());
+        }
+
+        OutlineSummary summary = assertSameOutline(file);
+        assertEquals(List.of("0:Introduction@1", "0:Methods@2", "1:Setup@3", "1:Überblick — 概要@4", "0:Results@5"),
+                describe(summary.getBookmarks()));
+    }
+
+    @Test
+    void fileWithoutOutlineMatchesFullLoad() throws IOException {
+        Path file = directory.resolve("no-outline.pdf");
+        try (PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage());
+            document.addPage(new PDPage());
+            document.save(file.toFile());
+        }
+
+        OutlineSummary summary = assertSameOutline(file);
+        assertFalse(summary.hasOutline());
+        assertEquals(2, summary.getPageCount());
+    }
+
+    @Test
+    void incrementalUpdateMatchesFullLoad() throws IOException {
+        Path original = directory.resolve("original.pdf");
+        try (PDDocument document = documentWithOutline(5)) {
+            document.save(original.toFile());
+        }
+        Path updated = directory.resolve("updated.pdf");
+        try (PDDocument document = PDDocument.load(original.toFile());
+             OutputStream out = Files.newOutputStream(updated)) {
+            PDDocumentOutline outline = document.getDocumentCatalog().getDocumentOutline();
+            PDOutlineItem previousLast = outline.getLastChild();
+            PDOutlineItem appendix = new PDOutlineItem();
+            appendix.setTitle("Appendix");
+            appendix.setDestination(document.getPage(4));
+            outline.addLast(appendix);
+            document.getDocumentCatalog().getCOSObject().setNeedToBeUpdated(true);
+            outline.getCOSObject().setNeedToBeUpdated(true);
+            previousLast.getCOSObject().setNeedToBeUpdated(true);
+            appendix.getCOSObject().setNeedToBeUpdated(true);
+            document.saveIncremental(out);
+        }
+        assertEquals(2, occurrences(Files.readAllBytes(updated), "startxref"), "Expected an appended cross-reference section");
+
+        OutlineSummary summary = assertSameOutline(updated);
+        assertEquals("0:Appendix@5", describe(summary.getBookmarks()).get(5));
+    }
+
+    @Test
+    void objectStreamsWithCrossReferenceStreamMatchFullLoad() throws IOException {
+        Path file = directory.resolve("compressed.pdf");
+        Files.write(file, compressedPdf(false, "/FlateDecode"));
+
+        OutlineSummary summary = assertSameOutline(file);
+        assertEquals(List.of("0:Introduction@1", "0:Methods@2", "1:Setup@3"), describe(summary.getBookmarks()));
+    }
+
+    @Test
+    void hybridFileMatchesFullLoad() throws IOException {
+        Path file = directory.resolve("hybrid.pdf");
+        Files.write(file, compressedPdf(true, "/FlateDecode"));
+
+        OutlineSummary summary = assertSameOutline(file);
+        assertEquals(List.of("0:Introduction@1", "0:Methods@2", "1:Setup@3"), describe(summary.getBookmarks()));
+    }
+
+    @Test
+    void namedDestinationsResolveLikePdfBox() throws IOException {
+        Path file = directory.resolve("named.pdf");
+        Files.write(file, compressedPdf(false, "/FlateDecode"));
+
+        try (PDDocument document = PDDocument.load(file.toFile())) {
+            PageIndex pageIndex = PageIndex.of(document);
+            for (String name : List.of("intro", "setup", "missing")) {
+                PDNamedDestination destination = new PDNamedDestination(name);
+                PDPageDestination expected = document.getDocumentCatalog().findNamedDestinationPage(destination);
+                PDPageDestination actual = pageIndex.resolve(destination);
+                assertEquals(expected == null ? -1 : pageIndex.indexOf(expected.getPage()),
+                        actual == null ? -1 : pageIndex.indexOf(actual.getPage()), name);
+            }
+            assertEquals(2, pageIndex.indexOf(pageIndex.resolve(new PDNamedDestination("setup")).getPage()));
+        }
+    }
+
+    @Test
+    void encryptedFileIsRejected() throws IOException {
+        Path file = directory.resolve("encrypted.pdf");
+        try (PDDocument document = documentWithOutline(5)) {
+            StandardProtectionPolicy policy = new StandardProtectionPolicy("owner", "", new AccessPermission());
+            policy.setEncryptionKeyLength(128);
+            document.protect(policy);
+            document.save(file.toFile());
+        }
+
+        assertThrows(LazyPdfParser.LazyParseException.class, () -> LazyPdfParser.open(file).close());
+    }
+
+    @Test
+    void unsupportedFilterIsRejected() throws IOException {
+        Path file = directory.resolve("ascii-hex.pdf");
+        Files.write(file, compressedPdf(false, "/ASCIIHexDecode"));
+
+        assertThrows(LazyPdfParser.LazyParseException.class, () -> {
+            try (PDDocument document = LazyPdfParser.open(file)) {
+                OutlineSummary.read(document);
+            }
+        });
+    }
+
+    @Test
+    void loaderFallsBackToFullLoad() throws IOException {
+        Path encrypted = directory.resolve("encrypted.pdf");
+        try (PDDocument document = documentWithOutline(5)) {
+            StandardProtectionPolicy policy = new StandardProtectionPolicy("owner", "", new AccessPermission());
+            policy.setEncryptionKeyLength(128);
+            document.protect(policy);
+            document.save(encrypted.toFile());
+        }
+        Path asciiHex = directory.resolve("ascii-hex.pdf");
+        Files.write(asciiHex, compressedPdf(false, "/ASCIIHexDecode"));
+        PdfDocumentLoader loader = new PdfDocumentLoader(DataSize.ofMegabytes(256), DataSize.ofMegabytes(8),
+                DataSize.ofMegabytes(64), true, new SimpleMeterRegistry());
+
+        assertEquals(describe(fullOutline(encrypted).getBookmarks()),
+                describe(loader.readOutline(encrypted, "encrypted.pdf").getBookmarks()));
+        assertEquals(List.of("0:Introduction@1", "0:Methods@2", "1:Setup@3"),
+                describe(loader.readOutline(asciiHex, "ascii-hex.pdf").getBookmarks()));
+        assertEquals(2, loader.getLazyOutlineFallbacks());
+        assertEquals(0, loader.getLazyOutlineReads());
+    }
+
+    /**
+     * Reads the outline of {@code file} both ways, checks that they agree and returns the lazily read one.
+     */
+    private static OutlineSummary assertSameOutline(Path file) throws IOException {
+        OutlineSummary expected = fullOutline(file);
+        OutlineSummary actual;
+        try (PDDocument document = LazyPdfParser.open(file)) {
+            actual = OutlineSummary.read(document);
+        }
+        assertEquals(expected.getPageCount(), actual.getPageCount(), "page count");
+        assertEquals(expected.hasOutline(), actual.hasOutline(), "outline presence");
+        assertEquals(describe(expected.getBookmarks()), describe(actual.getBookmarks()), "bookmarks");
+        return actual;
+    }
+
+    private static OutlineSummary fullOutline(Path file) throws IOException {
+        try (PDDocument document = PDDocument.load(file.toFile())) {
+            return OutlineSummary.read(document);
+        }
+    }
+
+    private static List<String> describe(List<BookmarkInfo> bookmarks) {
+        List<String> described = new ArrayList<>();
+        for (BookmarkInfo bookmark : bookmarks) {
+            described.add(bookmark.getLevel() + ":" + bookmark.getTitle() + "@" + bookmark.getPageNumber());
+        }
+        return described;
+    }
+
+    /**
+     * A document of {@code pages} pages with a two-level outline, one of whose titles needs UTF-16.
+     */
+    private static PDDocument documentWithOutline(int pages) {
+        PDDocument document = new PDDocument();
+        for (int i = 0; i < pages; i++) {
+            document.addPage(new PDPage());
+        }
+        PDDocumentOutline outline = new PDDocumentOutline();
+        document.getDocumentCatalog().setDocumentOutline(outline);
+        outline.addLast(item("Introduction", document.getPage(0)));
+        PDOutlineItem methods = item("Methods", document.getPage(1));
+        methods.addLast(item("Setup", document.getPage(2)));
+        methods.addLast(item("Überblick — 概要", document.getPage(3)));
+        outline.addLast(methods);
+        outline.addLast(item("Results", document.getPage(4)));
+        return document;
+    }
+
+    private static PDOutlineItem item(String title, PDPage page) {
+        PDOutlineItem item = new PDOutlineItem();
+        item.setTitle(title);
+        item.setDestination(page);
+        return item;
+    }
+
+    /**
+     * A PDF 1.5 file whose objects all sit in one object stream encoded with {@code filter}, indexed by a
+     * cross-reference stream with a PNG Up predictor. When {@code hybrid}, a cross-reference table lists the
+     * uncompressed objects and points at the stream through /XRefStm, as in files written for older readers.
+     * "Introduction" goes to its page through the catalog's /Dests dictionary, "Setup" through the /Names name
+     * tree, which wins over the /Dests entry of the same name pointing elsewhere.
+     */
+    private static byte[] compressedPdf(boolean hybrid, String filter) throws IOException {
+        String[] objects = {
+                "<< /Type /Catalog /Pages 2 0 R /Outlines 6 0 R /Names << /Dests << /Names [(setup) [5 0 R /Fit]] >> >>"
+                        + " /Dests << /intro [3 0 R /Fit] /setup [4 0 R /Fit] >> >>",
+                "<< /Type /Pages /Kids [3 0 R 4 0 R 5 0 R] /Count 3 >>",
+                "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] >>",
+                "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] >>",
+                "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] >>",
+                "<< /Type /Outlines /First 7 0 R /Last 8 0 R /Count 3 >>",
+                "<< /Title (Introduction) /Parent 6 0 R /Next 8 0 R /Dest (intro) >>",
+                "<< /Title (Methods) /Parent 6 0 R /Prev 7 0 R /First 9 0 R /Last 9 0 R /Count 1 /Dest [4 0 R /XYZ 0 792 0] >>",
+                "<< /Title (Setup) /Parent 8 0 R /Dest (setup) >>",
+        };
+        int objectStream = objects.length + 1;
+        int xrefStream = objects.length + 2;
+        int size = objects.length + 3;
+
+        StringBuilder header = new StringBuilder();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < objects.length; i++) {
+            header.append(i + 1).append(' ').append(body.length()).append(' ');
+            body.append(objects[i]).append('\n');
+        }
+        byte[] streamData = (header + body.toString()).getBytes(StandardCharsets.US_ASCII);
+        byte[] encoded = "/FlateDecode".equals(filter) ? deflate(streamData)
+                : (HexFormat.of().formatHex(streamData) + ">").getBytes(StandardCharsets.US_ASCII);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "%PDF-1.5\n%âãÏÓ\n");
+        long objectStreamOffset = out.size();
+        write(out, objectStream + " 0 obj\n<< /Type /ObjStm /N " + objects.length + " /First " + header.length()
+                + " /Filter " + filter + " /Length " + encoded.length + " >>\nstream\n");
+        out.write(encoded);
+        write(out, "\nendstream\nendobj\n");
+
+        // Rows of /W [1 2 2]: type, offset or object stream number, generation or index
+        long xrefStreamOffset = out.size();
+        ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        rows.write(new byte[] {0, 0, 0, (byte) 0xFF, (byte) 0xFF});
+        for (int i = 0; i < objects.length; i++) {
+            rows.write(new byte[] {2, (byte) (objectStream >> 8), (byte) objectStream, (byte) (i >> 8), (byte) i});
+        }
+        rows.write(new byte[] {1, (byte) (objectStreamOffset >> 8), (byte) objectStreamOffset, 0, 0});
+        rows.write(new byte[] {1, (byte) (xrefStreamOffset >> 8), (byte) xrefStreamOffset, 0, 0});
+        byte[] xrefData = deflate(pngUp(rows.toByteArray(), 5));
+        write(out, xrefStream + " 0 obj\n<< /Type /XRef /Size " + size + " /W [1 2 2] /Root 1 0 R /Filter /FlateDecode"
+                + " /DecodeParms << /Predictor 12 /Columns 5 >> /Length " + xrefData.length + " >>\nstream\n");
+        out.write(xrefData);
+        write(out, "\nendstream\nendobj\n");
+
+        if (!hybrid) {
+            write(out, "startxref\n" + xrefStreamOffset + "\n%%EOF\n");
+            return out.toByteArray();
+        }
+        long tableOffset = out.size();
+        StringBuilder table = new StringBuilder("xref\n0 " + size + "\n0000000000 65535 f\r\n");
+        for (int i = 0; i < objects.length; i++) {
+            table.append("0000000000 00000 f\r\n"); // Compressed, so only the stream knows where they are
+        }
+        table.append(String.format("%010d 00000 n\r\n", objectStreamOffset));
+        table.append(String.format("%010d 00000 n\r\n", xrefStreamOffset));
+        table.append("trailer\n<< /Size ").append(size).append(" /Root 1 0 R /XRefStm ").append(xrefStreamOffset).append(" >>\n");
+        table.append("startxref\n").append(tableOffset).append("\n%%EOF\n");
+        write(out, table.toString());
+        return out.toByteArray();
+    }
+
+    private static byte[] pngUp(byte[] data, int columns) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int row = 0; row < data.length; row += columns) {
+            out.write(2);
+            for (int i = 0; i < columns; i++) {
+                int above = row == 0 ? 0 : data[row - columns + i];
+                out.write(data[row + i] - above);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+            deflater.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static int occurrences(byte[] data, String keyword) {
+        String text = new String(data, StandardCharsets.ISO_8859_1);
+        int count = 0;
+        for (int at = text.indexOf(keyword); at >= 0; at = text.indexOf(keyword, at + 1)) {
+            count++;
+        }
+        return count;
+    }
+}